@@ -15,20 +15,18 @@
 package com.norconex.committer.idol;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.apache.commons.lang3.StringUtils.equalsAny;
 
+import java.io.FilterWriter;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URL;
 import java.util.List;
 import java.util.Map.Entry;
 
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-
-import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64OutputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
@@ -39,7 +37,11 @@ import com.norconex.commons.lang.url.HttpURL;
 
 /* CFS "ingest" "adds" action:
  *
- *   http://server:port/action=ingest&adds=[URLencodedXML]
+ *   POST http://server:port/action=ingest
+ *   adds=[URLencodedXML]
+ *
+ * The "adds" parameter is sent as a form-encoded body rather than
+ * in the URL so it can be streamed and is not limited in size.
  *
  * The [URLencodedXML] is of this format:
  *
@@ -62,22 +64,52 @@ import com.norconex.commons.lang.url.HttpURL;
  *
  * https://www.microfocus.com/documentation/idol/IDOL_12_0/CFS/Guides/pdf/
  * English/ConnectorFrameworkServer_12.0_Admin_en.pdf (Page 40-41)
+ *
+ * The XML is written by a purpose-built writer producing the same output
+ * a StAX writer would, URL-encoded as it is written.
  */
 class CfsIngestAddsAction implements IIdolIndexAction {
 
-    private final IdolCommitterConfig config;
+    private final IdolFieldPlan fieldPlan;
+    private final String databaseName;
+    private final IdolJfr jfr;
 
-    CfsIngestAddsAction(IdolCommitterConfig config) {
-        this.config = config;
+    CfsIngestAddsAction(IdolCommitterConfig config, IdolFieldPlan fieldPlan) {
+        this(fieldPlan, config.getDatabaseName(), new IdolJfr(config));
+    }
+    CfsIngestAddsAction(
+            IdolFieldPlan fieldPlan, String databaseName, IdolJfr jfr) {
+        this.fieldPlan = fieldPlan;
+        this.databaseName = databaseName;
+        this.jfr = jfr;
     }
 
     @Override
     public URL url(List<ICommitterRequest> batch, HttpURL url)
             throws CommitterException {
+        url.getQueryString().set("action", "ingest");
+        return url.toURL();
+    }
+    @Override
+    public void writeTo(List<ICommitterRequest> batch, Writer writer)
+            throws CommitterException {
         try {
-            url.getQueryString().set("action", "ingest");
-            url.getQueryString().set("adds", toCfsXmlBatch(batch));
-            return url.toURL();
+            writer.write("adds=");
+            // sizes reported to JFR are approximate, as the URL-encoding
+            // writer can buffer part of a document
+            Writer dw = jfr.documentWriter(writer);
+            Writer w = new UrlEncodingWriter(dw);
+            AddsXmlWriter xml = new AddsXmlWriter(w);
+            xml.markup("<adds>");
+            for (ICommitterRequest upsert : batch) {
+                Object event = jfr.beginDocument(dw);
+                writeDocUpsert(xml, (UpsertRequest) upsert);
+                xml.flush();
+                jfr.commitDocument(event, "ingest", upsert.getReference());
+            }
+            xml.markup("</adds>");
+            xml.flush();
+            w.flush();
         } catch (CommitterException e) {
             throw e;
         } catch (Exception e) {
@@ -86,37 +118,20 @@ class CfsIngestAddsAction implements IIdolIndexAction {
         }
     }
     @Override
-    public void writeTo(List<ICommitterRequest> batch, Writer writer)
-            throws CommitterException {
-        //NOOP
+    public String contentType() {
+        return "application/x-www-form-urlencoded; charset=utf-8";
     }
 
-    private String toCfsXmlBatch(List<ICommitterRequest> batch)
-            throws XMLStreamException, CommitterException, IOException {
-        StringWriter w = new StringWriter();
-        XMLOutputFactory factory = XMLOutputFactory.newInstance();
-        XMLStreamWriter xml = factory.createXMLStreamWriter(w);
-        xml.writeStartElement("adds");
-        for (ICommitterRequest upsert : batch) {
-            writeDocUpsert(xml, (UpsertRequest) upsert);
-        }
-        xml.writeEndElement();
-        xml.flush();
-        xml.close();
-        return w.toString();
-    }
-
-    private void writeDocUpsert(XMLStreamWriter xml, UpsertRequest req)
-            throws XMLStreamException, CommitterException, IOException {
-        String refField = config.getSourceReferenceField();
-        String contentField = config.getSourceContentField();
+    private void writeDocUpsert(AddsXmlWriter xml, UpsertRequest req)
+            throws CommitterException, IOException {
+        String refField = fieldPlan.referenceField();
+        String contentField = fieldPlan.contentField();
 
-        xml.writeStartElement("add");
-        xml.writeStartElement("document");
+        xml.markup("<add><document>");
 
         //--- Document reference ---
         String ref = req.getReference();
-        if (StringUtils.isNotBlank(refField)) {
+        if (refField != null) {
             ref = req.getMetadata().getString(refField);
             if (StringUtils.isBlank(ref)) {
                 throw new CommitterException("Source reference field '"
@@ -124,48 +139,214 @@ class CfsIngestAddsAction implements IIdolIndexAction {
                         + req.getReference());
             }
         }
-        xml.writeStartElement("reference");
-        xml.writeCharacters(ref);
-        xml.writeEndElement();
+        xml.markup("<reference>").text(ref).markup("</reference>");
 
         //--- Document metadata ---
         for (Entry<String, List<String>> en : req.getMetadata().entrySet()) {
-            String name = en.getKey();
+            String name = fieldPlan.targetName(en.getKey());
             List<String> values = en.getValue();
-            if (values == null || equalsAny(name, refField, contentField)) {
+            if (values == null || name == null) {
                 continue;
             }
             for (String value : values) {
-                xml.writeStartElement("metadata");
-                xml.writeAttribute("name", name);
-                xml.writeAttribute("value", value);
-                xml.writeEndElement();
+                xml.markup("<metadata name=\"").attribute(name)
+                        .markup("\" value=\"").attribute(fieldPlan.value(value))
+                        .markup("\"></metadata>");
             }
         }
 
         //--- IDOL Database ---
-        if (StringUtils.isNotBlank(config.getDatabaseName())) {
-            xml.writeStartElement("metadata");
-            xml.writeAttribute("name", "DREDBNAME");
-            xml.writeAttribute("value", config.getDatabaseName());
-            xml.writeEndElement();
+        if (StringUtils.isNotBlank(databaseName)) {
+            xml.markup("<metadata name=\"DREDBNAME\" value=\"")
+                    .attribute(databaseName).markup("\"></metadata>");
         }
 
-        xml.writeEndElement(); // end "document"
+        xml.markup("</document>");
 
         //--- Document content ---
-        String content;
-        if (StringUtils.isNotBlank(contentField)) {
-            content = StringUtils.trimToEmpty(String.join("\n\n",
-                    req.getMetadata().getStrings(contentField)));
-        } else {
-            content = IOUtils.toString(req.getContent(), UTF_8);
-        }
-        xml.writeStartElement("source");
-        xml.writeAttribute("content",
-                Base64.encodeBase64String(content.getBytes(UTF_8)));
-        xml.writeEndElement();
-
-        xml.writeEndElement(); // end "add"
+        // Base64-encoded as it is read, no line breaks
+        xml.markup("<source content=\"");
+        try (Writer content = new OutputStreamWriter(new Base64OutputStream(
+                xml.markupStream(), true, 0, null), UTF_8)) {
+            if (contentField != null) {
+                content.write(StringUtils.trimToEmpty(String.join("\n\n",
+                        req.getMetadata().getStrings(contentField))));
+            } else {
+                // decoded and encoded again so invalid UTF-8 is replaced
+                IOUtils.copy(new InputStreamReader(
+                        req.getContent(), UTF_8), content);
+            }
+        }
+        xml.markup("\"></source></add>");
+    }
+
+    // Writes XML as a StAX writer would (same escaping, elements never
+    // self-closed), without a factory lookup or per-character calls.
+    static class AddsXmlWriter {
+        private static final char[][] TEXT_ESCAPES = new char[128][];
+        private static final char[][] ATTR_ESCAPES = new char[128][];
+        static {
+            TEXT_ESCAPES['<'] = "&lt;".toCharArray();
+            TEXT_ESCAPES['>'] = "&gt;".toCharArray();
+            TEXT_ESCAPES['&'] = "&amp;".toCharArray();
+            System.arraycopy(TEXT_ESCAPES, 0, ATTR_ESCAPES, 0, 128);
+            ATTR_ESCAPES['"'] = "&quot;".toCharArray();
+        }
+        private final Writer out;
+        private final char[] buf = new char[8192];
+        private int pos;
+        AddsXmlWriter(Writer out) {
+            this.out = out;
+        }
+        // Element markup, written as is.
+        AddsXmlWriter markup(String str) throws IOException {
+            return write(str, null);
+        }
+        AddsXmlWriter text(String str) throws IOException {
+            return write(str, TEXT_ESCAPES);
+        }
+        AddsXmlWriter attribute(String str) throws IOException {
+            return write(str, ATTR_ESCAPES);
+        }
+        void flush() throws IOException {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        // ASCII bytes (such as Base64) written as markup. Closing it
+        // does not close this writer.
+        OutputStream markupStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    if (pos == buf.length) {
+                        AddsXmlWriter.this.flush();
+                    }
+                    buf[pos++] = (char) b;
+                }
+            };
+        }
+        private AddsXmlWriter write(String str, char[][] escapes)
+                throws IOException {
+            int len = str.length();
+            for (int i = 0; i < len; i++) {
+                char ch = str.charAt(i);
+                char[] esc = escapes != null && ch < 128 ? escapes[ch] : null;
+                if (pos + 6 > buf.length) {
+                    flush();
+                }
+                if (esc == null) {
+                    buf[pos++] = ch;
+                } else {
+                    System.arraycopy(esc, 0, buf, pos, esc.length);
+                    pos += esc.length;
+                }
+            }
+            return this;
+        }
+    }
+
+    // Same encoding as URLEncoder, but streamed.
+    static class UrlEncodingWriter extends FilterWriter {
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+        // encoded ASCII characters
+        private static final char[][] ASCII = new char[128][];
+        static {
+            for (char ch = 0; ch < 128; ch++) {
+                if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')
+                        || (ch >= '0' && ch <= '9')
+                        || ch == '-' || ch == '_' || ch == '.' || ch == '*') {
+                    ASCII[ch] = new char[] { ch };
+                } else if (ch == ' ') {
+                    ASCII[ch] = new char[] { '+' };
+                } else {
+                    ASCII[ch] = new char[] {
+                            '%', HEX[ch >> 4], HEX[ch & 0xF] };
+                }
+            }
+        }
+        private final char[] buf = new char[8192];
+        private int pos;
+        private char highSurrogate;
+        UrlEncodingWriter(Writer out) {
+            super(out);
+        }
+        @Override
+        public void write(int c) throws IOException {
+            // a surrogate pair is at most 12 encoded characters
+            if (pos + 12 > buf.length) {
+                flushBuffer();
+            }
+            char ch = (char) c;
+            if (ch < 128 && highSurrogate == 0) {
+                char[] enc = ASCII[ch];
+                System.arraycopy(enc, 0, buf, pos, enc.length);
+                pos += enc.length;
+            } else if (Character.isHighSurrogate(ch)) {
+                highSurrogate = ch;
+            } else if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(ch)) {
+                    encode(Character.toCodePoint(high, ch));
+                } else {
+                    // unpaired, as encoded by String#getBytes
+                    encode('?');
+                    write(ch);
+                }
+            } else if (Character.isLowSurrogate(ch)) {
+                encode('?');
+            } else {
+                encode(ch);
+            }
+        }
+        // UTF-8 bytes of a code point, percent-encoded
+        private void encode(int cp) {
+            if (cp < 0x80) {
+                percent(cp);
+            } else if (cp < 0x800) {
+                percent(0xC0 | (cp >> 6));
+                percent(0x80 | (cp & 0x3F));
+            } else if (cp < 0x10000) {
+                percent(0xE0 | (cp >> 12));
+                percent(0x80 | ((cp >> 6) & 0x3F));
+                percent(0x80 | (cp & 0x3F));
+            } else {
+                percent(0xF0 | (cp >> 18));
+                percent(0x80 | ((cp >> 12) & 0x3F));
+                percent(0x80 | ((cp >> 6) & 0x3F));
+                percent(0x80 | (cp & 0x3F));
+            }
+        }
+        private void percent(int b) {
+            buf[pos++] = '%';
+            buf[pos++] = HEX[b >> 4];
+            buf[pos++] = HEX[b & 0xF];
+        }
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(cbuf[i]);
+            }
+        }
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(str.charAt(i));
+            }
+        }
+        private void flushBuffer() throws IOException {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+        @Override
+        public void close() throws IOException {
+            // do not close underlying writer
+            flush();
+        }
     }
 }
@@ -49,16 +49,21 @@ class CfsIngestRemovesAction implements IIdolIndexAction {
             LoggerFactory.getLogger(CfsIngestRemovesAction.class);
 
     private final IdolCommitterConfig config;
+    private final String databaseName;
 
     CfsIngestRemovesAction(IdolCommitterConfig config) {
+        this(config, config.getDatabaseName());
+    }
+    CfsIngestRemovesAction(IdolCommitterConfig config, String databaseName) {
         this.config = config;
+        this.databaseName = databaseName;
     }
 
     @Override
     public URL url(List<ICommitterRequest> batch, HttpURL url)
             throws CommitterException {
         url.getQueryString().set("action", "ingest");
-        url.getQueryString().set("DREDbName", config.getDatabaseName());
+        url.getQueryString().set("DREDbName", databaseName);
         try {
             return addRemovesToUrl(batch, url.toString());
         } catch (MalformedURLException | UnsupportedEncodingException e) {
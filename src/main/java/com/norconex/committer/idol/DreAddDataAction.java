@@ -15,9 +15,11 @@
 package com.norconex.committer.idol;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.apache.commons.lang3.StringUtils.equalsAny;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.net.URL;
 import java.util.List;
@@ -48,6 +50,12 @@ import com.norconex.commons.lang.url.HttpURL;
  *   #DREENDDOC
  *   #DREENDDATAREFERENCE
  *
+ * Content longer than the maximum section size is split into
+ * consecutive documents of the same reference, with the same fields,
+ * numbered with "#DRESECTION" (the first one being section 0, implied).
+ * Splits are made after whitespace when found near the end of
+ * a section.  Content is streamed, never held in memory whole.
+ *
  * Reference material:
  *
  * https://www.microfocus.com/documentation/idol/IDOL_12_7/
@@ -56,10 +64,25 @@ import com.norconex.commons.lang.url.HttpURL;
  */
 class DreAddDataAction implements IIdolIndexAction {
 
-    private final IdolCommitterConfig config;
+    static final String END_DATA = "\n#DREENDDATANOOP\n\n";
+    static final String END_DOC = "\n#DREENDDOC \n";
+
+    private final IdolFieldPlan fieldPlan;
+    private final String databaseName;
+    private final long maxSectionSize;
+    private final IdolJfr jfr;
 
-    DreAddDataAction(IdolCommitterConfig config) {
-        this.config = config;
+    DreAddDataAction(IdolCommitterConfig config, IdolFieldPlan fieldPlan) {
+        this(fieldPlan, config.getDatabaseName(),
+                config.getMaxSectionSize(), new IdolJfr(config));
+    }
+    // Database other than the configured one, as for bulk reloads
+    DreAddDataAction(IdolFieldPlan fieldPlan, String databaseName,
+            long maxSectionSize, IdolJfr jfr) {
+        this.fieldPlan = fieldPlan;
+        this.databaseName = databaseName;
+        this.maxSectionSize = maxSectionSize;
+        this.jfr = jfr;
     }
 
     @Override
@@ -72,26 +95,41 @@ class DreAddDataAction implements IIdolIndexAction {
     @Override
     public void writeTo(List<ICommitterRequest> batch, Writer w)
             throws CommitterException {
+        writeDocuments(batch, w);
+        try {
+            w.append(END_DATA);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not convert committer batch to IDX.", e);
+        }
+    }
+    // Documents only, without marking the end of the data, as for
+    // streaming sessions.
+    void writeDocuments(List<ICommitterRequest> batch, Writer w)
+            throws CommitterException {
         try {
+            Writer dw = jfr.documentWriter(w);
+            char[] buf = maxSectionSize > 0 ? new char[8192] : null;
             for (ICommitterRequest req : batch) {
-                writeIdxDocument(w, (UpsertRequest) req);
+                Object event = jfr.beginDocument(dw);
+                writeIdxDocument(dw, (UpsertRequest) req, buf);
+                jfr.commitDocument(event, "DREADDDATA", req.getReference());
             }
-            w.append("\n#DREENDDATANOOP\n\n");
         } catch (IOException e) {
             throw new CommitterException(
                     "Could not convert committer batch to IDX.", e);
         }
     }
 
-    private void writeIdxDocument(Writer w, UpsertRequest req)
+    private void writeIdxDocument(Writer w, UpsertRequest req, char[] buf)
             throws CommitterException, IOException {
 
-        String refField = config.getSourceReferenceField();
-        String contentField = config.getSourceContentField();
+        String refField = fieldPlan.referenceField();
+        String contentField = fieldPlan.contentField();
 
         //--- Document reference ---
         String ref = req.getReference();
-        if (StringUtils.isNotBlank(refField)) {
+        if (refField != null) {
             ref = req.getMetadata().getString(refField);
             if (StringUtils.isBlank(ref)) {
                 throw new CommitterException("Source reference field '"
@@ -99,39 +137,154 @@ class DreAddDataAction implements IIdolIndexAction {
                         + req.getReference());
             }
         }
-        w.append("\n#DREREFERENCE ").append(ref);
+        // Repeated for each section, when split
+        StringBuilder header = new StringBuilder();
+        header.append("\n#DREREFERENCE ").append(ref);
 
         //--- Document metadata ---
         for (Entry<String, List<String>> en : req.getMetadata().entrySet()) {
-            String name = en.getKey();
+            String name = fieldPlan.targetName(en.getKey());
             List<String> values = en.getValue();
-            if (values == null || equalsAny(name, refField, contentField)) {
+            if (values == null || name == null) {
                 continue;
             }
             for (String value : values) {
-                w.append("\n#DREFIELD ");
-                w.append(name).append("=\"").append(value).append("\"");
+                header.append("\n#DREFIELD ");
+                header.append(name).append("=\"");
+                header.append(fieldPlan.value(value)).append("\"");
             }
         }
 
         //--- IDOL Database ---
-        if (StringUtils.isNotBlank(config.getDatabaseName())) {
-            w.append("\n#DREDBNAME ");
-            w.append(config.getDatabaseName());
+        if (StringUtils.isNotBlank(databaseName)) {
+            header.append("\n#DREDBNAME ");
+            header.append(databaseName);
         }
 
         //--- Document content ---
-        String content;
-        if (StringUtils.isNotBlank(contentField)) {
+        w.append(header).append("\n#DRECONTENT\n");
+        String content = null;
+        if (contentField != null) {
             content = StringUtils.trimToEmpty(String.join("\n\n",
                     req.getMetadata().getStrings(contentField)));
+        }
+        if (buf != null) {
+            writeSections(w, header, content != null
+                    ? new StringReader(content)
+                    : new InputStreamReader(req.getContent(), UTF_8), buf);
+        } else if (content != null) {
+            w.append(content);
         } else {
-            content = IOUtils.toString(req.getContent(), UTF_8);
+            // Stream it to avoid holding large content in memory
+            IOUtils.copy(new InputStreamReader(req.getContent(), UTF_8), w);
         }
-        w.append("\n#DRECONTENT\n");
-        w.append(content);
-        w.append("\n#DREENDDOC ");
+        w.append(END_DOC);
+    }
 
-        w.append("\n");
+    // Writes content, starting a new section each time the maximum
+    // section size (in UTF-8 bytes) is reached.  The first section
+    // header is already written.  Characters are held back between
+    // reads so sections are not cut in the middle of a surrogate pair,
+    // and whitespace is looked for beyond a single read.
+    private void writeSections(Writer w, CharSequence header,
+            Reader content, char[] buf) throws IOException {
+        int keep = (int) Math.min(maxSectionSize / 10, buf.length / 2);
+        int section = 0;
+        // bytes written to the current section
+        long size = 0;
+        // characters read but not written yet
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof) {
+                if (start > 0) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                int read = content.read(buf, end, buf.length - end);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    end += read;
+                }
+            }
+            if (start == end && eof) {
+                break;
+            }
+            int cut = start;
+            long cutSize = size;
+            while (cut < end) {
+                int bytes = utf8Length(buf[cut]);
+                if (cutSize + bytes > maxSectionSize) {
+                    break;
+                }
+                cutSize += bytes;
+                cut++;
+            }
+            if (cut == end) {
+                // all fits, but more could still be read
+                int to = eof ? end : end - keep;
+                if (!eof && to > start
+                        && Character.isHighSurrogate(buf[to - 1])) {
+                    to--;
+                }
+                if (to > start) {
+                    size += utf8Length(buf, start, to);
+                    w.write(buf, start, to - start);
+                    start = to;
+                }
+                continue;
+            }
+            if (cut == start && size == 0) {
+                // character larger than a section
+                cut++;
+            }
+            int ws = lastWhitespace(
+                    buf, Math.max(start, cut - maxSectionSize / 10), cut);
+            if (ws >= 0) {
+                cut = ws + 1;
+            } else if (cut > start
+                    && Character.isHighSurrogate(buf[cut - 1])) {
+                if (cut - 1 > start || size > 0) {
+                    cut--;
+                } else if (cut < end) {
+                    // surrogate pair larger than a section
+                    cut++;
+                }
+            }
+            w.write(buf, start, cut - start);
+            start = cut;
+            w.append(END_DOC);
+            w.append(header).append("\n#DRESECTION ").append(
+                    Integer.toString(++section)).append("\n#DRECONTENT\n");
+            size = 0;
+        }
+    }
+    // Bytes a character takes in UTF-8, surrogate pairs taking four.
+    private static int utf8Length(char ch) {
+        if (ch < 0x80) {
+            return 1;
+        }
+        if (ch < 0x800 || Character.isSurrogate(ch)) {
+            return 2;
+        }
+        return 3;
+    }
+    private static int utf8Length(char[] buf, int from, int to) {
+        int bytes = 0;
+        for (int i = from; i < to; i++) {
+            bytes += utf8Length(buf[i]);
+        }
+        return bytes;
+    }
+    private static int lastWhitespace(char[] buf, long from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (Character.isWhitespace(buf[i])) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
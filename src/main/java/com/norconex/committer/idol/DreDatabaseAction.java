@@ -0,0 +1,65 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.commons.lang.url.HttpURL;
+
+/* IDOL index actions on a whole database, like "DRECREATEDBASE"
+ * and "DREDELDBASE".
+ *
+ *   http://server:port/DRECREATEDBASE?DREDbName=some_database
+ *   http://server:port/DREDELDBASE?DREDbName=some_database
+ *
+ * Reference material:
+ *
+ * https://www.microfocus.com/documentation/idol/IDOL_12_7/
+ * DIH_12.7_Documentation/Help/#Index%20Actions/DatabaseManagement/
+ */
+class DreDatabaseAction implements IIdolIndexAction {
+
+    static final String CREATE = "DRECREATEDBASE";
+    static final String DELETE = "DREDELDBASE";
+
+    private final String action;
+    private final String databaseName;
+
+    DreDatabaseAction(String action, String databaseName) {
+        this.action = action;
+        this.databaseName = databaseName;
+    }
+
+    @Override
+    public URL url(List<ICommitterRequest> batch, HttpURL url)
+            throws CommitterException {
+        url.setPath(StringUtils.appendIfMissing(
+                url.getPath(), "/") + action);
+        url.getQueryString().set("DREDbName", databaseName);
+        return url.toURL();
+    }
+
+    @Override
+    public void writeTo(List<ICommitterRequest> batch, Writer writer)
+            throws CommitterException {
+        //NOOP
+    }
+}
@@ -50,9 +50,14 @@ class DreDeleteRefAction implements IIdolIndexAction {
             LoggerFactory.getLogger(DreDeleteRefAction.class);
 
     private final IdolCommitterConfig config;
+    private final String databaseName;
 
     DreDeleteRefAction(IdolCommitterConfig config) {
+        this(config, config.getDatabaseName());
+    }
+    DreDeleteRefAction(IdolCommitterConfig config, String databaseName) {
         this.config = config;
+        this.databaseName = databaseName;
     }
 
     @Override
@@ -60,7 +65,7 @@ class DreDeleteRefAction implements IIdolIndexAction {
             throws CommitterException {
         url.setPath(StringUtils.appendIfMissing(
                 url.getPath(), "/") + "DREDELETEREF");
-        url.getQueryString().set("DREDbName", config.getDatabaseName());
+        url.getQueryString().set("DREDbName", databaseName);
         try {
             return addDeletesToUrl(batch, url.toString());
         } catch (MalformedURLException | UnsupportedEncodingException e) {
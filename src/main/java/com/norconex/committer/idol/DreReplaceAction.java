@@ -0,0 +1,105 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.commons.lang.url.HttpURL;
+
+/* IDOL "DREREPLACE" index action, used to update only some fields
+ * of existing documents.
+ *
+ *   POST http://server:port/DREREPLACE?InsertValue=true&MultipleValues=true
+ *   #DREDOCREF 1234
+ *   #DREDBNAME some_database
+ *   #DREFIELDNAME myField1
+ *   #DREFIELDVALUE value 1
+ *   #DREFIELDNAME myField2
+ *   #DREFIELDVALUE value 2
+ *   #DREDOCREF ...
+ *   ... repeat DREDOCREF block as needed ...
+ *   #DREENDDATANOOP
+ *
+ * Requests are expected to have their reference already resolved
+ * (i.e., the IDOL DREREFERENCE value) and to only hold the fields to
+ * replace as metadata.
+ *
+ * Reference material:
+ *
+ * https://www.microfocus.com/documentation/idol/IDOL_12_7/
+ * DIH_12.7_Documentation/Help/#Index%20Actions/IndexData/
+ * _IX_DREREPLACE.htm
+ */
+class DreReplaceAction implements IIdolIndexAction {
+
+    private final String databaseName;
+    private final IdolJfr jfr;
+
+    DreReplaceAction(IdolCommitterConfig config) {
+        this(config.getDatabaseName(), new IdolJfr(config));
+    }
+    DreReplaceAction(String databaseName, IdolJfr jfr) {
+        this.databaseName = databaseName;
+        this.jfr = jfr;
+    }
+
+    @Override
+    public URL url(List<ICommitterRequest> batch, HttpURL url)
+            throws CommitterException {
+        url.setPath(StringUtils.appendIfMissing(
+                url.getPath(), "/") + "DREREPLACE");
+        // Add fields not already present and replace all values of
+        // multi-value fields.
+        url.getQueryString().set("InsertValue", "true");
+        url.getQueryString().set("MultipleValues", "true");
+        return url.toURL();
+    }
+
+    @Override
+    public void writeTo(List<ICommitterRequest> batch, Writer writer)
+            throws CommitterException {
+        try {
+            Writer w = jfr.documentWriter(writer);
+            for (ICommitterRequest req : batch) {
+                Object event = jfr.beginDocument(w);
+                w.append("\n#DREDOCREF ").append(req.getReference());
+                if (StringUtils.isNotBlank(databaseName)) {
+                    w.append("\n#DREDBNAME ");
+                    w.append(databaseName);
+                }
+                for (Entry<String, List<String>> en :
+                        req.getMetadata().entrySet()) {
+                    for (String value : en.getValue()) {
+                        w.append("\n#DREFIELDNAME ").append(en.getKey());
+                        w.append("\n#DREFIELDVALUE ").append(value);
+                    }
+                }
+                jfr.commitDocument(event, "DREREPLACE", req.getReference());
+            }
+            w.append("\n#DREENDDATANOOP\n\n");
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not convert committer batch to DREREPLACE.", e);
+        }
+    }
+}
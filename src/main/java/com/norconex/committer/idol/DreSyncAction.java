@@ -0,0 +1,52 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.commons.lang.url.HttpURL;
+
+/* IDOL "DRESYNC" index action, flushing indexed data to disk
+ * and making it available for search.
+ *
+ *   http://server:port/DRESYNC
+ *
+ * Reference material:
+ *
+ * https://www.microfocus.com/documentation/idol/IDOL_12_7/
+ * DIH_12.7_Documentation/Help/#Index%20Actions/IndexData/_IX_DRESYNC.htm
+ */
+class DreSyncAction implements IIdolIndexAction {
+
+    @Override
+    public URL url(List<ICommitterRequest> batch, HttpURL url)
+            throws CommitterException {
+        url.setPath(StringUtils.appendIfMissing(
+                url.getPath(), "/") + "DRESYNC");
+        return url.toURL();
+    }
+
+    @Override
+    public void writeTo(List<ICommitterRequest> batch, Writer writer)
+            throws CommitterException {
+        //NOOP
+    }
+}
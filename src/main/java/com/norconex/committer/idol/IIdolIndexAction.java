@@ -20,6 +20,10 @@ interface IIdolIndexAction {
     void writeTo(List<ICommitterRequest> batch, Writer writer)
             throws CommitterException;
 
+    default String contentType() {
+        return "text/plain; charset=utf-8";
+    }
+
 
 
 //    IHttpBodyWriter prepare(List<ICommitterRequest> batch, HttpURL startUrl)
@@ -0,0 +1,91 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.commons.lang.xml.XML;
+
+/* Sends ACI actions (e.g., GetStatus) to the IDOL ACI port:
+ *
+ *   GET http://server:port/?action=GetStatus&param1=value1
+ *
+ * ACI responses are small, so they are read entirely.
+ */
+final class IdolAci {
+
+    private IdolAci() {
+    }
+
+    /**
+     * Sends an ACI action and returns its response.
+     * @param aciUrl IDOL ACI URL
+     * @param action ACI action name
+     * @param params ACI action parameter names and values, alternating
+     * @return response XML
+     * @throws CommitterException problem sending or unsuccessful response
+     */
+    static XML get(String aciUrl, String action, String... params)
+            throws CommitterException {
+        StringBuilder url = new StringBuilder(url(aciUrl, action));
+        try {
+            for (int i = 0; i + 1 < params.length; i += 2) {
+                url.append('&').append(params[i]).append('=').append(
+                        URLEncoder.encode(params[i + 1], "UTF-8"));
+            }
+            HttpURLConnection con = (HttpURLConnection)
+                    new URL(url.toString()).openConnection();
+            int code = con.getResponseCode();
+            String body = read(con, code);
+            XML xml = new XML(body);
+            if (code != 200 || !"SUCCESS".equals(xml.getString("response"))) {
+                throw new CommitterException("IDOL action \"" + action
+                        + "\" failed on " + aciUrl + ": HTTP " + code
+                        + " " + StringUtils.abbreviate(body, 500));
+            }
+            return xml;
+        } catch (IOException | RuntimeException e) {
+            throw new CommitterException("IDOL action \"" + action
+                    + "\" failed on " + aciUrl, e);
+        }
+    }
+
+    static String url(String aciUrl, String action) {
+        return StringUtils.substringBefore(aciUrl, "?")
+                + "?action=" + action;
+    }
+
+    // Reads the response fully so the connection can be reused
+    static String read(HttpURLConnection con, int code) throws IOException {
+        InputStream is = code >= 400
+                ? con.getErrorStream() : con.getInputStream();
+        if (is == null) {
+            return "";
+        }
+        try (InputStream in = is) {
+            return IOUtils.toString(in, UTF_8);
+        }
+    }
+}
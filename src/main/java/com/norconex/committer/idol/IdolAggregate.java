@@ -0,0 +1,146 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+
+/* Upserts of several committer batches, sent together as a single
+ * "DREADDDATA" request once ended.  Batches written to it wait for
+ * that request to be sent, and fail if it is not, to be committed
+ * again.  As the committer queue keeps them until then, the aggregate
+ * is only held in a payload buffer, not in a durable file: nothing is
+ * left to send after a crash.
+ *
+ * Should writing a batch fail (e.g., content could not be read), what
+ * was written of it is dropped, for the aggregate to be sent without
+ * the failed batch.
+ */
+class IdolAggregate {
+
+    private final IdolPayloadBuffer buffer;
+    private final long openedAt = System.currentTimeMillis();
+    private final CompletableFuture<IdolResponse> result =
+            new CompletableFuture<>();
+    private Writer writer;
+    private int docCount;
+
+    IdolAggregate(long maxMemory, Path tempDir) {
+        this.buffer = new IdolPayloadBuffer(maxMemory, tempDir);
+        this.writer = newWriter();
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+    long getSize() {
+        return buffer.size();
+    }
+    long getAge() {
+        return System.currentTimeMillis() - openedAt;
+    }
+
+    /**
+     * Writes documents to the aggregate.  If it fails, what was written
+     * of them is dropped.
+     * @param batch upserts
+     * @param action writes upserts as IDX
+     * @throws CommitterException could not write to the aggregate
+     */
+    void write(List<ICommitterRequest> batch, DreAddDataAction action)
+            throws CommitterException {
+        long size = buffer.size();
+        try {
+            action.writeDocuments(batch, writer);
+            writer.flush();
+        } catch (CommitterException | RuntimeException e) {
+            drop(size);
+            throw e;
+        } catch (IOException e) {
+            drop(size);
+            throw new CommitterException(
+                    "Could not write to IDOL aggregate.", e);
+        }
+        docCount += batch.size();
+    }
+
+    /**
+     * Ends the data, returning the request body.  It is disposed of
+     * with the aggregate.
+     * @return request body
+     * @throws IOException could not write to the buffer
+     */
+    IdolPayloadBuffer finish() throws IOException {
+        writer.append(DreAddDataAction.END_DATA);
+        writer.flush();
+        return buffer;
+    }
+
+    // Once IDOL accepted the aggregate, null if spooled.
+    void sent(IdolResponse resp) {
+        result.complete(resp);
+    }
+
+    // Once the aggregate could not be sent.
+    void failed(CommitterException e) {
+        result.completeExceptionally(e);
+    }
+
+    /**
+     * Waits for the aggregate to be sent.
+     * @return IDOL response, or <code>null</code> if spooled
+     * @throws CommitterException the aggregate could not be sent, or
+     *     waiting was interrupted
+     */
+    IdolResponse await() throws CommitterException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommitterException(
+                    "Interrupted waiting for IDOL aggregate.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CommitterException) {
+                throw (CommitterException) e.getCause();
+            }
+            throw new CommitterException(
+                    "Could not send IDOL aggregate.", e.getCause());
+        }
+    }
+
+    void dispose() throws IOException {
+        buffer.dispose();
+    }
+
+    private void drop(long size) {
+        // characters of the failed batch may still be buffered
+        writer = newWriter();
+        buffer.truncate(size);
+    }
+    private Writer newWriter() {
+        return new BufferedWriter(new OutputStreamWriter(buffer, UTF_8));
+    }
+}
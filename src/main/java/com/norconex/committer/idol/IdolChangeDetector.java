@@ -0,0 +1,213 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.io.input.NullInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.io.CachedStreamFactory;
+import com.norconex.commons.lang.map.Properties;
+
+/* Finds out which upserts have to be sent to IDOL, and how, by comparing
+ * them with checksums of what was last successfully sent.
+ * Unchanged documents are dropped, documents for which only some
+ * fields changed can be sent as field replacements (DREREPLACE), and
+ * others are sent in full.
+ */
+class IdolChangeDetector implements Closeable {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolChangeDetector.class);
+
+    private final IdolCommitterConfig config;
+    private final IdolFieldPlan fieldPlan;
+    private final IdolChecksumStore store;
+    private final boolean replaceFields;
+
+    IdolChangeDetector(IdolCommitterConfig config, IdolFieldPlan fieldPlan,
+            Path workDir, boolean replaceFields) throws CommitterException {
+        this.config = config;
+        this.fieldPlan = fieldPlan;
+        this.replaceFields = replaceFields;
+        try {
+            this.store = new IdolChecksumStore(workDir);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not open IDOL checksum store.", e);
+        }
+        LOG.info("Detecting unchanged documents. Checksum store "
+                + "has {} entries.", store.size());
+    }
+
+    /**
+     * Finds out how upserts have to be sent.
+     * @param upserts upserts
+     * @param database database upserts are sent to, or <code>null</code>
+     *     for IDOL default one
+     * @param cache caches content that cannot be read twice
+     * @return changes to send
+     * @throws CommitterException could not read content
+     */
+    Changes detect(List<ICommitterRequest> upserts, String database,
+            CachedStreamFactory cache) throws CommitterException {
+        Changes changes = new Changes();
+
+        // When replacing fields, only the last occurrence of a reference
+        // matters as it is compared with what IDOL last received.
+        Map<String, UpsertRequest> reqs = new LinkedHashMap<>();
+        List<UpsertRequest> all = new ArrayList<>();
+        for (ICommitterRequest req : upserts) {
+            if (replaceFields) {
+                String ref = IdolClient.resolveReference(config, req);
+                reqs.remove(ref);
+                reqs.put(ref, (UpsertRequest) req);
+            } else {
+                all.add((UpsertRequest) req);
+            }
+        }
+        if (replaceFields) {
+            all.addAll(reqs.values());
+        }
+
+        for (UpsertRequest req : all) {
+            String ref = IdolClient.resolveReference(config, req);
+            MessageDigest md = IdolChecksumStore.contentDigest();
+            UpsertRequest sendable;
+            try {
+                sendable = IdolContent.digest(req, md, cache);
+            } catch (IOException e) {
+                throw new CommitterException(
+                        "Could not read content of document: " + ref, e);
+            }
+            long contentSum = IdolChecksumStore.toChecksum(md);
+            long checksum = IdolChecksumStore.checksum(
+                    ref, req.getMetadata(), database, contentSum, fieldPlan);
+            if (store.isUnchanged(ref, checksum)) {
+                LOG.debug("Document unchanged, not sent: {}", ref);
+                IdolContent.dispose(sendable, req);
+                continue;
+            }
+            long[] fieldSums = null;
+            Set<String> changedFields = null;
+            if (replaceFields) {
+                fieldSums = IdolChecksumStore.fieldChecksums(
+                        req.getMetadata(), database, contentSum, fieldPlan);
+                long[] oldSums = store.getFields(ref);
+                if (oldSums != null) {
+                    changedFields = IdolChecksumStore.changedFields(oldSums,
+                            fieldSums, req.getMetadata(), fieldPlan);
+                }
+                // changed, but not in a way fields can tell
+                if (changedFields != null && changedFields.isEmpty()) {
+                    changedFields = null;
+                }
+            }
+            if (changedFields == null) {
+                changes.upserts.add(sendable);
+            } else {
+                LOG.debug("Only fields {} changed for: {}",
+                        changedFields, ref);
+                IdolContent.dispose(sendable, req);
+                // all values of a field are replaced, sent merged as
+                // they were checksummed
+                Map<String, List<String>> values =
+                        IdolChecksumStore.targetValues(
+                                req.getMetadata(), fieldPlan);
+                Properties fields = new Properties();
+                for (String field : changedFields) {
+                    for (String value : values.get(field)) {
+                        fields.add(field, fieldPlan.value(value));
+                    }
+                }
+                changes.replaces.add(new UpsertRequest(
+                        ref, fields, new NullInputStream(0)));
+            }
+            changes.checksums.put(ref, checksum);
+            if (fieldSums != null) {
+                changes.fieldSums.put(ref, fieldSums);
+            }
+        }
+        int skipped = upserts.size() - changes.size();
+        if (skipped > 0) {
+            LOG.info("Skipped {} unchanged documents.", skipped);
+        }
+        return changes;
+    }
+
+    // Forgets what was sent, as when IDOL database is reloaded.
+    void clear() {
+        store.clear();
+        store.commit();
+        LOG.info("Checksum store cleared.");
+    }
+
+    // Invoked once changes were successfully sent to IDOL.
+    void commit(Changes changes) {
+        for (Entry<String, Long> en : changes.checksums.entrySet()) {
+            store.put(en.getKey(), en.getValue());
+        }
+        for (Entry<String, long[]> en : changes.fieldSums.entrySet()) {
+            store.putFields(en.getKey(), en.getValue());
+        }
+        store.commit();
+    }
+
+    // Invoked once deletions were successfully sent to IDOL.
+    void evict(List<ICommitterRequest> deletes) {
+        for (ICommitterRequest req : deletes) {
+            store.remove(IdolClient.resolveReference(config, req));
+        }
+        store.commit();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    static class Changes {
+        // documents to be sent in full
+        private final List<ICommitterRequest> upserts = new ArrayList<>();
+        // documents with only changed fields, using IDOL reference
+        private final List<ICommitterRequest> replaces = new ArrayList<>();
+        private final Map<String, Long> checksums = new LinkedHashMap<>();
+        private final Map<String, long[]> fieldSums = new LinkedHashMap<>();
+
+        List<ICommitterRequest> getUpserts() {
+            return upserts;
+        }
+        List<ICommitterRequest> getReplaces() {
+            return replaces;
+        }
+        int size() {
+            return upserts.size() + replaces.size();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import com.norconex.commons.lang.map.Properties;
+
+/* Persistent store of document checksums, keyed by the reference
+ * sent to IDOL.  Backed by an embedded MVStore file so that it can hold
+ * tens of millions of entries while only keeping a small page cache
+ * in memory.
+ *
+ * Checksums are computed over everything the IDX/CFS serializers
+ * write for a document (reference, metadata, target database and
+ * content), so a checksum changes whenever the serialized document would.
+ * Values are fed to a digest one by one, and content is digested as it
+ * is read (see IdolContent), so documents are never copied whole.
+ *
+ * Optionally, field-level checksums are also kept to find out which
+ * fields changed. They are stored as a long array made of the
+ * content checksum followed by one triplet per IDOL field, sorted by
+ * field name checksum: name checksum, values checksum, value count.
+ * Values of source fields sent under the same IDOL field name (e.g.,
+ * renamed) are merged into a single triplet.
+ */
+class IdolChecksumStore implements Closeable {
+
+    static final String FILE_NAME = "idol-checksums.mvstore";
+
+    private static final String MAP_CHECKSUMS = "checksums";
+    private static final String MAP_FIELDS = "fields";
+    // in MB
+    private static final int CACHE_SIZE = 16;
+
+    private final MVStore store;
+    private final MVMap<String, Long> checksums;
+    private final MVMap<String, long[]> fields;
+
+    IdolChecksumStore(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.store = new MVStore.Builder()
+                .fileName(dir.resolve(FILE_NAME).toAbsolutePath().toString())
+                .cacheSize(CACHE_SIZE)
+                .compress()
+                .autoCommitDisabled()
+                .open();
+        this.checksums = store.openMap(MAP_CHECKSUMS);
+        this.fields = store.openMap(MAP_FIELDS);
+    }
+
+    boolean isUnchanged(String reference, long checksum) {
+        Long existing = checksums.get(reference);
+        return existing != null && existing == checksum;
+    }
+    void put(String reference, long checksum) {
+        checksums.put(reference, checksum);
+    }
+    long[] getFields(String reference) {
+        return fields.get(reference);
+    }
+    void putFields(String reference, long[] fieldChecksums) {
+        fields.put(reference, fieldChecksums);
+    }
+    void remove(String reference) {
+        checksums.remove(reference);
+        fields.remove(reference);
+    }
+    long size() {
+        return checksums.sizeAsLong();
+    }
+    void clear() {
+        checksums.clear();
+        fields.clear();
+    }
+    void commit() {
+        store.commit();
+    }
+
+    @Override
+    public void close() {
+        if (!store.isClosed()) {
+            store.close();
+        }
+    }
+
+    // Digest to feed content to, see IdolContent.
+    static MessageDigest contentDigest() {
+        return DigestUtils.getMd5Digest();
+    }
+    static long toChecksum(MessageDigest md) {
+        byte[] bytes = md.digest();
+        long sum = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            sum = (sum << 8) | (bytes[i] & 0xFF);
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the checksum of a document.
+     * @param reference IDOL reference
+     * @param metadata document metadata
+     * @param database database the document is sent to, or
+     *     <code>null</code> for IDOL default one
+     * @param contentSum checksum of the document content
+     * @param plan field plan
+     * @return document checksum
+     */
+    static long checksum(String reference, Properties metadata,
+            String database, long contentSum, IdolFieldPlan plan) {
+        MessageDigest md = contentDigest();
+        update(md, reference);
+        // metadata order is not guaranteed, sort it for stable checksums
+        for (Entry<String, List<String>> en :
+                new TreeMap<>(metadata).entrySet()) {
+            String name = plan.targetName(en.getKey());
+            if (en.getValue() == null || name == null) {
+                continue;
+            }
+            for (String value : en.getValue()) {
+                update(md, name);
+                update(md, plan.value(value));
+            }
+        }
+        updateContent(md, metadata, database, contentSum, plan);
+        return toChecksum(md);
+    }
+    static long[] fieldChecksums(Properties metadata, String database,
+            long contentSum, IdolFieldPlan plan) {
+        MessageDigest md = contentDigest();
+        updateContent(md, metadata, database, contentSum, plan);
+
+        TreeMap<Long, long[]> sorted = new TreeMap<>();
+        for (Entry<String, List<String>> en :
+                targetValues(metadata, plan).entrySet()) {
+            long name = hash(en.getKey());
+            sorted.put(name, new long[] { name,
+                    valuesChecksum(en.getValue(), plan),
+                    en.getValue().size()});
+        }
+        long[] sums = new long[1 + sorted.size() * 3];
+        sums[0] = toChecksum(md);
+        int i = 1;
+        for (long[] triplet : sorted.values()) {
+            System.arraycopy(triplet, 0, sums, i, 3);
+            i += 3;
+        }
+        return sums;
+    }
+
+    /**
+     * Gets the values of each field sent to IDOL, merging values of
+     * source fields sent under the same name, in source name order.
+     * @param metadata document metadata
+     * @param plan field plan
+     * @return values, by IDOL field name
+     */
+    static Map<String, List<String>> targetValues(
+            Properties metadata, IdolFieldPlan plan) {
+        Map<String, List<String>> values = new TreeMap<>();
+        for (Entry<String, List<String>> en :
+                new TreeMap<>(metadata).entrySet()) {
+            String target = plan.targetName(en.getKey());
+            if (en.getValue() == null || target == null) {
+                continue;
+            }
+            values.computeIfAbsent(target, k -> new ArrayList<>())
+                    .addAll(en.getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Gets the names of fields that changed between two sets of
+     * field checksums.
+     * @param oldSums previously stored field checksums
+     * @param newSums current field checksums
+     * @param metadata current document metadata
+     * @param plan field plan used to compute checksums
+     * @return changed IDOL field names (empty if none), or
+     *     <code>null</code> if the document content changed, fields were
+     *     removed, or a field has a different number of values
+     */
+    static Set<String> changedFields(long[] oldSums, long[] newSums,
+            Properties metadata, IdolFieldPlan plan) {
+        if (oldSums[0] != newSums[0]) {
+            return null;
+        }
+        Map<Long, Integer> oldIndex = new HashMap<>();
+        for (int i = 1; i < oldSums.length; i += 3) {
+            oldIndex.put(oldSums[i], i);
+        }
+        Set<Long> changedNames = new HashSet<>();
+        for (int i = 1; i < newSums.length; i += 3) {
+            Integer oi = oldIndex.remove(newSums[i]);
+            if (oi != null && oldSums[oi + 2] != newSums[i + 2]) {
+                return null;
+            }
+            if (oi == null || oldSums[oi + 1] != newSums[i + 1]) {
+                changedNames.add(newSums[i]);
+            }
+        }
+        if (!oldIndex.isEmpty()) {
+            return null;
+        }
+        Set<String> changed = new HashSet<>();
+        for (String target : targetValues(metadata, plan).keySet()) {
+            if (changedNames.contains(hash(target))) {
+                changed.add(target);
+            }
+        }
+        return changed;
+    }
+
+    private static long valuesChecksum(
+            List<String> values, IdolFieldPlan plan) {
+        MessageDigest md = contentDigest();
+        for (String value : values) {
+            update(md, plan.value(value));
+        }
+        return toChecksum(md);
+    }
+    // What is sent as content: database, content field or stream.
+    private static void updateContent(MessageDigest md, Properties metadata,
+            String database, long contentSum, IdolFieldPlan plan) {
+        update(md, database);
+        if (plan.contentField() != null) {
+            for (String value : metadata.getStrings(plan.contentField())) {
+                update(md, value);
+            }
+        }
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            md.update((byte) (contentSum >>> (i * 8)));
+        }
+    }
+    private static long hash(String value) {
+        MessageDigest md = contentDigest();
+        update(md, value);
+        return toChecksum(md);
+    }
+
+    private static void update(MessageDigest md, String value) {
+        md.update(StringUtils.defaultString(value).getBytes(UTF_8));
+        // separator that cannot appear in UTF-8 text
+        md.update((byte) 0xFF);
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Stops requests from being attempted while IDOL is unavailable, so
+ * batches fail (or are spooled) right away instead of each waiting
+ * for connection or read timeouts and retries.
+ *
+ *   closed:    requests are attempted.  Opens after a number of
+ *              consecutive failures.
+ *   open:      requests are not attempted, for the configured open time.
+ *   half-open: open time elapsed, requests are attempted again.  The
+ *              first success closes the breaker, the first failure
+ *              opens it again.
+ *
+ * Only failures suggesting IDOL is unavailable count (no response, or
+ * a retryable error).  Any other response means IDOL is up.
+ */
+class IdolCircuitBreaker {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolCircuitBreaker.class);
+
+    private final String url;
+    private final int threshold;
+    private final long openTime;
+
+    private int failures;
+    // -1 when closed
+    private long openedAt = -1;
+
+    IdolCircuitBreaker(String url, int threshold, long openTime) {
+        this.url = url;
+        this.threshold = threshold;
+        this.openTime = openTime;
+    }
+
+    synchronized boolean isClosed() {
+        return openedAt < 0;
+    }
+
+    // Whether a request can be attempted (closed or half-open).
+    synchronized boolean allowRequest() {
+        return openedAt < 0
+                || System.currentTimeMillis() - openedAt >= openTime;
+    }
+
+    synchronized void success() {
+        failures = 0;
+        if (openedAt >= 0) {
+            LOG.info("IDOL at {} is available again, "
+                    + "circuit breaker closed.", url);
+            openedAt = -1;
+        }
+    }
+
+    synchronized void failure() {
+        failures++;
+        if (openedAt >= 0) {
+            // half-open attempt failed, or request sent before opening
+            openedAt = System.currentTimeMillis();
+        } else if (failures >= threshold) {
+            LOG.warn("IDOL at {} failed {} consecutive requests, circuit "
+                    + "breaker open. Checking again in {} ms.",
+                    url, failures, openTime);
+            openedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -14,28 +14,61 @@
  */
 package com.norconex.committer.idol;
 
-import static org.apache.commons.lang3.StringUtils.contains;
+import static java.util.Collections.emptyMap;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.DeleteRequest;
 import com.norconex.committer.core3.ICommitterRequest;
 import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.committer.idol.IdolChangeDetector.Changes;
+import com.norconex.committer.idol.IdolMemoryGovernor.Permit;
+import com.norconex.commons.lang.Sleeper;
+import com.norconex.commons.lang.io.CachedInputStream;
+import com.norconex.commons.lang.io.CachedStreamFactory;
 import com.norconex.commons.lang.url.HttpURL;
 import com.norconex.commons.lang.url.QueryString;
 
@@ -43,28 +76,582 @@ class IdolClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(IdolClient.class);
 
+    // work dir file present while a bulk reload is not complete
+    static final String BULK_MARKER = "idol-bulk-reload";
+
+    private static final int INDEX_STATUS_FINISHED = -1;
+    private static final long INDEX_STATUS_POLL_INTERVAL = 500;
+
     private final IdolCommitterConfig config;
-    private final IIdolIndexAction upsertAction;
-    private final IIdolIndexAction deleteAction;
+    private final IdolFieldPlan fieldPlan;
+    // index actions by target database ("" for IDOL default)
+    private final Map<String, Actions> databaseActions =
+            new ConcurrentHashMap<>();
+    private final String defaultDatabase;
+    // field holding target database, null when not routing
+    private final String databaseField;
+    private final ExecutorService databaseLanes;
+    private final IdolChangeDetector changeDetector;
+    private final IdolReferenceFilter sentRefs;
+    private final Path payloadDir;
+    private final IdolMemoryGovernor memoryGovernor;
+    private final Path stagingDir;
+    // database being reloaded, null when not bulk reloading
+    private final String bulkDatabase;
+    // exists while a bulk reload is not complete, null without work dir
+    private final Path bulkMarker;
+    private final Map<String, String> upsertParams;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong retryableErrorCount = new AtomicLong();
+    private final AtomicLong permanentErrorCount = new AtomicLong();
+    private final AtomicLong spooledCount = new AtomicLong();
+    private final AtomicLong lastIndexId = new AtomicLong(-1);
+    private final ExecutorService deleteLane;
+    // rate limiter and circuit breaker, possibly shared
+    private final IdolEndpoint endpoint;
+    private final IdolRateLimiter rateLimiter;
+    private final IdolRecorder recorder;
+    private final IdolJfr jfr;
+    private final IdolTracer tracer;
+    private final IdolJournal journal;
+    // null when no circuit breaker
+    private final IdolCircuitBreaker breaker;
+    // null when batches cannot be spooled
+    private final IdolSpool spool;
+    private final ScheduledExecutorService spoolDrainer;
+    private final List<IdolReplica> replicas = new ArrayList<>();
+    // spool draining stops past this time, once closing
+    private volatile long drainDeadline = Long.MAX_VALUE;
+    // null when upserts are not streamed in sessions
+    private final Path sessionDir;
+    // -1 when upserts are not aggregated
+    private final long aggregateTime;
+    // ends sessions and aggregates after their time window
+    private final ScheduledExecutorService sessionTimer;
+    private final Object sessionLock = new Object();
+    // guarded by session lock
+    private IdolSession session;
+    private IdolAggregate aggregate;
+    // sessions to send again before anything else
+    private volatile boolean sessionsPending;
+
+    private final ReentrantReadWriteLock drainLock =
+            new ReentrantReadWriteLock();
+    private volatile boolean closing;
+    // discovered by preflight when not configured
+    private int maxUrlLength;
 
-    IdolClient(IdolCommitterConfig config) {
+    IdolClient(IdolCommitterConfig config, Path workDir)
+            throws CommitterException {
+        this(config, workDir, IdolTracer.create(config));
+    }
+    IdolClient(IdolCommitterConfig config, Path workDir, IdolTracer tracer)
+            throws CommitterException {
         this.config = Objects.requireNonNull(
                 config, "'config' must not be null");
         if (StringUtils.isBlank(config.getUrl())) {
             throw new IllegalArgumentException(
                     "Configuration 'url' must be provided.");
         }
-        if (config.isCfs()) {
-            this.upsertAction = new CfsIngestAddsAction(config);
-            this.deleteAction = new CfsIngestRemovesAction(config);
+        this.fieldPlan = new IdolFieldPlan(config);
+        this.jfr = new IdolJfr(config);
+        this.tracer = tracer;
+        this.bulkDatabase = bulkDatabase(config);
+        this.bulkMarker = bulkDatabase != null && workDir != null
+                ? workDir.resolve(BULK_MARKER) : null;
+        this.upsertParams = new HashMap<>(config.getDreAddDataParams());
+        if (bulkDatabase != null) {
+            this.defaultDatabase = bulkDatabase;
+            // the database starts empty, no duplicates to look for
+            upsertParams.putIfAbsent("KillDuplicates", "NONE");
+        } else {
+            this.defaultDatabase = config.getDatabaseName();
+        }
+        if (StringUtils.isNotBlank(config.getSourceDatabaseField())
+                && bulkDatabase != null) {
+            LOG.warn("Databases are not taken from documents during "
+                    + "bulk reloads. All documents are sent to \"{}\".",
+                    bulkDatabase);
+            this.databaseField = null;
+        } else {
+            this.databaseField = StringUtils.trimToNull(
+                    config.getSourceDatabaseField());
+        }
+        this.databaseLanes = databaseField != null
+                ? Executors.newFixedThreadPool(
+                        Math.max(1, config.getDatabaseThreads()),
+                        daemonThreads("idol-database-lane"))
+                : null;
+        this.payloadDir = workDir == null
+                ? FileUtils.getTempDirectory().toPath()
+                : workDir.resolve("payloads");
+
+        if (config.getStagingDir() != null && config.isCfs()) {
+            LOG.warn("Staging compressed IDX files is not supported "
+                    + "with CFS. Documents will be sent over HTTP.");
+            this.stagingDir = null;
+        } else {
+            this.stagingDir = config.getStagingDir();
+        }
+        boolean streaming = config.getSessionTime() > 0;
+        boolean aggregating = config.getAggregateTime() > 0;
+        if (streaming && aggregating) {
+            LOG.warn("Upserts are streamed in sessions, "
+                    + "\"aggregateTime\" is ignored.");
+            aggregating = false;
+        }
+        if ((streaming || aggregating)
+                && (config.isCfs() || stagingDir != null)) {
+            LOG.warn("Streaming sessions and aggregation are not supported "
+                    + "with CFS or staging. Batches will be sent as usual.");
+            streaming = false;
+            aggregating = false;
+        }
+        if (!streaming) {
+            this.sessionDir = null;
+        } else if (workDir == null) {
+            throw new IllegalArgumentException("A working directory "
+                    + "is required for streaming sessions.");
+        } else {
+            this.sessionDir = workDir.resolve(IdolSession.DIR_NAME);
+            // sessions left by a previous run are sent first
+            this.sessionsPending = true;
+        }
+        this.aggregateTime = aggregating ? config.getAggregateTime() : -1;
+        this.sessionTimer = streaming || aggregating
+                ? Executors.newSingleThreadScheduledExecutor(
+                        daemonThreads("idol-session"))
+                : null;
+        if (config.getMaxSectionSize() > 0 && config.isCfs()) {
+            LOG.warn("Splitting documents into sections is not supported "
+                    + "with CFS. Documents will be sent whole.");
+        }
+
+        this.maxUrlLength = config.getMaxUrlLength();
+        this.recorder = config.getRecordDir() != null
+                ? new IdolRecorder(config.getRecordDir(),
+                        config.getRecordSampleRate(),
+                        config.getRecordMaxFileSize(),
+                        config.getRecordMaxFiles())
+                : null;
+        this.deleteLane = config.isPriorityDeletes()
+                ? Executors.newSingleThreadExecutor(
+                        daemonThreads("idol-delete-lane"))
+                : null;
+        this.memoryGovernor = config.getMaxSharedBatchMemory() > 0
+                ? IdolMemoryGovernor.get(config.getMaxSharedBatchMemory())
+                : null;
+
+        boolean replaceFields = config.isReplaceChangedFields();
+        if (replaceFields && config.isCfs()) {
+            LOG.warn("Replacing changed fields is not supported "
+                    + "with CFS. Documents will be sent in full.");
+            replaceFields = false;
+        }
+        // nothing to replace in a database being reloaded
+        replaceFields &= bulkDatabase == null;
+        if (config.isSkipUnchanged() || replaceFields) {
+            if (workDir == null) {
+                throw new IllegalArgumentException("A working directory "
+                        + "is required to detect document changes.");
+            }
+            this.changeDetector = new IdolChangeDetector(
+                    config, fieldPlan, workDir, replaceFields);
         } else {
-            this.upsertAction = new DreAddDataAction(config);
-            this.deleteAction = new DreDeleteRefAction(config);
+            this.changeDetector = null;
+        }
+        if (config.isSkipUnsentDeletes()) {
+            if (workDir == null) {
+                throw new IllegalArgumentException("A working directory "
+                        + "is required to skip unsent deletions.");
+            }
+            try {
+                this.sentRefs = new IdolReferenceFilter(
+                        workDir, config.getSentReferencesCapacity());
+            } catch (IOException e) {
+                throw new CommitterException(
+                        "Could not open sent references filter.", e);
+            }
+        } else {
+            this.sentRefs = null;
+        }
+        if (config.isJournal()) {
+            if (workDir == null) {
+                throw new IllegalArgumentException("A working directory "
+                        + "is required to keep a journal.");
+            }
+            try {
+                this.journal = new IdolJournal(workDir);
+            } catch (IOException e) {
+                throw new CommitterException(
+                        "Could not open IDOL journal.", e);
+            }
+        } else {
+            this.journal = null;
+        }
+
+        this.endpoint = IdolEndpoint.acquire(config);
+        this.rateLimiter = endpoint.getRateLimiter();
+        this.breaker = endpoint.getBreaker();
+        if (breaker != null) {
+            Path spoolDir = config.getSpoolDir();
+            if (spoolDir == null && workDir != null) {
+                spoolDir = workDir.resolve(IdolSpool.DIR_NAME);
+            }
+            if (spoolDir == null) {
+                LOG.warn("No spool directory, batches will fail while "
+                        + "the IDOL circuit breaker is open.");
+            }
+            try {
+                this.spool = spoolDir == null ? null
+                        : new IdolSpool(spoolDir, config.getMaxSpoolSize());
+            } catch (IOException e) {
+                throw new CommitterException(
+                        "Could not open IDOL spool: " + spoolDir, e);
+            }
+        } else {
+            this.spool = null;
+        }
+        if (spool != null) {
+            this.spoolDrainer = Executors.newSingleThreadScheduledExecutor(
+                    daemonThreads("idol-spool-drain"));
+            spoolDrainer.scheduleWithFixedDelay(this::drainSpool, 0,
+                    Math.max(1, config.getCircuitBreakerOpenTime()),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.spoolDrainer = null;
+        }
+        if (!config.getReplicaUrls().isEmpty()) {
+            initReplicas(workDir);
+        }
+    }
+
+    private void initReplicas(Path workDir) throws CommitterException {
+        if (stagingDir != null) {
+            LOG.warn("Replicas are not supported with staging. Documents "
+                    + "will only be sent to {}.", config.getUrl());
+            return;
+        }
+        if (workDir == null) {
+            throw new IllegalArgumentException("A working directory "
+                    + "is required to send to replicas.");
+        }
+        for (String url : config.getReplicaUrls()) {
+            try {
+                replicas.add(new IdolReplica(
+                        url, workDir, config, payloadDir, memoryGovernor,
+                        this::sendOnce));
+            } catch (IOException e) {
+                throw new CommitterException(
+                        "Could not set up IDOL replica " + url, e);
+            }
+        }
+        LOG.info("Sending to IDOL replicas: {}", config.getReplicaUrls());
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static String bulkDatabase(IdolCommitterConfig config) {
+        if (!config.isBulkReload()) {
+            return null;
+        }
+        if (config.isCfs()) {
+            LOG.warn("Bulk reloads are not supported with CFS. "
+                    + "Documents will be sent as usual.");
+            return null;
+        }
+        String dbName = StringUtils.firstNonBlank(
+                config.getBulkReloadDatabase(), config.getDatabaseName());
+        if (dbName == null) {
+            throw new IllegalArgumentException("Configuration "
+                    + "'databaseName' or 'bulkReloadDatabase' must be "
+                    + "provided for bulk reloads.");
+        }
+        return dbName;
+    }
+
+    IdolTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Starts a bulk reload, if enabled: the database being reloaded
+     * is deleted and created again empty, and checksums of documents
+     * and batches previously sent are forgotten.  This is only done
+     * for a new reload.  A reload that did not complete (the committer
+     * was not closed successfully) is resumed instead, keeping what was
+     * sent so far.  So is a reload started with leftovers in the
+     * committer queue, as they could be all that is left to send.
+     * @param queueLeftovers whether the committer queue has requests
+     *     from a previous run
+     * @throws CommitterException could not prepare IDOL database
+     */
+    void startBulkReload(boolean queueLeftovers) throws CommitterException {
+        if (bulkDatabase == null) {
+            return;
+        }
+        if (bulkMarker != null && Files.exists(bulkMarker)) {
+            LOG.info("Resuming bulk reload of IDOL database \"{}\" that "
+                    + "did not complete.", bulkDatabase);
+            return;
+        }
+        if (queueLeftovers) {
+            LOG.warn("Committer queue has leftovers from a previous run. "
+                    + "IDOL database \"{}\" is not deleted, bulk reload "
+                    + "is resumed.", bulkDatabase);
+            markBulkReload();
+            return;
+        }
+        // marked first, so a failure past this point resumes
+        markBulkReload();
+        post(Collections.emptyList(), new DreDatabaseAction(
+                DreDatabaseAction.DELETE, bulkDatabase), emptyMap());
+        post(Collections.emptyList(), new DreDatabaseAction(
+                DreDatabaseAction.CREATE, bulkDatabase), emptyMap());
+        if (changeDetector != null) {
+            changeDetector.clear();
+        }
+        if (journal != null) {
+            try {
+                journal.clear();
+            } catch (IOException e) {
+                throw new CommitterException(
+                        "Could not clear IDOL journal.", e);
+            }
+        }
+        LOG.info("Bulk reloading IDOL database \"{}\".", bulkDatabase);
+    }
+    private void markBulkReload() throws CommitterException {
+        if (bulkMarker == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(bulkMarker.getParent());
+            Files.write(bulkMarker, bulkDatabase.getBytes(
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not mark bulk reload as started: " + bulkMarker, e);
+        }
+    }
+    // Once everything was sent and synced.
+    private void completeBulkReload() {
+        if (bulkMarker == null || sessionsPending
+                || (spool != null && spool.isPending())) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(bulkMarker);
+            LOG.info("Bulk reload of IDOL database \"{}\" complete.",
+                    bulkDatabase);
+        } catch (IOException e) {
+            LOG.error("Could not mark bulk reload as complete. Delete "
+                    + "{} before starting a new one.", bulkMarker, e);
+        }
+    }
+
+    /**
+     * Checks IDOL is reachable and usable, and opens connections
+     * ahead of the first batch.
+     * @throws CommitterException IDOL is not usable
+     */
+    void preflight() throws CommitterException {
+        IdolPreflight.Result result = new IdolPreflight(config).run();
+        if (maxUrlLength < 0) {
+            maxUrlLength = result.getMaxUrlLength();
         }
     }
 
     public void post(Iterator<ICommitterRequest> iterator)
             throws CommitterException {
+        // Batches being sent hold a read lock, closing waits for them
+        // by acquiring the write lock.
+        drainLock.readLock().lock();
+        try {
+            if (closing) {
+                throw new CommitterException(
+                        "IDOL client is closing, batch not sent.");
+            }
+            IdolJournal.Commit commit =
+                    journal == null ? null : journal.begin();
+            try {
+                if (databaseField == null) {
+                    postToDatabase(
+                            iterator, actions(defaultDatabase), commit);
+                } else {
+                    postByDatabase(iterator, commit);
+                }
+                if (commit != null) {
+                    commit.done();
+                }
+            } catch (IOException e) {
+                commit.failed();
+                throw new CommitterException(
+                        "Could not write to IDOL journal.", e);
+            } catch (CommitterException | RuntimeException e) {
+                if (commit != null) {
+                    commit.failed();
+                }
+                throw e;
+            }
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    // Requests are grouped by target database, each group being sent
+    // in order, in parallel with other groups.
+    private void postByDatabase(Iterator<ICommitterRequest> iterator,
+            IdolJournal.Commit commit) throws CommitterException {
+        Map<String, List<ICommitterRequest>> groups = new LinkedHashMap<>();
+        iterator.forEachRemaining(req -> groups.computeIfAbsent(
+                resolveDatabase(req), db -> new ArrayList<>()).add(req));
+        if (groups.size() == 1) {
+            Entry<String, List<ICommitterRequest>> group =
+                    groups.entrySet().iterator().next();
+            postToDatabase(group.getValue().iterator(),
+                    actions(group.getKey()), commit);
+            return;
+        }
+        List<Future<?>> lanes = new ArrayList<>();
+        for (Entry<String, List<ICommitterRequest>> group :
+                groups.entrySet()) {
+            lanes.add(databaseLanes.submit(tracer.wrap(() -> {
+                postToDatabase(group.getValue().iterator(),
+                        actions(group.getKey()), commit);
+                return null;
+            })));
+        }
+        CommitterException error = null;
+        for (Future<?> lane : lanes) {
+            error = await(lane, error, "batches to IDOL databases");
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private String resolveDatabase(ICommitterRequest req) {
+        String db = req.getMetadata().getString(databaseField);
+        return StringUtils.isBlank(db)
+                ? StringUtils.defaultString(defaultDatabase) : db.trim();
+    }
+
+    private Actions actions(String database) {
+        return databaseActions.computeIfAbsent(
+                StringUtils.defaultString(database), db -> {
+                    String dbName = StringUtils.trimToNull(db);
+                    if (config.isCfs()) {
+                        return new Actions(dbName, new CfsIngestAddsAction(
+                                fieldPlan, dbName, jfr),
+                                new CfsIngestRemovesAction(config, dbName),
+                                null);
+                    }
+                    return new Actions(dbName,
+                            new DreAddDataAction(fieldPlan, dbName,
+                                    config.getMaxSectionSize(), jfr),
+                            new DreDeleteRefAction(config, dbName),
+                            new DreReplaceAction(dbName, jfr));
+                });
+    }
+
+    private void postToDatabase(Iterator<ICommitterRequest> iterator,
+            Actions actions, IdolJournal.Commit commit)
+                    throws CommitterException {
+        if (deleteLane == null) {
+            postInOrder(iterator, actions, commit);
+        } else {
+            postWithDeleteLane(iterator, actions, commit);
+        }
+    }
+
+    // Deletions of references not also added in the same batch are sent
+    // first, in small batches, while other requests are sent in order.
+    private void postWithDeleteLane(Iterator<ICommitterRequest> iterator,
+            Actions actions, IdolJournal.Commit commit)
+                    throws CommitterException {
+        List<ICommitterRequest> all = new ArrayList<>();
+        iterator.forEachRemaining(all::add);
+        Set<String> upsertRefs = new HashSet<>();
+        for (ICommitterRequest req : all) {
+            if (req instanceof UpsertRequest) {
+                upsertRefs.add(resolveReference(config, req));
+            }
+        }
+        List<ICommitterRequest> priority = new ArrayList<>();
+        List<ICommitterRequest> ordered = new ArrayList<>();
+        for (ICommitterRequest req : all) {
+            if (req instanceof UpsertRequest
+                    || upsertRefs.contains(resolveReference(config, req))) {
+                ordered.add(req);
+            } else {
+                priority.add(req);
+            }
+        }
+
+        Future<?> lane = null;
+        if (!priority.isEmpty()) {
+            lane = deleteLane.submit(tracer.wrap(() -> {
+                for (List<ICommitterRequest> part : ListUtils.partition(
+                        priority, config.getPriorityDeleteBatchSize())) {
+                    doPost(part, DeleteRequest.class, actions, commit);
+                }
+                LOG.info("Sent {} priority deletes to IDOL.",
+                        priority.size());
+                return null;
+            }));
+        }
+        CommitterException error = null;
+        try {
+            postInOrder(ordered.iterator(), actions, commit);
+        } catch (CommitterException e) {
+            error = e;
+        }
+        if (lane != null) {
+            error = await(lane, error, "priority deletes");
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Waits for requests sent by another thread, returning their
+    // failure or adding it to the one already caught.
+    private static CommitterException await(Future<?> future,
+            CommitterException error, String what)
+                    throws CommitterException {
+        try {
+            future.get();
+            return error;
+        } catch (ExecutionException e) {
+            CommitterException laneError = e.getCause()
+                    instanceof CommitterException
+                            ? (CommitterException) e.getCause()
+                            : new CommitterException(e.getCause());
+            if (error == null) {
+                return laneError;
+            }
+            error.addSuppressed(laneError);
+            return error;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommitterException(
+                    "Interrupted while sending " + what + ".", e);
+        }
+    }
+
+    private void postInOrder(Iterator<ICommitterRequest> iterator,
+            Actions actions, IdolJournal.Commit commit)
+                    throws CommitterException {
         // Because order of additions/deletions can sometimes be important,
         // we post the documents to IDOL the moment we switch from
         // add to/from delete.  That means when there is a mix of additions
@@ -78,15 +665,20 @@ class IdolClient {
         while (iterator.hasNext()) {
             ICommitterRequest r = iterator.next();
             if (typeChanged(prevType, r)) {
-                doPost(batch, prevType);
+                doPost(batch, prevType, actions, commit);
                 batch.clear();
             }
             batch.add(r);
             prevType = r.getClass();
             docCount++;
         }
-        doPost(batch, prevType);
-        LOG.info("Sent {} upserts/deletes to IDOL.", docCount);
+        doPost(batch, prevType, actions, commit);
+        if (databaseField == null) {
+            LOG.info("Sent {} upserts/deletes to IDOL.", docCount);
+        } else {
+            LOG.info("Sent {} upserts/deletes to IDOL database \"{}\".",
+                    docCount, actions.database);
+        }
     }
 
     private boolean typeChanged(
@@ -95,68 +687,1236 @@ class IdolClient {
         return prevType != null && !(
                 prevType.equals(req.getClass()));
     }
-    private IIdolIndexAction actionForType(
-            Class<? extends ICommitterRequest> reqType) {
-        return UpsertRequest.class.isAssignableFrom(reqType)
-                ? upsertAction : deleteAction;
-    }
 
     private void doPost(
             List<ICommitterRequest> batch,
-            Class<? extends ICommitterRequest> reqType)
-                    throws CommitterException {
+            Class<? extends ICommitterRequest> reqType,
+            Actions actions,
+            IdolJournal.Commit commit) throws CommitterException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try (IdolTracer.Span span = tracer.span("idol.batch")) {
+            span.set("idol.request_type", reqType.getSimpleName())
+                .set("idol.documents", batch.size())
+                .set("idol.database", StringUtils.defaultString(
+                        actions.database, config.getDatabaseName()));
+            // Memory for content cached to be read twice, then for the
+            // serialized batch.  Held until sent.
+            long memory = batchMemory(batch);
+            try (Permit permit = acquireMemory(2 * memory)) {
+                CachedStreamFactory cache = IdolContent.cache(
+                        memoryGovernor == null ? -1 : memory, payloadDir);
+                String fingerprint = null;
+                if (commit != null) {
+                    fingerprint = IdolJournal.fingerprint(
+                            actions.database, batch, cache);
+                    if (commit.skip(fingerprint)) {
+                        LOG.info("{} {}s already acknowledged by IDOL, "
+                                + "not sent again.", batch.size(),
+                                reqType.getSimpleName());
+                        span.set("idol.journal", "skipped");
+                        return;
+                    }
+                    journal.sent(fingerprint);
+                }
+                Ack ack = doPost(batch,
+                        UpsertRequest.class.isAssignableFrom(reqType),
+                        reqType, actions, cache);
+                if (commit != null && !ack.isDeferred()) {
+                    commit.acknowledged(fingerprint, ack.indexId);
+                } else if (commit != null) {
+                    // sent again after a crash, until IDOL responds
+                    LOG.debug("{} {}s not yet acknowledged by IDOL.",
+                            batch.size(), reqType.getSimpleName());
+                }
+            } catch (IOException e) {
+                throw span.error(new CommitterException(
+                        "Could not journal batch sent to IDOL.", e));
+            } catch (CommitterException | RuntimeException e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+    private Ack doPost(
+            List<ICommitterRequest> batch,
+            boolean isUpsert,
+            Class<? extends ICommitterRequest> reqType,
+            Actions actions,
+            CachedStreamFactory cache) throws CommitterException {
+        Ack ack = new Ack();
+        if (changeDetector == null) {
+            post(isUpsert ? batch : sentDeletes(batch), reqType, actions,
+                    ack);
+        } else if (isUpsert) {
+            Changes changes =
+                    changeDetector.detect(batch, actions.database, cache);
+            post(changes.getUpserts(), reqType, actions, ack);
+            if (!changes.getReplaces().isEmpty()) {
+                ack.add(post(changes.getReplaces(),
+                        actions.replace, emptyMap()));
+            }
+            // Checksums are only saved once IDOL got the documents.
+            // Spooled ones are sent again with the next crawl.
+            if (ack.spooled) {
+                LOG.debug("Checksums of {} spooled documents not saved.",
+                        changes.size());
+            } else if (ack.session != null) {
+                ack.session.whenSent(() -> changeDetector.commit(changes));
+            } else {
+                changeDetector.commit(changes);
+            }
+        } else {
+            List<ICommitterRequest> deletes = sentDeletes(batch);
+            post(deletes, reqType, actions, ack);
+            changeDetector.evict(deletes);
+        }
+        // Added even if not acknowledged yet, so deletions are not
+        // skipped for documents IDOL may still get.
+        if (sentRefs != null && isUpsert) {
+            for (ICommitterRequest req : batch) {
+                sentRefs.add(resolveReference(config, req));
+            }
+            sentRefs.commit();
+        }
+        return ack;
+    }
+
+    // Drops deletions of references never sent to IDOL, if enabled.
+    private List<ICommitterRequest> sentDeletes(
+            List<ICommitterRequest> deletes) {
+        if (sentRefs == null) {
+            return deletes;
+        }
+        List<ICommitterRequest> sent = new ArrayList<>(deletes.size());
+        for (ICommitterRequest req : deletes) {
+            if (sentRefs.mightContain(resolveReference(config, req))) {
+                sent.add(req);
+            } else {
+                LOG.debug("Document never sent, deletion skipped: {}",
+                        req.getReference());
+            }
+        }
+        if (sent.size() < deletes.size()) {
+            LOG.info("Skipped {} deletions of documents never sent.",
+                    deletes.size() - sent.size());
+        }
+        return sent;
+    }
+
+    // Reference as stored in IDOL, used as key for persistent stores.
+    static String resolveReference(
+            IdolCommitterConfig config, ICommitterRequest req) {
+        String refField = config.getSourceReferenceField();
+        if (StringUtils.isNotBlank(refField)) {
+            String ref = req.getMetadata().getString(refField);
+            if (StringUtils.isNotBlank(ref)) {
+                return ref;
+            }
+        }
+        return req.getReference();
+    }
+
+    private void post(
+            List<ICommitterRequest> batch,
+            Class<? extends ICommitterRequest> reqType,
+            Actions actions,
+            Ack ack) throws CommitterException {
         if (batch.isEmpty()) {
             return;
         }
-        IIdolIndexAction indexAction = actionForType(reqType);
-        HttpURL url = new HttpURL(config.getUrl());
-        QueryString qs = url.getQueryString();
         if (UpsertRequest.class.isAssignableFrom(reqType)) {
-            config.getDreAddDataParams().forEach(qs::add);
+            if (stagingDir != null) {
+                ack.add(stage(batch, actions.upsert));
+                return;
+            }
+            if (aggregateTime > 0) {
+                ack.add(postToAggregate(
+                        batch, (DreAddDataAction) actions.upsert));
+                return;
+            }
+            if (sessionDir != null) {
+                ack.session = postToSession(
+                        batch, (DreAddDataAction) actions.upsert);
+                return;
+            }
+            ack.add(post(batch, actions.upsert, upsertParams));
+        } else if (bulkDatabase != null) {
+            // nothing to delete in a database being reloaded
+            LOG.debug("Bulk reloading, {} deletions skipped.", batch.size());
         } else {
-            config.getDreDeleteRefParams().forEach(qs::add);
+            for (List<ICommitterRequest> part : splitToFitUrl(batch)) {
+                ack.add(post(part, actions.delete,
+                        config.getDreDeleteRefParams()));
+            }
         }
+    }
 
-        HttpURLConnection con = openConnection(indexAction.url(batch, url));
-        try (Writer w = new BufferedWriter(new OutputStreamWriter(
-                con.getOutputStream(), StandardCharsets.UTF_8))) {
-            indexAction.writeTo(batch, w);
-            w.flush();
+    // Deletions are sent as URL parameters, which IDOL limits in length.
+    private List<List<ICommitterRequest>> splitToFitUrl(
+            List<ICommitterRequest> batch) throws CommitterException {
+        if (maxUrlLength <= 0) {
+            return Collections.singletonList(batch);
+        }
+        // Room for the action, database and configured parameters
+        int baseLength = config.getUrl().length() + 128;
+        for (Entry<String, String> en :
+                config.getDreDeleteRefParams().entrySet()) {
+            baseLength += en.getKey().length() + en.getValue().length() + 2;
+        }
+        List<List<ICommitterRequest>> parts = new ArrayList<>();
+        List<ICommitterRequest> part = new ArrayList<>();
+        int length = baseLength;
+        try {
+            for (ICommitterRequest req : batch) {
+                int refLength = URLEncoder.encode(resolveReference(
+                        config, req), StandardCharsets.UTF_8.name())
+                                .length() + 1;
+                if (!part.isEmpty() && length + refLength > maxUrlLength) {
+                    parts.add(part);
+                    part = new ArrayList<>();
+                    length = baseLength;
+                }
+                part.add(req);
+                length += refLength;
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new CommitterException(e);
+        }
+        parts.add(part);
+        if (parts.size() > 1) {
+            LOG.debug("Deletions split in {} requests to fit max URL "
+                    + "length of {}.", parts.size(), maxUrlLength);
+        }
+        return parts;
+    }
 
-            // Get the response
-            int responseCode = con.getResponseCode();
-            LOG.debug("Sending {} {} to URL: {}",
-                    batch.size(), reqType.getSimpleName(), config.getUrl());
-            LOG.debug("Server Response Code: {}", responseCode);
-            String response = IOUtils.toString(
-                    con.getInputStream(), StandardCharsets.UTF_8);
-            LOG.debug("Server Response Text: {}", response);
-            if ((config.isCfs() && !contains(response, "SUCCESS"))
-                    || (!config.isCfs() && !contains(response, "INDEXID"))) {
-                throw new CommitterException(
-                        "Unexpected HTTP response: " + response);
+    // IDOL response, or null if spooled
+    private IdolResponse post(
+            List<ICommitterRequest> batch,
+            IIdolIndexAction indexAction,
+            Map<String, String> params)
+                    throws CommitterException {
+        if (sessionDir != null || aggregateTime > 0) {
+            // sent after upserts streamed or aggregated so far
+            synchronized (sessionLock) {
+                endAggregate();
+                endSession();
+                sendPendingSessions();
+            }
+        }
+        HttpURL url = new HttpURL(config.getUrl());
+        QueryString qs = url.getQueryString();
+        params.forEach(qs::add);
+
+        URL actionUrl = indexAction.url(batch, url);
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(
+                config.getMaxBatchMemory(), payloadDir);
+        IdolJfr.Batch stats = jfr.beginBatch(indexAction, batch.size());
+        try {
+            long start = System.nanoTime();
+            // Compressed on the fly, so only compressed bytes are held
+            Writer w = new BufferedWriter(new OutputStreamWriter(
+                    config.isCompressRequests()
+                            ? gzip(payload, config.getCompressionLevel())
+                            : payload,
+                    StandardCharsets.UTF_8));
+            try (IdolTracer.Span span = tracer.span("idol.serialize")) {
+                indexAction.writeTo(batch, w);
+                w.close();
+                span.set("idol.action", indexAction.getClass().getSimpleName())
+                    .set("idol.documents", batch.size())
+                    .set("idol.bytes", payload.size());
+            }
+            stats.serialized(payload.size(), System.nanoTime() - start);
+            if (payload.isSpilled()) {
+                LOG.debug("Batch of {} bytes exceeded memory limit, "
+                        + "spilled to disk.", payload.size());
+            }
+            return send(actionUrl, indexAction, batch.size(), payload, stats);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not serialize batch for " + config.getUrl(), e);
+        } finally {
+            jfr.commitBatch(stats);
+            try {
+                payload.dispose();
+            } catch (IOException e) {
+                LOG.error("Could not dispose of batch payload.", e);
+            }
+        }
+    }
+
+    // Writes upserts to the streaming session, opened as needed, and
+    // ends it once full.  Sessions are also ended after a time window.
+    // Returns the session written to.
+    private IdolSession postToSession(List<ICommitterRequest> batch,
+            DreAddDataAction action) throws CommitterException {
+        throttle(batch.size(), estimateSize(batch));
+        synchronized (sessionLock) {
+            sendPendingSessions();
+            if (session == null) {
+                session = openSession(action);
+                IdolSession opened = session;
+                sessionTimer.schedule(() -> endSession(opened),
+                        config.getSessionTime(), TimeUnit.MILLISECONDS);
+            }
+            IdolSession written = session;
+            try {
+                written.write(batch, action);
+            } catch (CommitterException | RuntimeException e) {
+                // batches written before are sent, not the failed one
+                try {
+                    endSession();
+                } catch (CommitterException ex) {
+                    e.addSuppressed(ex);
+                }
+                throw e;
+            }
+            if (written.getDocCount() >= config.getSessionMaxDocs()
+                    || written.getSize() >= config.getSessionMaxSize()) {
+                endSession();
+            }
+            return written;
+        }
+    }
+
+    // Writes upserts to the aggregate, opened as needed, and waits for
+    // it to be sent with upserts of batches committed meanwhile.  It is
+    // sent once full, after a time window, or before any other request.
+    // Returns the IDOL response, or null if spooled.
+    private IdolResponse postToAggregate(List<ICommitterRequest> batch,
+            DreAddDataAction action) throws CommitterException {
+        IdolAggregate joined;
+        synchronized (sessionLock) {
+            if (aggregate == null) {
+                aggregate = new IdolAggregate(
+                        config.getMaxBatchMemory(), payloadDir);
+                IdolAggregate opened = aggregate;
+                sessionTimer.schedule(() -> endAggregate(opened),
+                        aggregateTime, TimeUnit.MILLISECONDS);
+            }
+            joined = aggregate;
+            // a failed batch is dropped, the aggregate is still sent
+            joined.write(batch, action);
+            if (joined.getDocCount() >= config.getAggregateMaxDocs()
+                    || joined.getSize() >= config.getAggregateMaxSize()) {
+                endAggregate();
+            }
+        }
+        return joined.await();
+    }
+
+    private IdolSession openSession(DreAddDataAction action)
+            throws CommitterException {
+        HttpURLConnection con = null;
+        // spooled batches must be sent first, the session is then
+        // only written to its file, and spooled once ended
+        if ((breaker == null || breaker.allowRequest())
+                && (spool == null || !spool.isPending())) {
+            try {
+                con = openConnection(
+                        sessionUrl(action), action.contentType());
+            } catch (IOException e) {
+                LOG.debug("Could not open IDOL session connection.", e);
+            }
+        }
+        try {
+            return new IdolSession(sessionDir, con);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not open IDOL session in " + sessionDir, e);
+        }
+    }
+
+    private URL sessionUrl(DreAddDataAction action)
+            throws CommitterException {
+        HttpURL url = new HttpURL(config.getUrl());
+        QueryString qs = url.getQueryString();
+        upsertParams.forEach(qs::add);
+        return action.url(Collections.emptyList(), url);
+    }
+
+    // Ends a session once its time window is reached, if still open.
+    private void endSession(IdolSession expected) {
+        synchronized (sessionLock) {
+            if (session != expected) {
+                return;
+            }
+            try {
+                endSession();
+            } catch (CommitterException e) {
+                LOG.error("Could not send IDOL session. It will be sent "
+                        + "again with the next batch.", e);
+            }
+        }
+    }
+
+    // Must be invoked holding the session lock.
+    private void endSession() throws CommitterException {
+        IdolSession s = session;
+        if (s == null) {
+            return;
+        }
+        session = null;
+        try {
+            IdolResponse resp = s.finish();
+            requestCount.incrementAndGet();
+            if (breaker != null) {
+                breaker.success();
             }
+            if (resp.getIndexId() >= 0) {
+                lastIndexId.accumulateAndGet(resp.getIndexId(), Math::max);
+            }
+            if (!replicas.isEmpty()) {
+                replicateSession(s.getFile());
+            }
+            s.delete();
+            s.sent();
+            LOG.debug("IDOL session of {} documents ({} bytes) ended "
+                    + "after {} ms.", s.getDocCount(), s.getSize(),
+                    s.getAge());
+        } catch (IdolException e) {
+            if (!e.isRetryable()) {
+                permanentErrorCount.incrementAndGet();
+                rejectSession(s.getFile(), e);
+                return;
+            }
+            if (!s.isAborted()) {
+                retryableErrorCount.incrementAndGet();
+                if (breaker != null) {
+                    breaker.failure();
+                }
+            }
+            LOG.warn("IDOL session of {} documents not accepted, sending "
+                    + "it again. Cause: {}", s.getDocCount(), e.getMessage());
+            sessionsPending = true;
+            sendPendingSessions();
         } catch (IOException e) {
+            sessionsPending = true;
             throw new CommitterException(
-                    "Cannot post content to " + config.getUrl(), e);
+                    "Could not end IDOL session: " + s.getFile(), e);
+        }
+    }
+
+    // Ends the aggregate once its time window is reached, if still open.
+    private void endAggregate(IdolAggregate expected) {
+        synchronized (sessionLock) {
+            if (aggregate != expected) {
+                return;
+            }
+            try {
+                endAggregate();
+            } catch (CommitterException e) {
+                LOG.error("Could not send aggregated upserts. Batches "
+                        + "waiting for them failed.", e);
+            }
+        }
+    }
+
+    // Sends the aggregate as a single request, releasing batches
+    // waiting for it.  If it fails, so do they, to be committed again.
+    // Must be invoked holding the session lock.
+    private void endAggregate() throws CommitterException {
+        IdolAggregate a = aggregate;
+        if (a == null) {
+            return;
+        }
+        aggregate = null;
+        try {
+            IdolResponse resp = a.getDocCount() > 0 ? sendAggregate(a) : null;
+            a.sent(resp);
+            LOG.debug("Sent {} aggregated upserts ({} bytes) held for "
+                    + "{} ms.", a.getDocCount(), a.getSize(), a.getAge());
+        } catch (CommitterException e) {
+            a.failed(e);
+            throw e;
+        } finally {
+            try {
+                a.dispose();
+            } catch (IOException e) {
+                LOG.error("Could not dispose of aggregated upserts.", e);
+            }
+        }
+    }
+    private IdolResponse sendAggregate(IdolAggregate a)
+            throws CommitterException {
+        DreAddDataAction action =
+                (DreAddDataAction) actions(defaultDatabase).upsert;
+        IdolPayloadBuffer payload = null;
+        IdolJfr.Batch stats = jfr.beginBatch(action, a.getDocCount());
+        try {
+            long start = System.nanoTime();
+            IdolPayloadBuffer body = a.finish();
+            if (config.isCompressRequests()) {
+                payload = new IdolPayloadBuffer(
+                        config.getMaxBatchMemory(), payloadDir);
+                try (OutputStream out = gzip(
+                        payload, config.getCompressionLevel())) {
+                    body.writeTo(out);
+                }
+            }
+            IdolPayloadBuffer sent = payload != null ? payload : body;
+            stats.serialized(sent.size(), System.nanoTime() - start);
+            return send(sessionUrl(action),
+                    action, a.getDocCount(), sent, stats);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not serialize aggregated upserts.", e);
+        } finally {
+            jfr.commitBatch(stats);
+            if (payload != null) {
+                try {
+                    payload.dispose();
+                } catch (IOException e) {
+                    LOG.error("Could not dispose of batch payload.", e);
+                }
+            }
+        }
+    }
+
+    // Sends sessions IDOL did not accept, or left by a previous run,
+    // as regular requests.  Must be invoked holding the session lock.
+    private void sendPendingSessions() throws CommitterException {
+        if (!sessionsPending) {
+            return;
+        }
+        try {
+            for (Path file : IdolSession.pending(sessionDir)) {
+                if (session == null || !file.equals(session.getFile())) {
+                    sendSession(file);
+                    LOG.info("Sent IDOL session {} again.",
+                            file.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not read IDOL sessions in " + sessionDir, e);
+        }
+        sessionsPending = false;
+    }
+
+    // Sessions are streamed to the primary only, replicas are sent
+    // each one whole once accepted.
+    private void replicateSession(Path file) throws IOException {
+        DreAddDataAction action =
+                (DreAddDataAction) actions(defaultDatabase).upsert;
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(
+                config.getMaxBatchMemory(), payloadDir);
+        try {
+            int docCount;
+            try (OutputStream out = config.isCompressRequests()
+                    ? gzip(payload, config.getCompressionLevel())
+                    : payload) {
+                docCount = IdolSession.copyComplete(file, out);
+            }
+            URL url = sessionUrl(action);
+            for (IdolReplica replica : replicas) {
+                replica.submit(url, action.contentType(),
+                        config.isCompressRequests(), docCount, payload);
+            }
+        } catch (CommitterException e) {
+            throw new IOException(e);
         } finally {
-            con.disconnect();
+            payload.dispose();
+        }
+    }
+
+    // Sets aside a session IDOL rejected, so sessions and batches that
+    // follow are still sent.
+    private void rejectSession(Path file, IdolException e)
+            throws CommitterException {
+        LOG.error("IDOL rejected session, moved to \"error\" session "
+                + "directory: {}", file, e);
+        try {
+            IdolSession.reject(file);
+        } catch (IOException ex) {
+            throw new CommitterException(
+                    "Could not set aside IDOL session: " + file, ex);
+        }
+    }
+
+    // Sends a session file as a regular request, returning the IDOL
+    // response, or null if spooled, rejected or empty.
+    private IdolResponse sendSession(Path file)
+            throws CommitterException, IOException {
+        DreAddDataAction action =
+                (DreAddDataAction) actions(defaultDatabase).upsert;
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(
+                config.getMaxBatchMemory(), payloadDir);
+        IdolJfr.Batch stats = null;
+        try {
+            long start = System.nanoTime();
+            int docCount;
+            try (OutputStream out = config.isCompressRequests()
+                    ? gzip(payload, config.getCompressionLevel())
+                    : payload) {
+                docCount = IdolSession.copyComplete(file, out);
+            }
+            stats = jfr.beginBatch(action, docCount);
+            stats.serialized(payload.size(), System.nanoTime() - start);
+            IdolResponse resp = null;
+            if (docCount > 0) {
+                try {
+                    resp = send(sessionUrl(action),
+                            action, docCount, payload, stats);
+                } catch (IdolException e) {
+                    if (e.isRetryable()) {
+                        throw e;
+                    }
+                    rejectSession(file, e);
+                    return null;
+                }
+            }
+            Files.delete(file);
+            LOG.debug("Sent {} documents of IDOL session {}.", docCount,
+                    file.getFileName());
+            return resp;
+        } finally {
+            if (stats != null) {
+                jfr.commitBatch(stats);
+            }
+            payload.dispose();
+        }
+    }
+
+    // Writes upserts to a compressed IDX file IDOL can read, and
+    // tells IDOL to index it with DREADD.
+    private IdolResponse stage(List<ICommitterRequest> batch,
+            IIdolIndexAction upsertAction) throws CommitterException {
+        Path file = stagingDir.resolve(String.format("%d-%s.idx.gz",
+                System.currentTimeMillis(), UUID.randomUUID()));
+        IdolJfr.Batch stats = jfr.beginBatch(upsertAction, batch.size());
+        try {
+            return stage(batch, upsertAction, file, stats);
+        } finally {
+            jfr.commitBatch(stats);
+        }
+    }
+    private IdolResponse stage(List<ICommitterRequest> batch,
+            IIdolIndexAction upsertAction, Path file, IdolJfr.Batch stats)
+                    throws CommitterException {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(stagingDir);
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                    gzip(Files.newOutputStream(file),
+                            config.getCompressionLevel()),
+                    StandardCharsets.UTF_8));
+                    IdolTracer.Span span = tracer.span("idol.serialize")) {
+                span.set("idol.action",
+                        upsertAction.getClass().getSimpleName())
+                    .set("idol.documents", batch.size());
+                upsertAction.writeTo(batch, w);
+            }
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not write staged IDX file: " + file, e);
+        }
+        long fileSize = file.toFile().length();
+        stats.serialized(fileSize, System.nanoTime() - start);
+        LOG.debug("Staged {} upserts in {} ({} bytes).",
+                batch.size(), file, fileSize);
+        // documents are counted when sent
+        throttle(0, fileSize);
+
+        String idolFile = file.toString();
+        if (StringUtils.isNotBlank(config.getStagingIdolDir())) {
+            idolFile = StringUtils.appendIfMissing(
+                    config.getStagingIdolDir(), "/", "\\")
+                    + file.getFileName();
+        }
+        HttpURL url = new HttpURL(config.getUrl());
+        url.setPath(StringUtils.appendIfMissing(
+                url.getPath(), "/") + "DREADD");
+        upsertParams.forEach(url.getQueryString()::add);
+        // DREADD expects the file path as first, unnamed parameter
+        String params = StringUtils.removeStart(
+                url.getQueryString().toString(), "?");
+        url.setQueryString(null);
+        IdolPayloadBuffer empty = new IdolPayloadBuffer(0, payloadDir);
+        try {
+            return send(new URL(url.toString() + "?"
+                    + URLEncoder.encode(idolFile, "UTF-8")
+                    + (params.isEmpty() ? "" : "&" + params)),
+                    upsertAction, batch.size(), empty, stats);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Invalid DREADD URL for file: " + idolFile, e);
+        }
+    }
+
+    static OutputStream gzip(OutputStream out, int level)
+            throws IOException {
+        return new GZIPOutputStream(out, 64 * 1024) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    private void throttle(int docCount, long byteCount)
+            throws CommitterException {
+        try {
+            rateLimiter.acquire(docCount, byteCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommitterException(
+                    "Interrupted while waiting on rate limits.", e);
+        }
+    }
+
+    // Memory held by a batch payload, bounded by how much a payload
+    // keeps in memory.
+    private long batchMemory(List<ICommitterRequest> batch) {
+        if (memoryGovernor == null) {
+            return 0;
+        }
+        return Math.min(estimateSize(batch), config.getMaxBatchMemory());
+    }
+
+    private Permit acquireMemory(long bytes) throws CommitterException {
+        if (memoryGovernor == null) {
+            return null;
+        }
+        try {
+            return memoryGovernor.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommitterException(
+                    "Interrupted while waiting for batch memory.", e);
+        }
+    }
+
+    // Rough estimate of the serialized size of a batch.
+    private long estimateSize(List<ICommitterRequest> batch) {
+        long size = 0;
+        for (ICommitterRequest req : batch) {
+            size += req.getReference().length();
+            for (Entry<String, List<String>> en :
+                    req.getMetadata().entrySet()) {
+                for (String value : en.getValue()) {
+                    size += en.getKey().length() + value.length() + 16;
+                }
+            }
+            if (req instanceof UpsertRequest) {
+                InputStream is = ((UpsertRequest) req).getContent();
+                try {
+                    size += is instanceof CachedInputStream
+                            ? ((CachedInputStream) is).length()
+                            : is.available();
+                } catch (IOException e) {
+                    LOG.debug("Could not estimate content size.", e);
+                }
+            }
+        }
+        // Base64 encoding of CFS content adds about a third
+        return config.isCfs() ? size * 4 / 3 : size;
+    }
+
+    // Sends a payload, retrying on errors that could be temporary.
+    // Returns the IDOL response, or null if spooled.
+    private IdolResponse send(URL url, IIdolIndexAction indexAction,
+            int batchSize, IdolPayloadBuffer payload, IdolJfr.Batch stats)
+                    throws CommitterException {
+        boolean compressed =
+                config.isCompressRequests() && payload.size() > 0;
+        // replicas get the same payload, whatever happens on the primary
+        for (IdolReplica replica : replicas) {
+            replica.submit(url, indexAction.contentType(),
+                    compressed, batchSize, payload);
+        }
+        if (spool(url, indexAction, batchSize, payload, stats)) {
+            return null;
+        }
+        if (breaker != null && !breaker.allowRequest()) {
+            throw new CommitterException("IDOL circuit breaker is open, "
+                    + "batch not sent to " + config.getUrl());
+        }
+        throttle(batchSize, payload.size());
+        LOG.debug("Sending {} {} to URL: {}", batchSize,
+                indexAction.getClass().getSimpleName(), config.getUrl());
+        int attempt = 0;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                IdolResponse resp = sendOnce(url, indexAction.contentType(),
+                        compressed, batchSize, payload);
+                stats.attempted(System.nanoTime() - start);
+                stats.outcome(IdolJfr.OUTCOME_SUCCESS);
+                if (breaker != null) {
+                    breaker.success();
+                }
+                requestCount.incrementAndGet();
+                if (resp.getIndexId() >= 0) {
+                    lastIndexId.accumulateAndGet(
+                            resp.getIndexId(), Math::max);
+                }
+                return resp;
+            } catch (IdolException e) {
+                stats.attempted(System.nanoTime() - start);
+                if (e.getResponse() == null) {
+                    stats.outcome(IdolJfr.OUTCOME_NO_RESPONSE);
+                } else if (e.isRetryable()) {
+                    stats.outcome(IdolJfr.OUTCOME_RETRYABLE);
+                } else {
+                    stats.outcome(IdolJfr.OUTCOME_PERMANENT);
+                }
+                if (e.isRetryable()) {
+                    retryableErrorCount.incrementAndGet();
+                } else {
+                    permanentErrorCount.incrementAndGet();
+                }
+                if (breaker != null) {
+                    if (e.isRetryable()) {
+                        breaker.failure();
+                    } else {
+                        breaker.success();
+                    }
+                    if (!breaker.allowRequest()) {
+                        if (spool(url, indexAction,
+                                batchSize, payload, stats)) {
+                            return null;
+                        }
+                        throw e;
+                    }
+                }
+                if (!e.isRetryable() || attempt >= config.getMaxRetries()) {
+                    throw e;
+                }
+                attempt++;
+                retryCount.incrementAndGet();
+                LOG.warn("Could not send batch to IDOL, retry {}/{} "
+                        + "in {} ms. Cause: {}", attempt,
+                        config.getMaxRetries(), config.getRetryDelay(),
+                        e.getMessage());
+                Sleeper.sleepMillis(config.getRetryDelay());
+            }
         }
     }
 
-    private HttpURLConnection openConnection(URL url) throws CommitterException {
+    // Spools a batch instead of sending it, if IDOL is unavailable or
+    // batches are already spooled, so they are all sent in order.
+    private boolean spool(URL url, IIdolIndexAction indexAction,
+            int batchSize, IdolPayloadBuffer payload, IdolJfr.Batch stats)
+                    throws CommitterException {
+        if (spool == null || (breaker.isClosed() && !spool.isPending())) {
+            return false;
+        }
         try {
-            HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setDoInput(true);
-            con.setDoOutput(true);
-            con.setUseCaches(false);
-            con.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
-            con.setRequestMethod("POST");
-            return con;
+            spool.add(new IdolSpool.Entry(url.toString(),
+                    indexAction.contentType(),
+                    config.isCompressRequests() && payload.size() > 0,
+                    batchSize), payload);
         } catch (IOException e) {
             throw new CommitterException(
-                    "Cannot open HTTP connection to IDOL at: "
-                            + config.getUrl(), e);
+                    "Could not spool batch for " + config.getUrl(), e);
+        }
+        stats.outcome(IdolJfr.OUTCOME_SPOOLED);
+        spooledCount.incrementAndGet();
+        LOG.debug("Spooled {} {} while IDOL is unavailable.", batchSize,
+                indexAction.getClass().getSimpleName());
+        return true;
+    }
+
+    // Sends spooled batches in order, once IDOL is back.
+    private void drainSpool() {
+        try {
+            if ((breaker.isClosed() && !spool.isPending())
+                    || !breaker.allowRequest()) {
+                return;
+            }
+            if (!breaker.isClosed()) {
+                if (!probe()) {
+                    breaker.failure();
+                    return;
+                }
+                breaker.success();
+            }
+            int count = 0;
+            IdolSpool.Entry entry;
+            while (System.currentTimeMillis() < drainDeadline
+                    && (entry = spool.peek()) != null) {
+                if (!sendSpooled(entry)) {
+                    break;
+                }
+                count++;
+            }
+            if (count > 0) {
+                LOG.info("Sent {} spooled batches to IDOL, {} left.",
+                        count, spool.count());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not send spooled batches to IDOL.", e);
+        }
+    }
+
+    // Whether the spooled batch was handled (sent or rejected).
+    private boolean sendSpooled(IdolSpool.Entry entry) throws IOException {
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(
+                config.getMaxBatchMemory(), payloadDir);
+        try {
+            entry.writeTo(payload);
+            throttle(entry.getBatchSize(), payload.size());
+            IdolResponse resp = sendOnce(new URL(entry.getUrl()),
+                    entry.getContentType(), entry.isCompressed(),
+                    entry.getBatchSize(), payload);
+            breaker.success();
+            requestCount.incrementAndGet();
+            if (resp.getIndexId() >= 0) {
+                lastIndexId.accumulateAndGet(resp.getIndexId(), Math::max);
+            }
+            spool.remove(entry);
+            return true;
+        } catch (IdolException e) {
+            if (e.isRetryable()) {
+                retryableErrorCount.incrementAndGet();
+                breaker.failure();
+                LOG.warn("IDOL unavailable again, {} spooled batches left. "
+                        + "Cause: {}", spool.count(), e.getMessage());
+                return false;
+            }
+            permanentErrorCount.incrementAndGet();
+            breaker.success();
+            LOG.error("IDOL rejected spooled batch, moved to \"error\" "
+                    + "spool directory: {}", entry, e);
+            spool.reject(entry);
+            return true;
+        } catch (CommitterException e) {
+            LOG.warn("Could not send spooled batch: {}", e.getMessage());
+            return false;
+        } finally {
+            payload.dispose();
+        }
+    }
+
+    // Whether IDOL responds as available, to any request.
+    private boolean probe() {
+        String url = StringUtils.firstNonBlank(
+                config.getAciUrl(), config.getUrl());
+        try {
+            HttpURLConnection con =
+                    (HttpURLConnection) new URL(url).openConnection();
+            int code = con.getResponseCode();
+            IdolAci.read(con, code);
+            return code < 500;
+        } catch (IOException e) {
+            LOG.debug("IDOL still unavailable at {}.", url, e);
+            return false;
+        }
+    }
+
+    private IdolResponse sendOnce(URL url, String contentType,
+            boolean compressed, int batchSize, IdolPayloadBuffer payload)
+                    throws IdolException {
+        boolean record = recorder != null && recorder.sample();
+        long startTime = record ? System.currentTimeMillis() : 0;
+        long start = System.nanoTime();
+        int responseCode = -1;
+        HttpURLConnection con = null;
+        IdolTracer.Span span = tracer.clientSpan("idol.http")
+                .set("http.request.method", "POST")
+                .set("idol.endpoint", config.getUrl())
+                .set("idol.documents", batchSize)
+                .set("idol.bytes", payload.size());
+        try {
+            con = openConnection(url, contentType);
+            span.inject(con);
+            if (compressed) {
+                con.setRequestProperty("Content-Encoding", "gzip");
+            }
+            // Streaming mode prevents the connection from buffering the body
+            con.setFixedLengthStreamingMode(payload.size());
+            try (OutputStream out = con.getOutputStream()) {
+                payload.writeTo(out);
+            }
+
+            responseCode = con.getResponseCode();
+            span.set("http.response.status_code", responseCode);
+            LOG.debug("Server Response Code: {}", responseCode);
+            // Fully reading and closing the response body (error or not)
+            // lets the connection be reused.
+            InputStream body = responseCode >= 400
+                    ? con.getErrorStream() : con.getInputStream();
+            IdolResponse resp;
+            try {
+                resp = IdolResponse.parse(responseCode, body);
+            } finally {
+                IOUtils.closeQuietly(body);
+            }
+            LOG.debug("Server Response: {}", resp);
+            span.set("idol.index_id", resp.getIndexId());
+            if (!resp.isSuccess()) {
+                throw span.error(new IdolException(
+                        "Unexpected IDOL response from " + config.getUrl()
+                        + ":", resp));
+            }
+            return resp;
+        } catch (IOException e) {
+            // Connection state is unknown, do not reuse it
+            if (con != null) {
+                con.disconnect();
+            }
+            throw span.error(new IdolException(
+                    "Cannot post content to " + config.getUrl(), e));
+        } finally {
+            span.close();
+            if (record) {
+                recorder.record(new IdolRecorder.Record(startTime,
+                        System.nanoTime() - start, responseCode, batchSize,
+                        url.toString(), contentType, compressed), payload);
+            }
+        }
+    }
+
+    private HttpURLConnection openConnection(
+            URL url, String contentType) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setDoInput(true);
+        con.setDoOutput(true);
+        con.setUseCaches(false);
+        con.setRequestProperty("Content-Type", contentType);
+        con.setRequestMethod("POST");
+        return con;
+    }
+
+    /**
+     * Stops accepting batches and waits for batches being sent, up to
+     * the configured close timeout. Then optionally issues a "DRESYNC"
+     * and waits for IDOL to finish indexing what it was sent, within
+     * the same timeout.
+     */
+    void close() {
+        closing = true;
+        long timeout = config.getCloseTimeout();
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean drained = false;
+        try {
+            drained = drainLock.writeLock().tryLock(
+                    timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            // also releases batches waiting for aggregated upserts
+            closeSession();
+            if (!drained) {
+                LOG.warn("{} batch(es) still being sent to IDOL after "
+                        + "close timeout of {} ms. They were not removed "
+                        + "from the committer queue.",
+                        drainLock.getReadLockCount(), timeout);
+            } else {
+                flushSpool(deadline);
+                if (finishIndexing(deadline) && bulkDatabase != null) {
+                    completeBulkReload();
+                }
+            }
+            for (IdolReplica replica : replicas) {
+                replica.close(deadline);
+            }
+            LOG.info("IDOL requests: sent={}, retries={}, "
+                    + "retryableErrors={}, permanentErrors={}, "
+                    + "spooled={}, lastIndexId={}", requestCount, retryCount,
+                    retryableErrorCount, permanentErrorCount, spooledCount,
+                    lastIndexId);
+            if (memoryGovernor != null) {
+                LOG.info("Shared batch memory usage: {}", memoryGovernor);
+            }
+            // Stores could still be in use by batches not drained
+            if (drained) {
+                closeStores();
+            }
+            if (deleteLane != null) {
+                deleteLane.shutdown();
+            }
+            if (databaseLanes != null) {
+                databaseLanes.shutdown();
+            }
+            if (spoolDrainer != null) {
+                spoolDrainer.shutdownNow();
+            }
+            if (sessionTimer != null) {
+                sessionTimer.shutdownNow();
+            }
+            endpoint.release();
+            if (recorder != null) {
+                recorder.close();
+            }
+        } finally {
+            if (drained) {
+                drainLock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Sends the aggregate, releasing batches waiting for it, and ends
+    // the streaming session, so nothing is left to send but what could
+    // not be sent.
+    private void closeSession() {
+        synchronized (sessionLock) {
+            try {
+                endAggregate();
+            } catch (CommitterException e) {
+                LOG.error("Could not send aggregated upserts. Batches "
+                        + "waiting for them failed.", e);
+            }
+            if (sessionDir == null) {
+                return;
+            }
+            try {
+                endSession();
+                sendPendingSessions();
+            } catch (CommitterException e) {
+                LOG.error("Could not send IDOL sessions. They will be sent "
+                        + "once the committer is started again.", e);
+            }
+        }
+    }
+
+    // Sends what was spooled if IDOL is back, within the close timeout.
+    private void flushSpool(long deadline) {
+        if (spoolDrainer == null) {
+            return;
+        }
+        drainDeadline = deadline;
+        spoolDrainer.shutdown();
+        try {
+            spoolDrainer.awaitTermination(Math.max(0,
+                    deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        while (spool.isPending() && System.currentTimeMillis() < deadline) {
+            drainSpool();
+            if (spool.isPending()) {
+                Sleeper.sleepMillis(Math.max(1, Math.min(
+                        config.getCircuitBreakerOpenTime(),
+                        deadline - System.currentTimeMillis())));
+            }
+        }
+        if (spool.isPending()) {
+            LOG.warn("{} batch(es) remain spooled in {}. They will be sent "
+                    + "once the committer is started again.",
+                    spool.count(), spool.getDir());
+        }
+    }
+
+    // Whether the sync, if any, was sent.
+    private boolean finishIndexing(long deadline) {
+        try {
+            // bulk reloads are only synced once, at the end
+            if (config.isSyncOnClose() || bulkDatabase != null) {
+                if (config.isCfs()) {
+                    LOG.warn("DRESYNC on close is not supported with CFS.");
+                } else {
+                    post(Collections.emptyList(),
+                            new DreSyncAction(), emptyMap());
+                    LOG.info("DRESYNC sent to IDOL.");
+                }
+            }
+            if (config.isAwaitIndexingOnClose()) {
+                awaitIndexing(deadline);
+            }
+            return true;
+        } catch (CommitterException e) {
+            LOG.error("Could not finish IDOL indexing on close.", e);
+            return false;
+        }
+    }
+
+    // Waits for IDOL to report the last index id as finished.
+    private void awaitIndexing(long deadline) throws CommitterException {
+        long indexId = lastIndexId.get();
+        if (indexId < 0) {
+            return;
+        }
+        if (StringUtils.isBlank(config.getAciUrl())) {
+            LOG.warn("Cannot wait for IDOL indexing to finish without "
+                    + "an ACI URL.");
+            return;
+        }
+        int status;
+        do {
+            status = IdolAci.get(config.getAciUrl(), "IndexerGetStatus",
+                    "Index", Long.toString(indexId)).getInteger(
+                            "responsedata/item/status", 0);
+            if (status == INDEX_STATUS_FINISHED) {
+                LOG.info("IDOL finished indexing up to index id {}.",
+                        indexId);
+                if (journal != null) {
+                    try {
+                        journal.indexed(indexId);
+                    } catch (IOException e) {
+                        throw new CommitterException(
+                                "Could not write to IDOL journal.", e);
+                    }
+                }
+                return;
+            }
+            Sleeper.sleepMillis(INDEX_STATUS_POLL_INTERVAL);
+        } while (System.currentTimeMillis() < deadline);
+        LOG.warn("IDOL did not finish indexing index id {} before close "
+                + "timeout (last status: {}).", indexId, status);
+    }
+
+    // IDOL acknowledgement of the requests sent for a batch.  Requests
+    // spooled or written to a session are only acknowledged later.
+    private static class Ack {
+        private long indexId = -1;
+        // some requests spooled, sent once IDOL is back
+        private boolean spooled;
+        // session upserts were written to, sent once ended
+        private IdolSession session;
+        private void add(IdolResponse resp) {
+            if (resp == null) {
+                spooled = true;
+            } else {
+                indexId = Math.max(indexId, resp.getIndexId());
+            }
+        }
+        private boolean isDeferred() {
+            return spooled || session != null;
+        }
+    }
+
+    // Index actions sending to the same database
+    private static class Actions {
+        // null for IDOL default database
+        private final String database;
+        private final IIdolIndexAction upsert;
+        private final IIdolIndexAction delete;
+        // null if not supported
+        private final IIdolIndexAction replace;
+        Actions(String database, IIdolIndexAction upsert,
+                IIdolIndexAction delete, IIdolIndexAction replace) {
+            this.database = database;
+            this.upsert = upsert;
+            this.delete = delete;
+            this.replace = replace;
+        }
+    }
+
+    private void closeStores() {
+        if (changeDetector != null) {
+            changeDetector.close();
+        }
+        if (sentRefs != null) {
+            try {
+                sentRefs.close();
+            } catch (IOException e) {
+                LOG.error("Could not close sent references filter.", e);
+            }
+        }
+        if (journal != null) {
+            try {
+                // the committer queue is consumed before closing
+                journal.close(true);
+            } catch (IOException e) {
+                LOG.error("Could not close IDOL journal.", e);
+            }
         }
     }
 }
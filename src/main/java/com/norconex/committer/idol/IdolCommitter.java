@@ -14,7 +14,11 @@
  */
 package com.norconex.committer.idol;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.EqualsExclude;
@@ -29,6 +33,7 @@ import org.slf4j.LoggerFactory;
 import com.norconex.committer.core3.CommitterException;
 import com.norconex.committer.core3.ICommitterRequest;
 import com.norconex.committer.core3.batch.AbstractBatchCommitter;
+import com.norconex.committer.core3.batch.queue.impl.FSQueue;
 import com.norconex.commons.lang.collection.CollectionUtil;
 import com.norconex.commons.lang.time.DurationParser;
 import com.norconex.commons.lang.xml.XML;
@@ -67,6 +72,263 @@ import com.norconex.commons.lang.xml.XML;
  *     (Optional name of the field holding the value to be stored in the
  *     IDOL "DRECONTENT" field. Default is the document content stream.)
  *   </sourceContentField>
+ *   <sourceDatabaseField>
+ *     (Optional name of the field holding the IDOL database where to
+ *     store a document. Default is "databaseName". Batches are split
+ *     by database and sent in parallel. The field is not sent.)
+ *   </sourceDatabaseField>
+ *   <skipUnchanged>
+ *     [false|true](Whether to skip sending documents that are unchanged
+ *     since they were last sent, based on persisted checksums.)
+ *   </skipUnchanged>
+ *   <replaceChangedFields>
+ *     [false|true](Whether to only send changed fields with "DREREPLACE"
+ *     when a document content is unchanged. Not supported with CFS.)
+ *   </replaceChangedFields>
+ *   <skipUnsentDeletes>
+ *     [false|true](Whether to skip deletions of documents never sent
+ *     to IDOL. Only enable on a database populated with this option.)
+ *   </skipUnsentDeletes>
+ *   <sentReferencesCapacity>
+ *     (Expected maximum number of references tracked when skipping
+ *     unsent deletions. Default is 10000000.)
+ *   </sentReferencesCapacity>
+ *   <maxBatchMemory>
+ *     (Maximum memory used to hold a serialized batch before it is
+ *     sent. Larger batches are written to a temporary file.
+ *     Default is 10MB.)
+ *   </maxBatchMemory>
+ *   <maxSharedBatchMemory>
+ *     (Maximum memory used at once by batches of all IDOL Committers
+ *     in the same JVM having the same value, including content cached
+ *     for change detection or journaling and batches held for replicas.
+ *     Batches wait their turn when exceeded. Default is -1 for
+ *     unlimited.)
+ *   </maxSharedBatchMemory>
+ *   <includeFields>
+ *     (Optional regular expression matching names of fields to send.
+ *     Default sends all fields.)
+ *   </includeFields>
+ *   <excludeFields>
+ *     (Optional regular expression matching names of fields not to send.)
+ *   </excludeFields>
+ *   <fieldRenames>
+ *     <rename from="(source field name)" to="(IDOL field name)"/>
+ *   </fieldRenames>
+ *   <maxFieldValueLength>
+ *     (Maximum number of characters of field values sent. Longer values
+ *     are truncated. Default is -1 for unlimited.)
+ *   </maxFieldValueLength>
+ *   <compressRequests>
+ *     [false|true](Whether to compress request bodies with GZIP.
+ *     The IDOL server or a reverse proxy must support it.)
+ *   </compressRequests>
+ *   <compressionLevel>
+ *     (GZIP compression level from 0 to 9. Default is -1.)
+ *   </compressionLevel>
+ *   <stagingDir>
+ *     (Optional directory readable by IDOL where to write upserts as
+ *     ".idx.gz" files, indexed with "DREADD" instead of being sent
+ *     over HTTP. Files are not deleted. Not supported with CFS.)
+ *   </stagingDir>
+ *   <stagingIdolDir>
+ *     (Staging directory path as seen by IDOL, if different.)
+ *   </stagingIdolDir>
+ *   <maxRetries>
+ *     (Maximum number of times a request is sent again when IDOL reports
+ *     an error that could be temporary, like a busy server. Errors caused
+ *     by documents are not retried. Default is 0.)
+ *   </maxRetries>
+ *   <retryDelay>
+ *     (Delay between retries, in milliseconds. Default is 5 seconds.)
+ *   </retryDelay>
+ *   <preflight>
+ *     [false|true](Whether to check IDOL is reachable and usable on
+ *     startup, failing right away if not. Also opens connections and
+ *     detects the maximum URL length accepted.)
+ *   </preflight>
+ *   <aciUrl>
+ *     (Optional IDOL ACI URL used by preflight checks, when different
+ *     from the index URL. Not needed for CFS.)
+ *   </aciUrl>
+ *   <maxUrlLength>
+ *     (Maximum URL length accepted by IDOL. Deletions exceeding it are
+ *     split in multiple requests. Default is -1 (detected by preflight
+ *     or unlimited).)
+ *   </maxUrlLength>
+ *   <closeTimeout>
+ *     (Maximum time to wait on close for batches being sent and for
+ *     IDOL to finish indexing, when requested. Default is 1 minute.)
+ *   </closeTimeout>
+ *   <syncOnClose>
+ *     [false|true](Whether to send a "DRESYNC" to IDOL on close.
+ *     Not supported with CFS.)
+ *   </syncOnClose>
+ *   <awaitIndexingOnClose>
+ *     [false|true](Whether to wait on close for IDOL to finish indexing
+ *     what it was sent. Requires "aciUrl". Not supported with CFS.)
+ *   </awaitIndexingOnClose>
+ *   <priorityDeletes>
+ *     [false|true](Whether deletions in a batch are sent ahead of
+ *     additions, on their own connection. Deletions of documents also
+ *     added in the same batch keep their order.)
+ *   </priorityDeletes>
+ *   <priorityDeleteBatchSize>
+ *     (Maximum number of priority deletions sent at once. Default is 10.)
+ *   </priorityDeleteBatchSize>
+ *   <maxDocsPerSecond>
+ *     (Maximum number of documents sent per second, on average.
+ *     Default is -1 for unlimited.)
+ *   </maxDocsPerSecond>
+ *   <maxBytesPerSecond>
+ *     (Maximum amount of data sent per second, on average.
+ *     Default is -1 for unlimited.)
+ *   </maxBytesPerSecond>
+ *   <rateLimitBurst>
+ *     (Seconds worth of documents or data that can be sent at full speed
+ *     after being idle, when rate limits are set. Default is 1.)
+ *   </rateLimitBurst>
+ *   <jmx>
+ *     [false|true](Whether to register JMX MBeans, allowing to change
+ *     rate limits at runtime.)
+ *   </jmx>
+ *   <bulkReload>
+ *     [false|true](Whether this is a bulk reload of all documents into
+ *     an empty database. The database is deleted and created again on
+ *     startup, unless resuming a bulk reload that did not complete (the
+ *     committer was not closed successfully or left requests in its
+ *     queue). Documents are sent without checking for duplicates,
+ *     deletions are not sent, and a "DRESYNC" is sent once on close.
+ *     Use a large batch size. Not supported with CFS.)
+ *   </bulkReload>
+ *   <bulkReloadDatabase>
+ *     (Optional database bulk reloads are sent to instead of
+ *     "databaseName", so it remains searchable while being reloaded.
+ *     Existing content of this database is deleted.)
+ *   </bulkReloadDatabase>
+ *   <databaseThreads>
+ *     (Maximum number of databases sent to at once, when using
+ *     "sourceDatabaseField". Default is 4.)
+ *   </databaseThreads>
+ *   <recordDir>
+ *     (Optional directory where to record requests sent to IDOL, with
+ *     their timings and response codes, for replay with
+ *     {@link IdolReplay}.  Requests are written in the background and
+ *     dropped rather than slowing down sending.)
+ *   </recordDir>
+ *   <recordSampleRate>
+ *     (Proportion of requests recorded, from 0 to 1. Default is 1.)
+ *   </recordSampleRate>
+ *   <recordMaxFileSize>
+ *     (Size past which a new recording file is started.
+ *     Default is 100MB.)
+ *   </recordMaxFileSize>
+ *   <recordMaxFiles>
+ *     (Maximum number of recording files kept, oldest ones being
+ *     deleted first. Default is 10.)
+ *   </recordMaxFiles>
+ *   <jfrDocumentSizeThreshold>
+ *     (Serialized size from which a document is reported in a
+ *     "com.norconex.committer.idol.Document" Java Flight Recorder
+ *     event. Default is 5MB.)
+ *   </jfrDocumentSizeThreshold>
+ *   <jfrDocumentTimeThreshold>
+ *     (Serialization time from which a document is reported in a
+ *     "com.norconex.committer.idol.Document" Java Flight Recorder
+ *     event. Default is 500 milliseconds.)
+ *   </jfrDocumentTimeThreshold>
+ *   <tracing>
+ *     [false|true](Whether to trace batches, their serialization and
+ *     HTTP calls with OpenTelemetry, propagating trace context to IDOL.
+ *     Requires the OpenTelemetry API on the classpath.)
+ *   </tracing>
+ *   <journal>
+ *     [false|true](Whether to keep a crash-safe journal of batches
+ *     acknowledged by IDOL, so those left in the committer queue after
+ *     a crash are not sent again.)
+ *   </journal>
+ *   <circuitBreakerThreshold>
+ *     (Number of consecutive requests IDOL failed to respond to, or
+ *     responded to as unavailable, before no longer trying. Batches are
+ *     then spooled, or fail right away if they cannot be.
+ *     Default is 0 (no circuit breaker).)
+ *   </circuitBreakerThreshold>
+ *   <circuitBreakerOpenTime>
+ *     (How long to wait before checking if IDOL is back, once the
+ *     circuit breaker is open. Default is 30 seconds.)
+ *   </circuitBreakerOpenTime>
+ *   <spoolDir>
+ *     (Directory where batches are spooled while the circuit breaker is
+ *     open, to be sent in order in the background once IDOL is back.
+ *     Default is "idol-spool" under the committer working directory.)
+ *   </spoolDir>
+ *   <maxSpoolSize>
+ *     (Maximum size of spooled batches, after which batches fail until
+ *     IDOL is back. Default is 10GB.)
+ *   </maxSpoolSize>
+ *   <maxSectionSize>
+ *     (Maximum size of content per IDOL document section, as UTF-8
+ *     bytes. Longer content is split into "DRESECTION" parts of the
+ *     same reference, each with the same fields. Accepts data sizes
+ *     (e.g. "10MB"). Default is -1 (never split). Not supported
+ *     with CFS.)
+ *   </maxSectionSize>
+ *   <sessionTime>
+ *     (When set, upserts of several batches are streamed to IDOL in a
+ *     single "DREADDDATA" request kept open up to this time, and also
+ *     written to a file under the committer working directory, sent
+ *     again if IDOL could not process the session, or moved to an
+ *     "error" sub-directory if IDOL rejected it. Deletions end the
+ *     current session first. Default is -1 (no streaming sessions).
+ *     Not supported with CFS or staging.)
+ *   </sessionTime>
+ *   <sessionMaxDocs>
+ *     (Number of documents after which a streaming session is ended.
+ *     Default is 10000.)
+ *   </sessionMaxDocs>
+ *   <sessionMaxSize>
+ *     (Size after which a streaming session is ended.
+ *     Default is 100MB.)
+ *   </sessionMaxSize>
+ *   <aggregateTime>
+ *     (When set, upserts of batches committed concurrently are held
+ *     together, like a batch (see "maxBatchMemory"), and sent in a
+ *     single "DREADDDATA" request once held this long, or before any
+ *     other request. Each batch waits for that request to be sent.
+ *     Default is -1 (no aggregation). Ignored when streaming sessions.
+ *     Not supported with CFS or staging.)
+ *   </aggregateTime>
+ *   <aggregateMaxDocs>
+ *     (Number of documents after which aggregated upserts are sent.
+ *     Default is 1000.)
+ *   </aggregateMaxDocs>
+ *   <aggregateMaxSize>
+ *     (Size after which aggregated upserts are sent.
+ *     Default is 10MB.)
+ *   </aggregateMaxSize>
+ *   <replicaUrls>
+ *     <!-- Repeat as needed. -->
+ *     <url>
+ *       (Index URL of a replica IDOL cluster, sent the same requests
+ *       as the IDOL at "url", from the same serialized batches. Each
+ *       replica has its own thread, retries and spool under the
+ *       committer working directory, so a slow or unavailable replica
+ *       does not hold back batches. Not supported with staging.)
+ *     </url>
+ *   </replicaUrls>
+ *   <replicaMaxPending>
+ *     (Maximum number of requests held in memory per replica while
+ *     waiting to be sent, after which they are spooled to disk.
+ *     Default is 10.)
+ *   </replicaMaxPending>
+ *   <sharedEndpoint>
+ *     [false|true](Whether throughput limits and the circuit breaker are
+ *     shared with other IDOL Committers of the same JVM having the same
+ *     "url" and settings for those. Limits then apply to all of them
+ *     together, and IDOL found unavailable by one is for all. Nothing
+ *     else is shared: preflight results, spools and sessions remain
+ *     per committer.)
+ *   </sharedEndpoint>
  *
  *   {@nx.include com.norconex.committer.core3.batch.AbstractBatchCommitter#options}
  * </committer>
@@ -107,15 +369,55 @@ public class IdolCommitter extends AbstractBatchCommitter {
     @Override
     protected void initBatchCommitter() throws CommitterException {
         // IDOL Client
-        this.idolClient = new IdolClient(config);
+        this.idolClient = new IdolClient(
+                config, getCommitterContext().getWorkDir());
+        if (config.isPreflight()) {
+            idolClient.preflight();
+        }
+        idolClient.startBulkReload(hasQueueLeftovers());
         LOG.info("IDOL {}URL: {}",
                 config.isCfs() ? "CFS " : "", config.getUrl());
     }
 
+    // Whether the default committer queue holds requests not committed
+    // by a previous run, which it commits after this committer is
+    // initialized.
+    private boolean hasQueueLeftovers() throws CommitterException {
+        Path workDir = getCommitterContext().getWorkDir();
+        if (workDir == null || !(getCommitterQueue() instanceof FSQueue)) {
+            return false;
+        }
+        Path queueDir = workDir.resolve("queue");
+        if (!Files.isDirectory(queueDir)) {
+            return false;
+        }
+        try (Stream<Path> files = Files.walk(queueDir)) {
+            return files.anyMatch(Files::isRegularFile);
+        } catch (IOException e) {
+            throw new CommitterException(
+                    "Could not check committer queue: " + queueDir, e);
+        }
+    }
+
+    @Override
+    protected void closeBatchCommitter() throws CommitterException {
+        if (idolClient != null) {
+            idolClient.close();
+        }
+    }
+
     @Override
     protected void commitBatch(Iterator<ICommitterRequest> it)
             throws CommitterException {
-        idolClient.post(it);
+        try (IdolTracer.Span span = idolClient.getTracer().span(
+                "IdolCommitter.commitBatch")) {
+            try {
+                idolClient.post(it);
+            } catch (CommitterException | RuntimeException e) {
+                span.error(e);
+                throw e;
+            }
+        }
     }
 
     @Override
@@ -134,6 +436,116 @@ public class IdolCommitter extends AbstractBatchCommitter {
                 "sourceReferenceField", config.getSourceReferenceField()));
         config.setSourceContentField(xml.getString(
                 "sourceContentField", config.getSourceContentField()));
+        config.setSourceDatabaseField(xml.getString(
+                "sourceDatabaseField", config.getSourceDatabaseField()));
+        config.setSkipUnchanged(
+                xml.getBoolean("skipUnchanged", config.isSkipUnchanged()));
+        config.setReplaceChangedFields(xml.getBoolean(
+                "replaceChangedFields", config.isReplaceChangedFields()));
+        config.setSkipUnsentDeletes(xml.getBoolean(
+                "skipUnsentDeletes", config.isSkipUnsentDeletes()));
+        config.setSentReferencesCapacity(xml.getLong(
+                "sentReferencesCapacity",
+                config.getSentReferencesCapacity()));
+        config.setMaxBatchMemory(xml.getDataSize(
+                "maxBatchMemory", config.getMaxBatchMemory()));
+        config.setMaxSharedBatchMemory(xml.getDataSize(
+                "maxSharedBatchMemory", config.getMaxSharedBatchMemory()));
+        config.setIncludeFields(
+                xml.getString("includeFields", config.getIncludeFields()));
+        config.setExcludeFields(
+                xml.getString("excludeFields", config.getExcludeFields()));
+        xml.ifXML("fieldRenames", x -> CollectionUtil.setAll(
+                config.getFieldRenames(),
+                x.getStringMap("rename", "@from", "@to")));
+        config.setMaxFieldValueLength(xml.getInteger(
+                "maxFieldValueLength", config.getMaxFieldValueLength()));
+        config.setCompressRequests(xml.getBoolean(
+                "compressRequests", config.isCompressRequests()));
+        config.setCompressionLevel(xml.getInteger(
+                "compressionLevel", config.getCompressionLevel()));
+        config.setStagingDir(
+                xml.getPath("stagingDir", config.getStagingDir()));
+        config.setStagingIdolDir(
+                xml.getString("stagingIdolDir", config.getStagingIdolDir()));
+        config.setMaxRetries(
+                xml.getInteger("maxRetries", config.getMaxRetries()));
+        config.setRetryDelay(
+                xml.getDurationMillis("retryDelay", config.getRetryDelay()));
+        config.setPreflight(
+                xml.getBoolean("preflight", config.isPreflight()));
+        config.setAciUrl(xml.getString("aciUrl", config.getAciUrl()));
+        config.setMaxUrlLength(
+                xml.getInteger("maxUrlLength", config.getMaxUrlLength()));
+        config.setCloseTimeout(xml.getDurationMillis(
+                "closeTimeout", config.getCloseTimeout()));
+        config.setSyncOnClose(
+                xml.getBoolean("syncOnClose", config.isSyncOnClose()));
+        config.setAwaitIndexingOnClose(xml.getBoolean(
+                "awaitIndexingOnClose", config.isAwaitIndexingOnClose()));
+        config.setPriorityDeletes(xml.getBoolean(
+                "priorityDeletes", config.isPriorityDeletes()));
+        config.setPriorityDeleteBatchSize(xml.getInteger(
+                "priorityDeleteBatchSize",
+                config.getPriorityDeleteBatchSize()));
+        config.setMaxDocsPerSecond(xml.getDouble(
+                "maxDocsPerSecond", config.getMaxDocsPerSecond()));
+        config.setMaxBytesPerSecond(xml.getDataSize(
+                "maxBytesPerSecond", config.getMaxBytesPerSecond()));
+        config.setRateLimitBurst(
+                xml.getDouble("rateLimitBurst", config.getRateLimitBurst()));
+        config.setJmx(xml.getBoolean("jmx", config.isJmx()));
+        config.setBulkReload(
+                xml.getBoolean("bulkReload", config.isBulkReload()));
+        config.setBulkReloadDatabase(xml.getString(
+                "bulkReloadDatabase", config.getBulkReloadDatabase()));
+        config.setDatabaseThreads(xml.getInteger(
+                "databaseThreads", config.getDatabaseThreads()));
+        config.setRecordDir(
+                xml.getPath("recordDir", config.getRecordDir()));
+        config.setRecordSampleRate(xml.getDouble(
+                "recordSampleRate", config.getRecordSampleRate()));
+        config.setRecordMaxFileSize(xml.getDataSize(
+                "recordMaxFileSize", config.getRecordMaxFileSize()));
+        config.setRecordMaxFiles(xml.getInteger(
+                "recordMaxFiles", config.getRecordMaxFiles()));
+        config.setJfrDocumentSizeThreshold(xml.getDataSize(
+                "jfrDocumentSizeThreshold",
+                config.getJfrDocumentSizeThreshold()));
+        config.setJfrDocumentTimeThreshold(xml.getDurationMillis(
+                "jfrDocumentTimeThreshold",
+                config.getJfrDocumentTimeThreshold()));
+        config.setTracing(xml.getBoolean("tracing", config.isTracing()));
+        config.setJournal(xml.getBoolean("journal", config.isJournal()));
+        config.setCircuitBreakerThreshold(xml.getInteger(
+                "circuitBreakerThreshold",
+                config.getCircuitBreakerThreshold()));
+        config.setCircuitBreakerOpenTime(xml.getDurationMillis(
+                "circuitBreakerOpenTime",
+                config.getCircuitBreakerOpenTime()));
+        config.setSpoolDir(xml.getPath("spoolDir", config.getSpoolDir()));
+        config.setMaxSpoolSize(xml.getDataSize(
+                "maxSpoolSize", config.getMaxSpoolSize()));
+        config.setMaxSectionSize(xml.getDataSize(
+                "maxSectionSize", config.getMaxSectionSize()));
+        config.setSessionTime(xml.getDurationMillis(
+                "sessionTime", config.getSessionTime()));
+        config.setSessionMaxDocs(xml.getInteger(
+                "sessionMaxDocs", config.getSessionMaxDocs()));
+        config.setSessionMaxSize(xml.getDataSize(
+                "sessionMaxSize", config.getSessionMaxSize()));
+        config.setAggregateTime(xml.getDurationMillis(
+                "aggregateTime", config.getAggregateTime()));
+        config.setAggregateMaxDocs(xml.getInteger(
+                "aggregateMaxDocs", config.getAggregateMaxDocs()));
+        config.setAggregateMaxSize(xml.getDataSize(
+                "aggregateMaxSize", config.getAggregateMaxSize()));
+        xml.ifXML("replicaUrls", x -> CollectionUtil.setAll(
+                config.getReplicaUrls(), x.getStringList("url")));
+        config.setReplicaMaxPending(xml.getInteger(
+                "replicaMaxPending", config.getReplicaMaxPending()));
+        config.setSharedEndpoint(xml.getBoolean(
+                "sharedEndpoint", config.isSharedEndpoint()));
     }
 
     @Override
@@ -154,6 +566,77 @@ public class IdolCommitter extends AbstractBatchCommitter {
         xml.addElement(
                 "sourceReferenceField", config.getSourceReferenceField());
         xml.addElement("sourceContentField", config.getSourceContentField());
+        xml.addElement(
+                "sourceDatabaseField", config.getSourceDatabaseField());
+        xml.addElement("skipUnchanged", config.isSkipUnchanged());
+        xml.addElement(
+                "replaceChangedFields", config.isReplaceChangedFields());
+        xml.addElement("skipUnsentDeletes", config.isSkipUnsentDeletes());
+        xml.addElement(
+                "sentReferencesCapacity", config.getSentReferencesCapacity());
+        xml.addElement("maxBatchMemory", config.getMaxBatchMemory());
+        xml.addElement(
+                "maxSharedBatchMemory", config.getMaxSharedBatchMemory());
+        xml.addElement("includeFields", config.getIncludeFields());
+        xml.addElement("excludeFields", config.getExcludeFields());
+        if (!config.getFieldRenames().isEmpty()) {
+            XML x = xml.addElement("fieldRenames");
+            config.getFieldRenames().forEach((k, v) -> x.addElement("rename")
+                    .setAttribute("from", k).setAttribute("to", v));
+        }
+        xml.addElement(
+                "maxFieldValueLength", config.getMaxFieldValueLength());
+        xml.addElement("compressRequests", config.isCompressRequests());
+        xml.addElement("compressionLevel", config.getCompressionLevel());
+        xml.addElement("stagingDir", config.getStagingDir());
+        xml.addElement("stagingIdolDir", config.getStagingIdolDir());
+        xml.addElement("maxRetries", config.getMaxRetries());
+        xml.addElement("retryDelay", config.getRetryDelay());
+        xml.addElement("preflight", config.isPreflight());
+        xml.addElement("aciUrl", config.getAciUrl());
+        xml.addElement("maxUrlLength", config.getMaxUrlLength());
+        xml.addElement("closeTimeout", config.getCloseTimeout());
+        xml.addElement("syncOnClose", config.isSyncOnClose());
+        xml.addElement(
+                "awaitIndexingOnClose", config.isAwaitIndexingOnClose());
+        xml.addElement("priorityDeletes", config.isPriorityDeletes());
+        xml.addElement("priorityDeleteBatchSize",
+                config.getPriorityDeleteBatchSize());
+        xml.addElement("maxDocsPerSecond", config.getMaxDocsPerSecond());
+        xml.addElement("maxBytesPerSecond", config.getMaxBytesPerSecond());
+        xml.addElement("rateLimitBurst", config.getRateLimitBurst());
+        xml.addElement("jmx", config.isJmx());
+        xml.addElement("bulkReload", config.isBulkReload());
+        xml.addElement("bulkReloadDatabase", config.getBulkReloadDatabase());
+        xml.addElement("databaseThreads", config.getDatabaseThreads());
+        xml.addElement("recordDir", config.getRecordDir());
+        xml.addElement("recordSampleRate", config.getRecordSampleRate());
+        xml.addElement("recordMaxFileSize", config.getRecordMaxFileSize());
+        xml.addElement("recordMaxFiles", config.getRecordMaxFiles());
+        xml.addElement("jfrDocumentSizeThreshold",
+                config.getJfrDocumentSizeThreshold());
+        xml.addElement("jfrDocumentTimeThreshold",
+                config.getJfrDocumentTimeThreshold());
+        xml.addElement("tracing", config.isTracing());
+        xml.addElement("journal", config.isJournal());
+        xml.addElement("circuitBreakerThreshold",
+                config.getCircuitBreakerThreshold());
+        xml.addElement("circuitBreakerOpenTime",
+                config.getCircuitBreakerOpenTime());
+        xml.addElement("spoolDir", config.getSpoolDir());
+        xml.addElement("maxSpoolSize", config.getMaxSpoolSize());
+        xml.addElement("maxSectionSize", config.getMaxSectionSize());
+        xml.addElement("sessionTime", config.getSessionTime());
+        xml.addElement("sessionMaxDocs", config.getSessionMaxDocs());
+        xml.addElement("sessionMaxSize", config.getSessionMaxSize());
+        xml.addElement("aggregateTime", config.getAggregateTime());
+        xml.addElement("aggregateMaxDocs", config.getAggregateMaxDocs());
+        xml.addElement("aggregateMaxSize", config.getAggregateMaxSize());
+        if (!config.getReplicaUrls().isEmpty()) {
+            xml.addElementList("replicaUrls", "url", config.getReplicaUrls());
+        }
+        xml.addElement("replicaMaxPending", config.getReplicaMaxPending());
+        xml.addElement("sharedEndpoint", config.isSharedEndpoint());
     }
 
     @Override
@@ -15,14 +15,20 @@
 package com.norconex.committer.idol;
 
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import com.norconex.commons.lang.unit.DataUnit;
+
 /**
  * IDOL Committer configuration.
  * @author Pascal Essiembre
@@ -32,6 +38,30 @@ public class IdolCommitterConfig implements Serializable {
     private static final long serialVersionUID = 1L;
 
     public static final String DEFAULT_URL = "http://localhost:9001";
+    public static final long DEFAULT_SENT_REFERENCES_CAPACITY = 10_000_000;
+    public static final long DEFAULT_RETRY_DELAY = 5000;
+    public static final long DEFAULT_CLOSE_TIMEOUT = 60_000;
+    public static final int DEFAULT_PRIORITY_DELETE_BATCH_SIZE = 10;
+    public static final double DEFAULT_RATE_LIMIT_BURST = 1;
+    public static final int DEFAULT_DATABASE_THREADS = 4;
+    public static final long DEFAULT_RECORD_MAX_FILE_SIZE =
+            DataUnit.MB.toBytes(100).longValue();
+    public static final int DEFAULT_RECORD_MAX_FILES = 10;
+    public static final long DEFAULT_JFR_DOCUMENT_SIZE_THRESHOLD =
+            DataUnit.MB.toBytes(5).longValue();
+    public static final long DEFAULT_JFR_DOCUMENT_TIME_THRESHOLD = 500;
+    public static final long DEFAULT_MAX_BATCH_MEMORY =
+            DataUnit.MB.toBytes(10).longValue();
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 30_000;
+    public static final long DEFAULT_MAX_SPOOL_SIZE =
+            DataUnit.GB.toBytes(10).longValue();
+    public static final int DEFAULT_SESSION_MAX_DOCS = 10_000;
+    public static final long DEFAULT_SESSION_MAX_SIZE =
+            DataUnit.MB.toBytes(100).longValue();
+    public static final int DEFAULT_REPLICA_MAX_PENDING = 10;
+    public static final int DEFAULT_AGGREGATE_MAX_DOCS = 1000;
+    public static final long DEFAULT_AGGREGATE_MAX_SIZE =
+            DataUnit.MB.toBytes(10).longValue();
 
     private final Map<String, String> dreAddDataParams = new HashMap<>();
     private final Map<String, String> dreDeleteRefParams = new HashMap<>();
@@ -40,6 +70,62 @@ public class IdolCommitterConfig implements Serializable {
     private boolean cfs;
     private String sourceReferenceField;
     private String sourceContentField;
+    private String sourceDatabaseField;
+    private int databaseThreads = DEFAULT_DATABASE_THREADS;
+    private Path recordDir;
+    private double recordSampleRate = 1;
+    private long recordMaxFileSize = DEFAULT_RECORD_MAX_FILE_SIZE;
+    private int recordMaxFiles = DEFAULT_RECORD_MAX_FILES;
+    private long jfrDocumentSizeThreshold =
+            DEFAULT_JFR_DOCUMENT_SIZE_THRESHOLD;
+    private long jfrDocumentTimeThreshold =
+            DEFAULT_JFR_DOCUMENT_TIME_THRESHOLD;
+    private boolean tracing;
+    private boolean journal;
+    private int circuitBreakerThreshold;
+    private long circuitBreakerOpenTime = DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+    private Path spoolDir;
+    private long maxSpoolSize = DEFAULT_MAX_SPOOL_SIZE;
+    private long maxSectionSize = -1;
+    private long sessionTime = -1;
+    private int sessionMaxDocs = DEFAULT_SESSION_MAX_DOCS;
+    private long sessionMaxSize = DEFAULT_SESSION_MAX_SIZE;
+    private long aggregateTime = -1;
+    private int aggregateMaxDocs = DEFAULT_AGGREGATE_MAX_DOCS;
+    private long aggregateMaxSize = DEFAULT_AGGREGATE_MAX_SIZE;
+    private final List<String> replicaUrls = new ArrayList<>();
+    private int replicaMaxPending = DEFAULT_REPLICA_MAX_PENDING;
+    private boolean sharedEndpoint;
+    private boolean skipUnchanged;
+    private boolean replaceChangedFields;
+    private boolean skipUnsentDeletes;
+    private long sentReferencesCapacity = DEFAULT_SENT_REFERENCES_CAPACITY;
+    private long maxBatchMemory = DEFAULT_MAX_BATCH_MEMORY;
+    private long maxSharedBatchMemory = -1;
+    private String includeFields;
+    private String excludeFields;
+    private final Map<String, String> fieldRenames = new HashMap<>();
+    private int maxFieldValueLength = -1;
+    private boolean compressRequests;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private Path stagingDir;
+    private String stagingIdolDir;
+    private int maxRetries;
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+    private boolean preflight;
+    private String aciUrl;
+    private int maxUrlLength = -1;
+    private long closeTimeout = DEFAULT_CLOSE_TIMEOUT;
+    private boolean syncOnClose;
+    private boolean awaitIndexingOnClose;
+    private boolean priorityDeletes;
+    private int priorityDeleteBatchSize = DEFAULT_PRIORITY_DELETE_BATCH_SIZE;
+    private double maxDocsPerSecond = -1;
+    private long maxBytesPerSecond = -1;
+    private double rateLimitBurst = DEFAULT_RATE_LIMIT_BURST;
+    private boolean jmx;
+    private boolean bulkReload;
+    private String bulkReloadDatabase;
 
     public IdolCommitterConfig() {
         super();
@@ -146,6 +232,1058 @@ public class IdolCommitterConfig implements Serializable {
         this.sourceContentField = sourceContentField;
     }
 
+    /**
+     * Gets the document field name containing the name of the IDOL
+     * database where to store a document. Documents without a value
+     * are stored in the configured database name. The field itself is
+     * not sent to IDOL.
+     * @return name of field containing database name
+     */
+    public String getSourceDatabaseField() {
+        return sourceDatabaseField;
+    }
+    /**
+     * Sets the document field name containing the name of the IDOL
+     * database where to store a document. Documents without a value
+     * are stored in the configured database name. The field itself is
+     * not sent to IDOL.
+     * @param sourceDatabaseField name of field containing database name,
+     *        or <code>null</code>
+     */
+    public void setSourceDatabaseField(String sourceDatabaseField) {
+        this.sourceDatabaseField = sourceDatabaseField;
+    }
+
+    /**
+     * Gets whether to skip sending documents that have not changed since
+     * they were last sent to IDOL. Change detection relies on
+     * a checksum store persisted in the committer working directory.
+     * @return <code>true</code> if skipping unchanged documents
+     */
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+    /**
+     * Sets whether to skip sending documents that have not changed since
+     * they were last sent to IDOL. Change detection relies on
+     * a checksum store persisted in the committer working directory.
+     * @param skipUnchanged <code>true</code> to skip unchanged documents
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Gets whether to only send changed fields (using IDOL
+     * <code>DREREPLACE</code>) for documents whose content is unchanged
+     * since they were last sent.  Documents with changed content, removed
+     * fields, or fields with a different number of values are sent
+     * in full. Unchanged documents are skipped.
+     * Not supported when committing to CFS.
+     * @return <code>true</code> if only sending changed fields
+     */
+    public boolean isReplaceChangedFields() {
+        return replaceChangedFields;
+    }
+    /**
+     * Sets whether to only send changed fields (using IDOL
+     * <code>DREREPLACE</code>) for documents whose content is unchanged
+     * since they were last sent.  Documents with changed content, removed
+     * fields, or fields with a different number of values are sent
+     * in full. Unchanged documents are skipped.
+     * Not supported when committing to CFS.
+     * @param replaceChangedFields <code>true</code> to only send
+     *        changed fields
+     */
+    public void setReplaceChangedFields(boolean replaceChangedFields) {
+        this.replaceChangedFields = replaceChangedFields;
+    }
+
+    /**
+     * Gets whether to skip deletions of documents that were never sent
+     * to IDOL. References of documents sent are tracked in a persistent
+     * filter stored in the committer working directory. Only enable
+     * this on a database populated with this option enabled, else
+     * deletions of documents sent before will be ignored.
+     * @return <code>true</code> if skipping deletions of unsent documents
+     */
+    public boolean isSkipUnsentDeletes() {
+        return skipUnsentDeletes;
+    }
+    /**
+     * Sets whether to skip deletions of documents that were never sent
+     * to IDOL. References of documents sent are tracked in a persistent
+     * filter stored in the committer working directory. Only enable
+     * this on a database populated with this option enabled, else
+     * deletions of documents sent before will be ignored.
+     * @param skipUnsentDeletes <code>true</code> to skip deletions of
+     *        unsent documents
+     */
+    public void setSkipUnsentDeletes(boolean skipUnsentDeletes) {
+        this.skipUnsentDeletes = skipUnsentDeletes;
+    }
+
+    /**
+     * Gets the expected maximum number of distinct references tracked
+     * when skipping unsent deletions. Exceeding it increases the number
+     * of unnecessary deletions sent. Only applies when the filter
+     * is first created. Default is 10 million.
+     * @return sent references capacity
+     */
+    public long getSentReferencesCapacity() {
+        return sentReferencesCapacity;
+    }
+    /**
+     * Sets the expected maximum number of distinct references tracked
+     * when skipping unsent deletions. Exceeding it increases the number
+     * of unnecessary deletions sent. Only applies when the filter
+     * is first created. Default is 10 million.
+     * @param sentReferencesCapacity sent references capacity
+     */
+    public void setSentReferencesCapacity(long sentReferencesCapacity) {
+        this.sentReferencesCapacity = sentReferencesCapacity;
+    }
+
+    /**
+     * Gets the maximum amount of memory used to hold a serialized batch
+     * before it is sent. Past that amount, the batch is written to a
+     * temporary file in the committer working directory.
+     * Default is 10 MB.
+     * @return maximum batch memory, in bytes
+     */
+    public long getMaxBatchMemory() {
+        return maxBatchMemory;
+    }
+    /**
+     * Sets the maximum amount of memory used to hold a serialized batch
+     * before it is sent. Past that amount, the batch is written to a
+     * temporary file in the committer working directory.
+     * Default is 10 MB.
+     * @param maxBatchMemory maximum batch memory, in bytes
+     */
+    public void setMaxBatchMemory(long maxBatchMemory) {
+        this.maxBatchMemory = maxBatchMemory;
+    }
+
+    /**
+     * Gets the maximum amount of memory that can be used at once by
+     * batches being serialized or sent, shared by all IDOL Committers
+     * running in the same JVM with the same value. Batches wait their
+     * turn when exceeded. Covers content cached for change detection or
+     * journaling, serialized batches, and batches held for replicas
+     * (spooled instead when exceeded).
+     * Default is -1 (unlimited).
+     * @return maximum shared batch memory, in bytes
+     */
+    public long getMaxSharedBatchMemory() {
+        return maxSharedBatchMemory;
+    }
+    /**
+     * Sets the maximum amount of memory that can be used at once by
+     * batches being serialized or sent, shared by all IDOL Committers
+     * running in the same JVM with the same value. Batches wait their
+     * turn when exceeded. Covers content cached for change detection or
+     * journaling, serialized batches, and batches held for replicas
+     * (spooled instead when exceeded).
+     * Default is -1 (unlimited).
+     * @param maxSharedBatchMemory maximum shared batch memory, in bytes
+     */
+    public void setMaxSharedBatchMemory(long maxSharedBatchMemory) {
+        this.maxSharedBatchMemory = maxSharedBatchMemory;
+    }
+
+    /**
+     * Gets a regular expression matching names of metadata fields
+     * to send to IDOL. Default is <code>null</code> (all fields).
+     * @return regular expression
+     */
+    public String getIncludeFields() {
+        return includeFields;
+    }
+    /**
+     * Sets a regular expression matching names of metadata fields
+     * to send to IDOL. Default is <code>null</code> (all fields).
+     * @param includeFields regular expression
+     */
+    public void setIncludeFields(String includeFields) {
+        this.includeFields = includeFields;
+    }
+
+    /**
+     * Gets a regular expression matching names of metadata fields
+     * not to send to IDOL. Applied after included fields.
+     * Default is <code>null</code> (no fields excluded).
+     * @return regular expression
+     */
+    public String getExcludeFields() {
+        return excludeFields;
+    }
+    /**
+     * Sets a regular expression matching names of metadata fields
+     * not to send to IDOL. Applied after included fields.
+     * Default is <code>null</code> (no fields excluded).
+     * @param excludeFields regular expression
+     */
+    public void setExcludeFields(String excludeFields) {
+        this.excludeFields = excludeFields;
+    }
+
+    /**
+     * Gets metadata fields to rename before sending them to IDOL.
+     * Keys are source field names and values are IDOL field names.
+     * @return field renames (never <code>null</code>)
+     */
+    public Map<String, String> getFieldRenames() {
+        return fieldRenames;
+    }
+
+    /**
+     * Gets the maximum number of characters of metadata field values
+     * sent to IDOL. Longer values are truncated.
+     * Default is -1 (no maximum).
+     * @return maximum field value length
+     */
+    public int getMaxFieldValueLength() {
+        return maxFieldValueLength;
+    }
+    /**
+     * Sets the maximum number of characters of metadata field values
+     * sent to IDOL. Longer values are truncated.
+     * Default is -1 (no maximum).
+     * @param maxFieldValueLength maximum field value length
+     */
+    public void setMaxFieldValueLength(int maxFieldValueLength) {
+        this.maxFieldValueLength = maxFieldValueLength;
+    }
+
+    /**
+     * Gets whether request bodies are compressed with GZIP
+     * (sent with a <code>Content-Encoding: gzip</code> header).
+     * The IDOL server or a reverse proxy in front of it must support it.
+     * @return <code>true</code> if compressing requests
+     */
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+    /**
+     * Sets whether request bodies are compressed with GZIP
+     * (sent with a <code>Content-Encoding: gzip</code> header).
+     * The IDOL server or a reverse proxy in front of it must support it.
+     * @param compressRequests <code>true</code> to compress requests
+     */
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    /**
+     * Gets the GZIP compression level, from 0 (none) to 9 (best).
+     * Default is -1 (default compression).
+     * @return compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+    /**
+     * Sets the GZIP compression level, from 0 (none) to 9 (best).
+     * Default is -1 (default compression).
+     * @param compressionLevel compression level
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Gets the directory where upserts are written as compressed IDX
+     * files (<code>.idx.gz</code>) for IDOL to index with "DREADD",
+     * instead of being sent over HTTP. The directory must be readable by
+     * IDOL. Files are not deleted by the Committer since IDOL
+     * indexes them asynchronously. Not supported with CFS.
+     * Default is <code>null</code> (not staged).
+     * @return staging directory
+     */
+    public Path getStagingDir() {
+        return stagingDir;
+    }
+    /**
+     * Sets the directory where upserts are written as compressed IDX
+     * files (<code>.idx.gz</code>) for IDOL to index with "DREADD",
+     * instead of being sent over HTTP. The directory must be readable by
+     * IDOL. Files are not deleted by the Committer since IDOL
+     * indexes them asynchronously. Not supported with CFS.
+     * Default is <code>null</code> (not staged).
+     * @param stagingDir staging directory
+     */
+    public void setStagingDir(Path stagingDir) {
+        this.stagingDir = stagingDir;
+    }
+
+    /**
+     * Gets the staging directory path as seen by the IDOL server,
+     * when different from the staging directory (e.g., a network share).
+     * Default is <code>null</code> (same as staging directory).
+     * @return staging directory path on the IDOL server
+     */
+    public String getStagingIdolDir() {
+        return stagingIdolDir;
+    }
+    /**
+     * Sets the staging directory path as seen by the IDOL server,
+     * when different from the staging directory (e.g., a network share).
+     * Default is <code>null</code> (same as staging directory).
+     * @param stagingIdolDir staging directory path on the IDOL server
+     */
+    public void setStagingIdolDir(String stagingIdolDir) {
+        this.stagingIdolDir = stagingIdolDir;
+    }
+
+    /**
+     * Gets the maximum number of times a request is sent again when IDOL
+     * reports an error that could be temporary (e.g., server busy or
+     * unavailable). Errors caused by documents are not retried.
+     * Default is 0.
+     * @return maximum number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+    /**
+     * Sets the maximum number of times a request is sent again when IDOL
+     * reports an error that could be temporary (e.g., server busy or
+     * unavailable). Errors caused by documents are not retried.
+     * Default is 0.
+     * @param maxRetries maximum number of retries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Gets the delay between retries, in milliseconds.
+     * Default is 5 seconds.
+     * @return retry delay
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+    /**
+     * Sets the delay between retries, in milliseconds.
+     * Default is 5 seconds.
+     * @param retryDelay retry delay
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Gets whether to check IDOL is reachable and usable on startup,
+     * failing right away if not. Also opens connections to IDOL
+     * and detects the maximum URL length it accepts.
+     * @return <code>true</code> if performing preflight checks
+     */
+    public boolean isPreflight() {
+        return preflight;
+    }
+    /**
+     * Sets whether to check IDOL is reachable and usable on startup,
+     * failing right away if not. Also opens connections to IDOL
+     * and detects the maximum URL length it accepts.
+     * @param preflight <code>true</code> to perform preflight checks
+     */
+    public void setPreflight(boolean preflight) {
+        this.preflight = preflight;
+    }
+
+    /**
+     * Gets the IDOL ACI URL used by preflight checks (e.g.,
+     * <code>http://localhost:9000</code>). Not needed with CFS, which
+     * uses the same URL for both.
+     * @return ACI URL
+     */
+    public String getAciUrl() {
+        return aciUrl;
+    }
+    /**
+     * Sets the IDOL ACI URL used by preflight checks (e.g.,
+     * <code>http://localhost:9000</code>). Not needed with CFS, which
+     * uses the same URL for both.
+     * @param aciUrl ACI URL
+     */
+    public void setAciUrl(String aciUrl) {
+        this.aciUrl = aciUrl;
+    }
+
+    /**
+     * Gets the maximum URL length accepted by IDOL. Deletions, which are
+     * sent as URL parameters, are split in multiple requests to fit.
+     * Default is -1 (detected by preflight checks if enabled, otherwise
+     * unlimited).
+     * @return maximum URL length
+     */
+    public int getMaxUrlLength() {
+        return maxUrlLength;
+    }
+    /**
+     * Sets the maximum URL length accepted by IDOL. Deletions, which are
+     * sent as URL parameters, are split in multiple requests to fit.
+     * Default is -1 (detected by preflight checks if enabled, otherwise
+     * unlimited).
+     * @param maxUrlLength maximum URL length
+     */
+    public void setMaxUrlLength(int maxUrlLength) {
+        this.maxUrlLength = maxUrlLength;
+    }
+
+    /**
+     * Gets the maximum time to wait on close for batches being sent,
+     * and for IDOL to finish indexing when requested.
+     * Default is 1 minute.
+     * @return close timeout, in milliseconds
+     */
+    public long getCloseTimeout() {
+        return closeTimeout;
+    }
+    /**
+     * Sets the maximum time to wait on close for batches being sent,
+     * and for IDOL to finish indexing when requested.
+     * Default is 1 minute.
+     * @param closeTimeout close timeout, in milliseconds
+     */
+    public void setCloseTimeout(long closeTimeout) {
+        this.closeTimeout = closeTimeout;
+    }
+
+    /**
+     * Gets whether to send a "DRESYNC" to IDOL on close, making
+     * documents sent available for search right away.
+     * Not supported with CFS.
+     * @return <code>true</code> if sending DRESYNC on close
+     */
+    public boolean isSyncOnClose() {
+        return syncOnClose;
+    }
+    /**
+     * Sets whether to send a "DRESYNC" to IDOL on close, making
+     * documents sent available for search right away.
+     * Not supported with CFS.
+     * @param syncOnClose <code>true</code> to send DRESYNC on close
+     */
+    public void setSyncOnClose(boolean syncOnClose) {
+        this.syncOnClose = syncOnClose;
+    }
+
+    /**
+     * Gets whether to wait on close for IDOL to finish indexing
+     * everything sent (based on the last index id received), up to
+     * the close timeout. Requires an ACI URL. Not supported with CFS.
+     * @return <code>true</code> if waiting for indexing on close
+     */
+    public boolean isAwaitIndexingOnClose() {
+        return awaitIndexingOnClose;
+    }
+    /**
+     * Sets whether to wait on close for IDOL to finish indexing
+     * everything sent (based on the last index id received), up to
+     * the close timeout. Requires an ACI URL. Not supported with CFS.
+     * @param awaitIndexingOnClose <code>true</code> to wait for indexing
+     *     on close
+     */
+    public void setAwaitIndexingOnClose(boolean awaitIndexingOnClose) {
+        this.awaitIndexingOnClose = awaitIndexingOnClose;
+    }
+
+    /**
+     * Gets whether deletions are sent ahead of additions in a batch,
+     * on their own connection, while additions are being sent.
+     * Deletions of documents also added in the same batch keep their
+     * original order.
+     * @return <code>true</code> if deletions have priority
+     */
+    public boolean isPriorityDeletes() {
+        return priorityDeletes;
+    }
+    /**
+     * Sets whether deletions are sent ahead of additions in a batch,
+     * on their own connection, while additions are being sent.
+     * Deletions of documents also added in the same batch keep their
+     * original order.
+     * @param priorityDeletes <code>true</code> to give deletions priority
+     */
+    public void setPriorityDeletes(boolean priorityDeletes) {
+        this.priorityDeletes = priorityDeletes;
+    }
+
+    /**
+     * Gets the maximum number of deletions sent at once when
+     * deletions have priority. Default is 10.
+     * @return priority delete batch size
+     */
+    public int getPriorityDeleteBatchSize() {
+        return priorityDeleteBatchSize;
+    }
+    /**
+     * Sets the maximum number of deletions sent at once when
+     * deletions have priority. Default is 10.
+     * @param priorityDeleteBatchSize priority delete batch size
+     */
+    public void setPriorityDeleteBatchSize(int priorityDeleteBatchSize) {
+        this.priorityDeleteBatchSize = priorityDeleteBatchSize;
+    }
+
+    /**
+     * Gets the maximum number of documents sent to IDOL per second,
+     * on average. Default is -1 (unlimited).
+     * @return maximum documents per second
+     */
+    public double getMaxDocsPerSecond() {
+        return maxDocsPerSecond;
+    }
+    /**
+     * Sets the maximum number of documents sent to IDOL per second,
+     * on average. Default is -1 (unlimited).
+     * @param maxDocsPerSecond maximum documents per second
+     */
+    public void setMaxDocsPerSecond(double maxDocsPerSecond) {
+        this.maxDocsPerSecond = maxDocsPerSecond;
+    }
+
+    /**
+     * Gets the maximum number of bytes sent to IDOL per second,
+     * on average. Default is -1 (unlimited).
+     * @return maximum bytes per second
+     */
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+    /**
+     * Sets the maximum number of bytes sent to IDOL per second,
+     * on average. Default is -1 (unlimited).
+     * @param maxBytesPerSecond maximum bytes per second
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Gets how many seconds worth of documents or bytes can be sent at
+     * full speed after being idle, when rate limits are set.
+     * Default is 1.
+     * @return burst, in seconds
+     */
+    public double getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+    /**
+     * Sets how many seconds worth of documents or bytes can be sent at
+     * full speed after being idle, when rate limits are set.
+     * Default is 1.
+     * @param rateLimitBurst burst, in seconds
+     */
+    public void setRateLimitBurst(double rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    /**
+     * Gets whether to register JMX MBeans, allowing to change rate
+     * limits at runtime.
+     * @return <code>true</code> if registering JMX MBeans
+     */
+    public boolean isJmx() {
+        return jmx;
+    }
+    /**
+     * Sets whether to register JMX MBeans, allowing to change rate
+     * limits at runtime.
+     * @param jmx <code>true</code> to register JMX MBeans
+     */
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    /**
+     * Gets whether this is a bulk reload of all documents into an empty
+     * database. When <code>true</code>, the database is deleted and
+     * created again on startup, unless resuming a bulk reload that did
+     * not complete. Documents are sent without checking
+     * for duplicates, deletions are not sent, and a "DRESYNC" is sent
+     * once on close. Not supported with CFS.
+     * @return <code>true</code> if bulk reloading
+     */
+    public boolean isBulkReload() {
+        return bulkReload;
+    }
+    /**
+     * Sets whether this is a bulk reload of all documents into an empty
+     * database. When <code>true</code>, the database is deleted and
+     * created again on startup, unless resuming a bulk reload that did
+     * not complete. Documents are sent without checking
+     * for duplicates, deletions are not sent, and a "DRESYNC" is sent
+     * once on close. Not supported with CFS.
+     * @param bulkReload <code>true</code> if bulk reloading
+     */
+    public void setBulkReload(boolean bulkReload) {
+        this.bulkReload = bulkReload;
+    }
+
+    /**
+     * Gets the name of the database bulk reloads are sent to, when
+     * different from the database name. Existing content of that
+     * database is deleted.
+     * @return bulk reload database name
+     */
+    public String getBulkReloadDatabase() {
+        return bulkReloadDatabase;
+    }
+    /**
+     * Sets the name of the database bulk reloads are sent to, when
+     * different from the database name. Existing content of that
+     * database is deleted.
+     * @param bulkReloadDatabase bulk reload database name
+     */
+    public void setBulkReloadDatabase(String bulkReloadDatabase) {
+        this.bulkReloadDatabase = bulkReloadDatabase;
+    }
+
+    /**
+     * Gets the maximum number of databases sent to at once, when
+     * databases are taken from a document field. Default is 4.
+     * @return number of threads sending to databases
+     */
+    public int getDatabaseThreads() {
+        return databaseThreads;
+    }
+    /**
+     * Sets the maximum number of databases sent to at once, when
+     * databases are taken from a document field. Default is 4.
+     * @param databaseThreads number of threads sending to databases
+     */
+    public void setDatabaseThreads(int databaseThreads) {
+        this.databaseThreads = databaseThreads;
+    }
+
+    /**
+     * Gets the directory where requests sent to IDOL are recorded,
+     * for replay with {@link IdolReplay}. Default is <code>null</code>
+     * (not recording).
+     * @return recording directory
+     */
+    public Path getRecordDir() {
+        return recordDir;
+    }
+    /**
+     * Sets the directory where requests sent to IDOL are recorded,
+     * for replay with {@link IdolReplay}. Default is <code>null</code>
+     * (not recording).
+     * @param recordDir recording directory
+     */
+    public void setRecordDir(Path recordDir) {
+        this.recordDir = recordDir;
+    }
+
+    /**
+     * Gets the proportion of requests recorded, from 0 to 1.
+     * Default is 1 (all requests).
+     * @return record sample rate
+     */
+    public double getRecordSampleRate() {
+        return recordSampleRate;
+    }
+    /**
+     * Sets the proportion of requests recorded, from 0 to 1.
+     * Default is 1 (all requests).
+     * @param recordSampleRate record sample rate
+     */
+    public void setRecordSampleRate(double recordSampleRate) {
+        this.recordSampleRate = recordSampleRate;
+    }
+
+    /**
+     * Gets the size past which a new recording file is started.
+     * Default is 100MB.
+     * @return maximum recording file size
+     */
+    public long getRecordMaxFileSize() {
+        return recordMaxFileSize;
+    }
+    /**
+     * Sets the size past which a new recording file is started.
+     * Default is 100MB.
+     * @param recordMaxFileSize maximum recording file size
+     */
+    public void setRecordMaxFileSize(long recordMaxFileSize) {
+        this.recordMaxFileSize = recordMaxFileSize;
+    }
+
+    /**
+     * Gets the maximum number of recording files kept. Oldest ones
+     * are deleted first. Default is 10.
+     * @return maximum number of recording files
+     */
+    public int getRecordMaxFiles() {
+        return recordMaxFiles;
+    }
+    /**
+     * Sets the maximum number of recording files kept. Oldest ones
+     * are deleted first. Default is 10.
+     * @param recordMaxFiles maximum number of recording files
+     */
+    public void setRecordMaxFiles(int recordMaxFiles) {
+        this.recordMaxFiles = recordMaxFiles;
+    }
+
+    /**
+     * Gets the serialized size (in characters) from which a document
+     * is reported in a Java Flight Recorder event. Default is 5MB.
+     * @return document size threshold
+     */
+    public long getJfrDocumentSizeThreshold() {
+        return jfrDocumentSizeThreshold;
+    }
+    /**
+     * Sets the serialized size (in characters) from which a document
+     * is reported in a Java Flight Recorder event. Default is 5MB.
+     * @param jfrDocumentSizeThreshold document size threshold
+     */
+    public void setJfrDocumentSizeThreshold(long jfrDocumentSizeThreshold) {
+        this.jfrDocumentSizeThreshold = jfrDocumentSizeThreshold;
+    }
+
+    /**
+     * Gets the serialization time (in milliseconds) from which a document
+     * is reported in a Java Flight Recorder event. Default is 500.
+     * @return document time threshold
+     */
+    public long getJfrDocumentTimeThreshold() {
+        return jfrDocumentTimeThreshold;
+    }
+    /**
+     * Sets the serialization time (in milliseconds) from which a document
+     * is reported in a Java Flight Recorder event. Default is 500.
+     * @param jfrDocumentTimeThreshold document time threshold
+     */
+    public void setJfrDocumentTimeThreshold(long jfrDocumentTimeThreshold) {
+        this.jfrDocumentTimeThreshold = jfrDocumentTimeThreshold;
+    }
+
+    /**
+     * Gets whether to trace batches with OpenTelemetry. Requires the
+     * OpenTelemetry API on the classpath and a registered global
+     * OpenTelemetry instance (e.g., from the OpenTelemetry Java agent).
+     * @return <code>true</code> if tracing
+     */
+    public boolean isTracing() {
+        return tracing;
+    }
+    /**
+     * Sets whether to trace batches with OpenTelemetry. Requires the
+     * OpenTelemetry API on the classpath and a registered global
+     * OpenTelemetry instance (e.g., from the OpenTelemetry Java agent).
+     * @param tracing <code>true</code> to trace
+     */
+    public void setTracing(boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    /**
+     * Gets whether to keep a journal of batches acknowledged by IDOL,
+     * in the committer working directory. After a crash, batches left
+     * in the committer queue that IDOL already acknowledged are not
+     * sent again.
+     * @return <code>true</code> if keeping a journal
+     */
+    public boolean isJournal() {
+        return journal;
+    }
+    /**
+     * Sets whether to keep a journal of batches acknowledged by IDOL,
+     * in the committer working directory. After a crash, batches left
+     * in the committer queue that IDOL already acknowledged are not
+     * sent again.
+     * @param journal <code>true</code> to keep a journal
+     */
+    public void setJournal(boolean journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Gets the number of consecutive requests IDOL failed to respond
+     * to (or responded to as unavailable) before the circuit breaker
+     * opens. While open, requests are not attempted: batches are
+     * spooled to disk, or fail right away if spooling is not possible.
+     * Default is 0 (no circuit breaker).
+     * @return circuit breaker threshold
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+    /**
+     * Sets the number of consecutive requests IDOL failed to respond
+     * to (or responded to as unavailable) before the circuit breaker
+     * opens. While open, requests are not attempted: batches are
+     * spooled to disk, or fail right away if spooling is not possible.
+     * Default is 0 (no circuit breaker).
+     * @param circuitBreakerThreshold circuit breaker threshold
+     */
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * Gets how long the circuit breaker stays open before IDOL
+     * is checked again (in milliseconds). Default is 30 seconds.
+     * @return circuit breaker open time
+     */
+    public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+    /**
+     * Sets how long the circuit breaker stays open before IDOL
+     * is checked again (in milliseconds). Default is 30 seconds.
+     * @param circuitBreakerOpenTime circuit breaker open time
+     */
+    public void setCircuitBreakerOpenTime(long circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    /**
+     * Gets the directory where batches are spooled while the circuit
+     * breaker is open, to be sent in order once IDOL is back.
+     * Default is <code>null</code> (the "idol-spool" directory under
+     * the committer working directory).
+     * @return spool directory
+     */
+    public Path getSpoolDir() {
+        return spoolDir;
+    }
+    /**
+     * Sets the directory where batches are spooled while the circuit
+     * breaker is open, to be sent in order once IDOL is back.
+     * Default is <code>null</code> (the "idol-spool" directory under
+     * the committer working directory).
+     * @param spoolDir spool directory
+     */
+    public void setSpoolDir(Path spoolDir) {
+        this.spoolDir = spoolDir;
+    }
+
+    /**
+     * Gets the maximum size of batches spooled. Once reached, batches
+     * fail until IDOL is back. Default is 10GB.
+     * @return maximum spool size
+     */
+    public long getMaxSpoolSize() {
+        return maxSpoolSize;
+    }
+    /**
+     * Sets the maximum size of batches spooled. Once reached, batches
+     * fail until IDOL is back. Default is 10GB.
+     * @param maxSpoolSize maximum spool size
+     */
+    public void setMaxSpoolSize(long maxSpoolSize) {
+        this.maxSpoolSize = maxSpoolSize;
+    }
+
+    /**
+     * Gets the maximum size of content sent per IDOL document section,
+     * in UTF-8 bytes. Longer content is split into consecutive
+     * "DRESECTION" parts of the same reference, each with the same
+     * fields. Default is -1 (never split). Not supported with CFS.
+     * @return maximum section size
+     */
+    public long getMaxSectionSize() {
+        return maxSectionSize;
+    }
+    /**
+     * Sets the maximum size of content sent per IDOL document section,
+     * in UTF-8 bytes. Longer content is split into consecutive
+     * "DRESECTION" parts of the same reference, each with the same
+     * fields. Default is -1 (never split). Not supported with CFS.
+     * @param maxSectionSize maximum section size
+     */
+    public void setMaxSectionSize(long maxSectionSize) {
+        this.maxSectionSize = maxSectionSize;
+    }
+
+    /**
+     * Gets the maximum time a streaming session stays open (in
+     * milliseconds). When greater than zero, upserts of several batches
+     * are streamed to IDOL in a single "DREADDDATA" request, ended once
+     * this time, the maximum number of documents or the maximum size
+     * is reached. Default is -1 (no streaming sessions).
+     * Not supported with CFS or staging.
+     * @return session time
+     */
+    public long getSessionTime() {
+        return sessionTime;
+    }
+    /**
+     * Sets the maximum time a streaming session stays open (in
+     * milliseconds). When greater than zero, upserts of several batches
+     * are streamed to IDOL in a single "DREADDDATA" request, ended once
+     * this time, the maximum number of documents or the maximum size
+     * is reached. Default is -1 (no streaming sessions).
+     * Not supported with CFS or staging.
+     * @param sessionTime session time
+     */
+    public void setSessionTime(long sessionTime) {
+        this.sessionTime = sessionTime;
+    }
+
+    /**
+     * Gets the number of documents after which a streaming session is
+     * ended. Default is 10000.
+     * @return maximum number of documents per session
+     */
+    public int getSessionMaxDocs() {
+        return sessionMaxDocs;
+    }
+    /**
+     * Sets the number of documents after which a streaming session is
+     * ended. Default is 10000.
+     * @param sessionMaxDocs maximum number of documents per session
+     */
+    public void setSessionMaxDocs(int sessionMaxDocs) {
+        this.sessionMaxDocs = sessionMaxDocs;
+    }
+
+    /**
+     * Gets the size after which a streaming session is ended.
+     * Default is 100MB.
+     * @return maximum session size
+     */
+    public long getSessionMaxSize() {
+        return sessionMaxSize;
+    }
+    /**
+     * Sets the size after which a streaming session is ended.
+     * Default is 100MB.
+     * @param sessionMaxSize maximum session size
+     */
+    public void setSessionMaxSize(long sessionMaxSize) {
+        this.sessionMaxSize = sessionMaxSize;
+    }
+
+    /**
+     * Gets the maximum time upserts of batches committed concurrently
+     * are held before being sent together (in milliseconds). When
+     * greater than zero, upserts are held together, like a batch (see
+     * {@link #getMaxBatchMemory()}), and sent in a single "DREADDDATA"
+     * request once this time, the maximum number of documents or the
+     * maximum size is reached, or before any other request. Each batch
+     * waits for that request to be sent. Default is -1
+     * (no aggregation). Ignored when streaming sessions.
+     * Not supported with CFS or staging.
+     * @return aggregate time
+     */
+    public long getAggregateTime() {
+        return aggregateTime;
+    }
+    /**
+     * Sets the maximum time upserts of batches committed concurrently
+     * are held before being sent together (in milliseconds). When
+     * greater than zero, upserts are held together, like a batch (see
+     * {@link #getMaxBatchMemory()}), and sent in a single "DREADDDATA"
+     * request once this time, the maximum number of documents or the
+     * maximum size is reached, or before any other request. Each batch
+     * waits for that request to be sent. Default is -1
+     * (no aggregation). Ignored when streaming sessions.
+     * Not supported with CFS or staging.
+     * @param aggregateTime aggregate time
+     */
+    public void setAggregateTime(long aggregateTime) {
+        this.aggregateTime = aggregateTime;
+    }
+
+    /**
+     * Gets the number of documents after which aggregated upserts are
+     * sent. Default is 1000.
+     * @return maximum number of documents per aggregate
+     */
+    public int getAggregateMaxDocs() {
+        return aggregateMaxDocs;
+    }
+    /**
+     * Sets the number of documents after which aggregated upserts are
+     * sent. Default is 1000.
+     * @param aggregateMaxDocs maximum number of documents per aggregate
+     */
+    public void setAggregateMaxDocs(int aggregateMaxDocs) {
+        this.aggregateMaxDocs = aggregateMaxDocs;
+    }
+
+    /**
+     * Gets the size after which aggregated upserts are sent.
+     * Default is 10MB.
+     * @return maximum aggregate size
+     */
+    public long getAggregateMaxSize() {
+        return aggregateMaxSize;
+    }
+    /**
+     * Sets the size after which aggregated upserts are sent.
+     * Default is 10MB.
+     * @param aggregateMaxSize maximum aggregate size
+     */
+    public void setAggregateMaxSize(long aggregateMaxSize) {
+        this.aggregateMaxSize = aggregateMaxSize;
+    }
+
+    /**
+     * Gets the index URLs of replica IDOL clusters sent the same
+     * requests as the IDOL at the configured URL, from the same
+     * serialized batches. Each replica is sent requests in order on its
+     * own thread, with its own retries and spool, without holding back
+     * batches. Replicas must expose actions on the same path.
+     * @return replica URLs (never <code>null</code>)
+     */
+    public List<String> getReplicaUrls() {
+        return replicaUrls;
+    }
+
+    /**
+     * Gets the maximum number of requests held in memory per replica
+     * while waiting to be sent. Past that, they are spooled to disk
+     * until the replica catches up. Default is 10.
+     * @return maximum number of pending requests per replica
+     */
+    public int getReplicaMaxPending() {
+        return replicaMaxPending;
+    }
+    /**
+     * Sets the maximum number of requests held in memory per replica
+     * while waiting to be sent. Past that, they are spooled to disk
+     * until the replica catches up. Default is 10.
+     * @param replicaMaxPending maximum number of pending requests
+     *     per replica
+     */
+    public void setReplicaMaxPending(int replicaMaxPending) {
+        this.replicaMaxPending = replicaMaxPending;
+    }
+
+    /**
+     * Gets whether the throughput limits and circuit breaker of the
+     * configured URL are shared with other IDOL Committer instances of
+     * the same JVM sending to the same URL with the same settings.
+     * Limits then apply to all of them together, and IDOL being found
+     * unavailable by one applies to all.  Nothing else is shared:
+     * preflight results, spools and sessions remain per committer.
+     * @return <code>true</code> if sharing the endpoint
+     */
+    public boolean isSharedEndpoint() {
+        return sharedEndpoint;
+    }
+    /**
+     * Sets whether the throughput limits and circuit breaker of the
+     * configured URL are shared with other IDOL Committer instances of
+     * the same JVM sending to the same URL with the same settings.
+     * Limits then apply to all of them together, and IDOL being found
+     * unavailable by one applies to all.  Nothing else is shared:
+     * preflight results, spools and sessions remain per committer.
+     * @param sharedEndpoint <code>true</code> to share the endpoint
+     */
+    public void setSharedEndpoint(boolean sharedEndpoint) {
+        this.sharedEndpoint = sharedEndpoint;
+    }
+
     @Override
     public boolean equals(final Object other) {
         return EqualsBuilder.reflectionEquals(this, other);
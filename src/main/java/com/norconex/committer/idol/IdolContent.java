@@ -0,0 +1,107 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.io.CachedInputStream;
+import com.norconex.commons.lang.io.CachedStreamFactory;
+
+/* Digests document content (for checksums or fingerprints) without
+ * holding it whole on heap.  Content is fed to the digest as it is read.
+ * Content that can be rewound is read in place, other content is cached
+ * as it is read (in memory up to a small size, then on disk) so it can
+ * be read again when sent.  Memory used for caching is bounded for
+ * all documents at once, either JVM-wide or per batch when batch memory
+ * is governed (see IdolMemoryGovernor).
+ */
+final class IdolContent {
+
+    // content cached in memory per document, past that it is on disk
+    private static final int MAX_MEMORY = 1024 * 1024;
+    private static final CachedStreamFactory CACHE =
+            new CachedStreamFactory(32 * MAX_MEMORY, MAX_MEMORY);
+
+    private IdolContent() {
+    }
+
+    /**
+     * Gets a factory caching content in memory up to the given size,
+     * for all documents it caches at once.
+     * @param maxMemory maximum memory, or -1 for a JVM-wide default
+     * @param tempDir where content past that size is cached
+     * @return cache factory
+     */
+    static CachedStreamFactory cache(long maxMemory, Path tempDir) {
+        if (maxMemory < 0) {
+            return CACHE;
+        }
+        int pool = (int) Math.min(maxMemory, Integer.MAX_VALUE);
+        return new CachedStreamFactory(
+                pool, Math.min(pool, MAX_MEMORY), tempDir);
+    }
+
+    /**
+     * Feeds the content of an upsert to a digest.
+     * @param req upsert request
+     * @param md digest to update
+     * @param cache caches content that cannot be rewound
+     * @return the same request if its content could be rewound, else
+     *     a copy of it with content that can be read again
+     * @throws IOException could not read content
+     */
+    static UpsertRequest digest(UpsertRequest req, MessageDigest md,
+            CachedStreamFactory cache) throws IOException {
+        InputStream is = req.getContent();
+        if (is == null) {
+            return req;
+        }
+        if (is instanceof CachedInputStream) {
+            DigestUtils.updateDigest(md, is);
+            ((CachedInputStream) is).rewind();
+            return req;
+        }
+        CachedInputStream cached = CachedInputStream.cache(
+                new DigestInputStream(is, md), cache);
+        cached.enforceFullCaching();
+        cached.rewind();
+        return new UpsertRequest(
+                req.getReference(), req.getMetadata(), cached);
+    }
+
+    /**
+     * Releases content cached by {@link #digest(UpsertRequest,
+     * MessageDigest, CachedStreamFactory)} for a request that will not be sent.
+     * @param digested request returned by <code>digest</code>
+     * @param original request given to <code>digest</code>
+     */
+    static void dispose(UpsertRequest digested, UpsertRequest original) {
+        if (digested != original
+                && digested.getContent() instanceof CachedInputStream) {
+            try {
+                ((CachedInputStream) digested.getContent()).dispose();
+            } catch (IOException e) {
+                // at worst a temporary file is left behind
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* State of an IDOL URL: throughput limits and circuit breaker (health).
+ * Nothing else is shared: preflight results (e.g., maximum URL length),
+ * spools and sessions stay with each committer.
+ *
+ * When shared, committers of the same JVM sending to the same URL with
+ * the same settings for those get the same state from a JVM-wide
+ * registry, reference counted and removed from it once released by
+ * the last one.  Each committer gets its own endpoint to that state,
+ * so releasing it more than once has no effect.  Connections need no
+ * sharing: HttpURLConnection already keeps them alive and reuses them
+ * JVM-wide, per host and port.
+ */
+final class IdolEndpoint {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolEndpoint.class);
+
+    private static final AtomicLong MBEAN_ID = new AtomicLong();
+
+    // guarded by the class lock
+    private static final Map<String, State> SHARED = new HashMap<>();
+
+    private final State state;
+    // guarded by the class lock
+    private boolean released;
+
+    private IdolEndpoint(State state) {
+        this.state = state;
+    }
+
+    /**
+     * Gets the endpoint for the configured URL, shared with other
+     * committers if configured so.  Must be released once no longer used.
+     * @param config committer configuration
+     * @return endpoint
+     */
+    static synchronized IdolEndpoint acquire(IdolCommitterConfig config) {
+        if (!config.isSharedEndpoint()) {
+            return new IdolEndpoint(new State(config, null));
+        }
+        String key = key(config);
+        State state = SHARED.get(key);
+        if (state == null) {
+            state = new State(config, key);
+            SHARED.put(key, state);
+            LOG.info("Shared IDOL endpoint created: {}", config.getUrl());
+        } else {
+            state.refs++;
+            LOG.info("Shared IDOL endpoint reused ({} committers): {}",
+                    state.refs, config.getUrl());
+        }
+        return new IdolEndpoint(state);
+    }
+
+    // Settings an endpoint can only be shared with.
+    private static String key(IdolCommitterConfig config) {
+        return StringUtils.joinWith("|",
+                StringUtils.removeEnd(config.getUrl().trim(), "/"),
+                config.getMaxDocsPerSecond(),
+                config.getMaxBytesPerSecond(),
+                config.getRateLimitBurst(),
+                config.getCircuitBreakerThreshold(),
+                config.getCircuitBreakerOpenTime(),
+                config.isJmx());
+    }
+
+    IdolRateLimiter getRateLimiter() {
+        return state.rateLimiter;
+    }
+    // null when no circuit breaker
+    IdolCircuitBreaker getBreaker() {
+        return state.breaker;
+    }
+
+    // Once the committer no longer uses this endpoint.
+    void release() {
+        synchronized (IdolEndpoint.class) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (--state.refs > 0) {
+                return;
+            }
+            if (state.key != null) {
+                SHARED.remove(state.key, state);
+            }
+        }
+        unregisterMBean(state.rateLimiterName);
+    }
+
+    // State of an IDOL URL, shared or not.
+    private static final class State {
+        // null when not shared
+        private final String key;
+        private final IdolRateLimiter rateLimiter;
+        // null when no circuit breaker
+        private final IdolCircuitBreaker breaker;
+        private final ObjectName rateLimiterName;
+        // guarded by the class lock
+        private int refs = 1;
+
+        private State(IdolCommitterConfig config, String key) {
+            this.key = key;
+            this.rateLimiter = new IdolRateLimiter(
+                    config.getMaxDocsPerSecond(),
+                    config.getMaxBytesPerSecond(),
+                    config.getRateLimitBurst());
+            this.breaker = config.getCircuitBreakerThreshold() > 0
+                    ? new IdolCircuitBreaker(config.getUrl(),
+                            config.getCircuitBreakerThreshold(),
+                            config.getCircuitBreakerOpenTime())
+                    : null;
+            this.rateLimiterName = config.isJmx()
+                    ? registerMBean(rateLimiter, IdolRateLimiterMBean.class,
+                            "IdolRateLimiter", config.getUrl())
+                    : null;
+        }
+    }
+
+    // Registered under a name unique to this endpoint, since more than
+    // one committer can send to the same URL without sharing it.
+    private static <T> ObjectName registerMBean(
+            T mbean, Class<T> mbeanInterface, String type, String url) {
+        try {
+            ObjectName name = new ObjectName("com.norconex.committer.idol:"
+                    + "type=" + type
+                    + ",url=" + ObjectName.quote(url)
+                    + ",id=" + MBEAN_ID.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(mbean, mbeanInterface), name);
+            LOG.info("Registered JMX MBean: {}", name);
+            return name;
+        } catch (JMException e) {
+            LOG.error("Could not register JMX MBean for {}.", type, e);
+            return null;
+        }
+    }
+    private static void unregisterMBean(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOG.error("Could not unregister JMX MBean: {}", name, e);
+        }
+    }
+}
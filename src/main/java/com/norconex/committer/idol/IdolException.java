@@ -0,0 +1,49 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import com.norconex.committer.core3.CommitterException;
+
+/* Failure to send a request to IDOL, telling whether sending it
+ * again could succeed.
+ */
+class IdolException extends CommitterException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient IdolResponse response;
+    private final boolean retryable;
+
+    // IDOL responded with an error
+    IdolException(String message, IdolResponse response) {
+        super(message + " " + response);
+        this.response = response;
+        this.retryable = response.isRetryable();
+    }
+    // IDOL could not be reached or did not respond properly
+    IdolException(String message, Throwable cause) {
+        super(message, cause);
+        this.response = null;
+        this.retryable = true;
+    }
+
+    // null if IDOL did not respond
+    IdolResponse getResponse() {
+        return response;
+    }
+    boolean isRetryable() {
+        return retryable;
+    }
+}
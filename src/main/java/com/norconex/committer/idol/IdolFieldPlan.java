@@ -0,0 +1,113 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/* Decides which metadata fields are sent to IDOL, under which name,
+ * and truncates their values if needed.  Built once per committer
+ * from its configuration and shared by index actions.
+ *
+ * Since the same field names are found over and over in documents,
+ * the outcome for each field name is cached after it is first resolved,
+ * up to a maximum number of names (in case names are generated).
+ */
+class IdolFieldPlan {
+
+    private static final int MAX_CACHED_NAMES = 10_000;
+
+    private final String refField;
+    private final String contentField;
+    private final String databaseField;
+    private final Pattern include;
+    private final Pattern exclude;
+    private final Map<String, String> renames;
+    private final int maxValueLength;
+
+    // empty optional means excluded
+    private final Map<String, Optional<String>> targetNames =
+            new ConcurrentHashMap<>();
+
+    IdolFieldPlan(IdolCommitterConfig config) {
+        this.refField = StringUtils.isBlank(config.getSourceReferenceField())
+                ? null : config.getSourceReferenceField();
+        this.contentField = StringUtils.isBlank(config.getSourceContentField())
+                ? null : config.getSourceContentField();
+        this.databaseField = StringUtils.trimToNull(
+                config.getSourceDatabaseField());
+        this.include = compile(config.getIncludeFields());
+        this.exclude = compile(config.getExcludeFields());
+        this.renames = new HashMap<>(config.getFieldRenames());
+        this.maxValueLength = config.getMaxFieldValueLength();
+    }
+
+    // Field holding the IDOL reference, or null to use the document one
+    String referenceField() {
+        return refField;
+    }
+    // Field holding the IDOL content, or null to use the content stream
+    String contentField() {
+        return contentField;
+    }
+
+    /**
+     * Gets the name under which a field is sent to IDOL.
+     * @param field source field name
+     * @return target field name, or <code>null</code> if not sent
+     */
+    String targetName(String field) {
+        Optional<String> name = targetNames.get(field);
+        if (name == null) {
+            name = Optional.ofNullable(resolve(field));
+            if (targetNames.size() < MAX_CACHED_NAMES) {
+                targetNames.put(field, name);
+            }
+        }
+        return name.orElse(null);
+    }
+
+    // Truncated value, never splitting a surrogate pair.
+    String value(String value) {
+        if (maxValueLength >= 0 && value != null
+                && value.length() > maxValueLength) {
+            int end = maxValueLength;
+            if (end > 0 && Character.isHighSurrogate(value.charAt(end - 1))) {
+                end--;
+            }
+            return value.substring(0, end);
+        }
+        return value;
+    }
+
+    private String resolve(String field) {
+        if (field.equals(refField) || field.equals(contentField)
+                || field.equals(databaseField)
+                || (include != null && !include.matcher(field).matches())
+                || (exclude != null && exclude.matcher(field).matches())) {
+            return null;
+        }
+        return renames.getOrDefault(field, field);
+    }
+
+    private static Pattern compile(String regex) {
+        return StringUtils.isBlank(regex) ? null : Pattern.compile(regex);
+    }
+}
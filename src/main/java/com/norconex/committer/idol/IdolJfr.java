@@ -0,0 +1,190 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.ProxyWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Java Flight Recorder events, so commit stalls can be correlated with
+ * GC and I/O activity in the same recording:
+ *
+ *   "com.norconex.committer.idol.Batch": one per batch sent, with
+ *   action, document count, serialized bytes, serialization time,
+ *   network time, attempts and outcome.
+ *
+ *   "com.norconex.committer.idol.Document": documents which took longer
+ *   to serialize or were larger than configured thresholds.
+ *
+ * Events are only created when JFR is available in the JVM and the
+ * event is enabled in the running recording.  Event classes require
+ * Java 11 and are compiled separately (src/main/java11), then loaded
+ * by name, so the rest of the code stays Java 8 compatible and JVMs
+ * without JFR (or builds without them) are supported.
+ */
+class IdolJfr {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdolJfr.class);
+
+    static final String OUTCOME_SUCCESS = "SUCCESS";
+    static final String OUTCOME_RETRYABLE = "RETRYABLE_ERROR";
+    static final String OUTCOME_PERMANENT = "PERMANENT_ERROR";
+    static final String OUTCOME_NO_RESPONSE = "NO_RESPONSE";
+    static final String OUTCOME_SPOOLED = "SPOOLED";
+
+    private static final Events EVENTS = loadEvents();
+
+    private final long docSizeThreshold;
+    private final long docTimeThresholdNanos;
+
+    IdolJfr(IdolCommitterConfig config) {
+        this.docSizeThreshold = config.getJfrDocumentSizeThreshold();
+        this.docTimeThresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                config.getJfrDocumentTimeThreshold());
+    }
+
+    // JFR event classes, implemented by IdolJfrEvents
+    interface Events {
+        // null if not enabled
+        Object startBatch();
+        void finishBatch(Object event, Batch batch);
+        boolean isDocumentRecorded();
+        Object startDocument(CountingWriter writer);
+        void finishDocument(Object event, String action, String reference,
+                long sizeThreshold, long timeThresholdNanos);
+    }
+
+    private static Events loadEvents() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Events) Class.forName(IdolJfr.class.getName() + "Events")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.debug("Java Flight Recorder events not available.", e);
+            return null;
+        }
+    }
+
+    static boolean isAvailable() {
+        return EVENTS != null;
+    }
+
+    Batch beginBatch(IIdolIndexAction action, int documents) {
+        Batch batch = new Batch(action.getClass().getSimpleName(),
+                documents);
+        if (EVENTS != null) {
+            batch.event = EVENTS.startBatch();
+        }
+        return batch;
+    }
+
+    void commitBatch(Batch batch) {
+        if (batch.event != null) {
+            EVENTS.finishBatch(batch.event, batch);
+        }
+    }
+
+    /**
+     * Wraps a writer to measure the size of documents written to it,
+     * if document events are recorded.
+     * @param writer writer
+     * @return counting writer, or the same writer
+     */
+    Writer documentWriter(Writer writer) {
+        return EVENTS != null && EVENTS.isDocumentRecorded()
+                ? new CountingWriter(writer) : writer;
+    }
+
+    // null if not recording document events
+    Object beginDocument(Writer writer) {
+        if (writer instanceof CountingWriter) {
+            return EVENTS.startDocument((CountingWriter) writer);
+        }
+        return null;
+    }
+
+    void commitDocument(Object event, String action, String reference) {
+        if (event != null) {
+            EVENTS.finishDocument(event, action, reference,
+                    docSizeThreshold, docTimeThresholdNanos);
+        }
+    }
+
+    // Batch statistics, gathered whether JFR is available or not
+    static class Batch {
+        private final String action;
+        private final int documents;
+        private Object event;
+        private long bytes;
+        private long serializationNanos;
+        private long networkNanos;
+        private int attempts;
+        private String outcome;
+
+        private Batch(String action, int documents) {
+            this.action = action;
+            this.documents = documents;
+        }
+        void serialized(long bytes, long nanos) {
+            this.bytes = bytes;
+            this.serializationNanos += nanos;
+        }
+        void attempted(long nanos) {
+            this.attempts++;
+            this.networkNanos += nanos;
+        }
+        void outcome(String outcome) {
+            this.outcome = outcome;
+        }
+        String getAction() {
+            return action;
+        }
+        int getDocuments() {
+            return documents;
+        }
+        long getBytes() {
+            return bytes;
+        }
+        long getSerializationNanos() {
+            return serializationNanos;
+        }
+        long getNetworkNanos() {
+            return networkNanos;
+        }
+        int getAttempts() {
+            return attempts;
+        }
+        String getOutcome() {
+            return outcome;
+        }
+    }
+
+    static class CountingWriter extends ProxyWriter {
+        private long count;
+        CountingWriter(Writer writer) {
+            super(writer);
+        }
+        @Override
+        protected void beforeWrite(int n) {
+            count += n;
+        }
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.io.CachedStreamFactory;
+
+/* Crash-safe journal of batches sent to IDOL, so batches left in the
+ * committer queue by a crash are not sent again when replayed.
+ *
+ * Each batch sent (one type-homogeneous sub-batch of a committer
+ * batch) is identified by a fingerprint of its target database,
+ * request type, references, metadata and content.  The journal is an
+ * append-only text file, one record per line:
+ *
+ *   S <fingerprint>            sent to IDOL
+ *   A <fingerprint> <indexId>  acknowledged by IDOL
+ *   D <fingerprint>            committer batch done, entry obsolete
+ *   I <indexId>                IDOL finished indexing up to index id
+ *
+ * Acknowledgements and completions are made durable before returning,
+ * with concurrent writers sharing a single fsync (group commit).
+ * A batch is only acknowledged once IDOL responded to all its requests
+ * (not when spooled or written to a session), with the highest index id
+ * IDOL returned for them.
+ *
+ * On startup, batches acknowledged but not done can be skipped, each
+ * once, and the journal is rewritten with only those entries.  The
+ * journal is also rewritten when too many obsolete records accumulate,
+ * and emptied on close once the committer queue was fully consumed.
+ */
+class IdolJournal implements Closeable {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolJournal.class);
+
+    static final String FILE_NAME = "idol-journal.log";
+
+    private static final int COMPACT_THRESHOLD = 10_000;
+
+    private final Path file;
+    // acknowledged in a previous run, or by a committer batch that failed
+    private final Map<String, Long> skippable = new ConcurrentHashMap<>();
+    // acknowledged by committer batches being sent
+    private final Set<Commit> active = ConcurrentHashMap.newKeySet();
+    // acknowledged by committer batches that failed in this run
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private long written;
+    private volatile long synced;
+    private long obsolete;
+    private volatile long indexedId = -1;
+
+    IdolJournal(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        this.file = dir.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            recover();
+        }
+        rewrite();
+    }
+
+    private void recover() throws IOException {
+        for (String line : Files.readAllLines(file, UTF_8)) {
+            String[] parts = StringUtils.split(line, ' ');
+            // a torn last line is ignored
+            if (parts.length == 3 && "A".equals(parts[0])) {
+                skippable.put(parts[1], NumberUtils.toLong(parts[2], -1));
+            } else if (parts.length == 2 && "D".equals(parts[0])) {
+                skippable.remove(parts[1]);
+            } else if (parts.length == 2 && "I".equals(parts[0])) {
+                indexedId = Math.max(
+                        indexedId, NumberUtils.toLong(parts[1], -1));
+            }
+        }
+        if (!skippable.isEmpty()) {
+            long indexed = skippable.values().stream().filter(
+                    id -> id >= 0 && id <= indexedId).count();
+            LOG.info("Journal has {} batches acknowledged by IDOL before "
+                    + "last shutdown ({} known to be indexed). They will "
+                    + "not be sent again.", skippable.size(), indexed);
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a batch.  Content streams are digested
+     * as they are read, then rewound.  Those that cannot be rewound are
+     * replaced in the batch by a cached copy of their content.
+     * @param database target database, or <code>null</code>
+     * @param batch requests of the same type
+     * @param cache caches content that cannot be rewound
+     * @return fingerprint
+     * @throws IOException could not read content
+     */
+    static String fingerprint(String database, List<ICommitterRequest> batch,
+            CachedStreamFactory cache) throws IOException {
+        MessageDigest md = DigestUtils.getSha256Digest();
+        update(md, database);
+        for (int i = 0; i < batch.size(); i++) {
+            ICommitterRequest req = batch.get(i);
+            update(md, req.getClass().getName());
+            update(md, req.getReference());
+            for (Entry<String, List<String>> en :
+                    req.getMetadata().entrySet()) {
+                update(md, en.getKey());
+                for (String value : en.getValue()) {
+                    update(md, value);
+                }
+            }
+            if (req instanceof UpsertRequest) {
+                batch.set(i, IdolContent.digest(
+                        (UpsertRequest) req, md, cache));
+            }
+            md.update((byte) 0);
+        }
+        return Hex.encodeHexString(md.digest());
+    }
+    private static void update(MessageDigest md, String value) {
+        md.update(StringUtils.defaultString(value).getBytes(UTF_8));
+        md.update((byte) 0);
+    }
+
+    Commit begin() {
+        Commit commit = new Commit();
+        active.add(commit);
+        return commit;
+    }
+
+    void sent(String fingerprint) throws IOException {
+        append("S " + fingerprint, false);
+    }
+
+    // Forgets all batches, as when the IDOL database is reloaded.
+    void clear() throws IOException {
+        skippable.clear();
+        synchronized (syncLock) {
+            rewrite();
+        }
+        LOG.info("Journal cleared.");
+    }
+
+    // IDOL finished indexing all batches acknowledged up to index id.
+    void indexed(long indexId) throws IOException {
+        indexedId = Math.max(indexedId, indexId);
+        append("I " + indexId, true);
+    }
+
+    /**
+     * Closes the journal.  Remaining entries are dropped if the
+     * committer queue was fully consumed, except for those of committer
+     * batches that failed in this run, so they can still be skipped
+     * if sent again.
+     * @param queueConsumed whether all committer batches were sent
+     * @throws IOException could not write journal
+     */
+    void close(boolean queueConsumed) throws IOException {
+        synchronized (syncLock) {
+            if (queueConsumed) {
+                skippable.keySet().retainAll(failed);
+                rewrite();
+            }
+            channel.force(false);
+            channel.close();
+        }
+    }
+    @Override
+    public void close() throws IOException {
+        close(false);
+    }
+
+    private void append(String record, boolean durable) throws IOException {
+        long position;
+        synchronized (this) {
+            ByteBuffer buf = ByteBuffer.wrap((record + "\n").getBytes(UTF_8));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            position = ++written;
+        }
+        if (durable) {
+            sync(position);
+        }
+    }
+
+    // Whoever gets to sync covers all records written so far, so other
+    // writers waiting on the lock can return without syncing again.
+    private void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long upTo;
+            synchronized (this) {
+                upTo = written;
+            }
+            channel.force(false);
+            synced = upTo;
+        }
+    }
+
+    private synchronized boolean compactionDue() {
+        return obsolete > COMPACT_THRESHOLD;
+    }
+
+    // Must be invoked holding the sync lock.
+    private void rewrite() throws IOException {
+        Map<String, Long> live = new LinkedHashMap<>(skippable);
+        for (Commit commit : active) {
+            live.putAll(commit.acked);
+        }
+        List<String> lines = new ArrayList<>(live.size() + 1);
+        if (indexedId >= 0) {
+            lines.add("I " + indexedId);
+        }
+        live.forEach((fp, id) -> lines.add("A " + fp + " " + id));
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+            }
+            Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+            Files.write(tmp, lines, UTF_8);
+            try (FileChannel ch = FileChannel.open(
+                    tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            synced = written;
+            obsolete = 0;
+        }
+    }
+
+    // Batches acknowledged or skipped while sending a committer batch.
+    class Commit {
+        private final Map<String, Long> acked = new ConcurrentHashMap<>();
+        private final Map<String, Long> skipped = new ConcurrentHashMap<>();
+
+        // Whether a batch was acknowledged before and can be skipped.
+        // Each acknowledgement is only used once.
+        boolean skip(String fingerprint) {
+            Long indexId = skippable.remove(fingerprint);
+            if (indexId == null) {
+                return false;
+            }
+            skipped.put(fingerprint, indexId);
+            return true;
+        }
+
+        void acknowledged(String fingerprint, long indexId)
+                throws IOException {
+            acked.put(fingerprint, indexId);
+            append("A " + fingerprint + " " + indexId, true);
+        }
+
+        // The committer batch was sent, entries are no longer needed.
+        void done() throws IOException {
+            active.remove(this);
+            Map<String, Long> all = new HashMap<>(skipped);
+            all.putAll(acked);
+            if (all.isEmpty()) {
+                return;
+            }
+            long position = 0;
+            for (String fp : all.keySet()) {
+                synchronized (IdolJournal.this) {
+                    append("D " + fp, false);
+                    position = written;
+                    obsolete++;
+                }
+            }
+            sync(position);
+            synchronized (syncLock) {
+                if (compactionDue()) {
+                    rewrite();
+                }
+            }
+        }
+
+        // The committer batch failed and could be sent again, entries
+        // are kept so acknowledged batches are skipped then.
+        void failed() {
+            active.remove(this);
+            skippable.putAll(skipped);
+            skippable.putAll(acked);
+            failed.addAll(skipped.keySet());
+            failed.addAll(acked.keySet());
+        }
+    }
+}
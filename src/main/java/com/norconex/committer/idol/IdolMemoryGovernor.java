@@ -0,0 +1,164 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* JVM-wide limit on the memory used by batches, shared by all IDOL
+ * Committer instances configured with the same limit (committers with
+ * different limits each get their own).  It covers content cached to
+ * be checksummed or journaled, serialized payloads and payloads held
+ * for replicas.  Batches wait, in arrival order, until enough memory
+ * is available.  Replicas never wait: they spool instead.
+ *
+ * Memory is tracked in kilobytes to fit in semaphore permits.
+ */
+final class IdolMemoryGovernor {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolMemoryGovernor.class);
+
+    private static final long SLOW_WAIT_MS = 1000;
+
+    private static final Map<Long, IdolMemoryGovernor> GOVERNORS =
+            new ConcurrentHashMap<>();
+
+    private final long maxBytes;
+    private final int maxPermits;
+    private final Semaphore semaphore;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private IdolMemoryGovernor(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxPermits = toPermits(maxBytes);
+        this.semaphore = new Semaphore(maxPermits, true);
+    }
+
+    static IdolMemoryGovernor get(long maxBytes) {
+        return GOVERNORS.computeIfAbsent(maxBytes, max -> {
+            if (!GOVERNORS.isEmpty()) {
+                LOG.warn("IDOL Committers have different shared batch "
+                        + "memory limits. Each limit is shared only by "
+                        + "committers having the same one.");
+            }
+            LOG.info("Shared IDOL batch memory limited to {} bytes.", max);
+            return new IdolMemoryGovernor(max);
+        });
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Blocks until the given amount of memory is available.
+     * Requests larger than the maximum are reduced to the maximum.
+     * @param bytes amount of memory needed
+     * @return a permit to close to release the memory
+     * @throws InterruptedException thread interrupted while waiting
+     */
+    Permit acquire(long bytes) throws InterruptedException {
+        int permits = Math.min(toPermits(bytes), maxPermits);
+        acquisitions.incrementAndGet();
+        if (!semaphore.tryAcquire(permits)) {
+            long start = System.nanoTime();
+            semaphore.acquire(permits);
+            long waited = System.nanoTime() - start;
+            waits.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(waited);
+            if (waitedMs >= SLOW_WAIT_MS) {
+                LOG.info("Waited {} ms for {} bytes of shared batch memory.",
+                        waitedMs, bytes);
+            }
+        }
+        return new Permit(permits);
+    }
+
+    /**
+     * Gets the given amount of memory if available now.
+     * @param bytes amount of memory needed
+     * @return a permit to close to release the memory, or
+     *     <code>null</code> if not available
+     */
+    Permit tryAcquire(long bytes) {
+        int permits = Math.min(toPermits(bytes), maxPermits);
+        acquisitions.incrementAndGet();
+        if (!semaphore.tryAcquire(permits)) {
+            return null;
+        }
+        return new Permit(permits);
+    }
+
+    long getAcquisitions() {
+        return acquisitions.get();
+    }
+    long getWaits() {
+        return waits.get();
+    }
+    long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+    long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+    long getAvailableBytes() {
+        return semaphore.availablePermits() * 1024L;
+    }
+    int getQueueLength() {
+        return semaphore.getQueueLength();
+    }
+
+    @Override
+    public String toString() {
+        return "acquisitions=" + getAcquisitions()
+                + ", waits=" + getWaits()
+                + ", totalWaitMillis=" + getTotalWaitMillis()
+                + ", maxWaitMillis=" + getMaxWaitMillis()
+                + ", availableBytes=" + getAvailableBytes();
+    }
+
+    private static int toPermits(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (bytes + 1023) / 1024));
+    }
+
+    final class Permit implements AutoCloseable {
+        private final int permits;
+        private boolean released;
+        private Permit(int permits) {
+            this.permits = permits;
+        }
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                semaphore.release(permits);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapSetter;
+
+/* OpenTelemetry implementation of IdolTracer.  Only loaded when tracing
+ * is enabled and OpenTelemetry is on the classpath.
+ */
+class IdolOtelTracer extends IdolTracer {
+
+    private static final String INSTRUMENTATION =
+            "com.norconex.committer.idol";
+    private static final TextMapSetter<HttpURLConnection> HEADERS =
+            (con, key, value) -> con.setRequestProperty(key, value);
+
+    private final Tracer tracer =
+            GlobalOpenTelemetry.getTracer(INSTRUMENTATION);
+
+    @Override
+    Span span(String name) {
+        return start(name, SpanKind.INTERNAL);
+    }
+    @Override
+    Span clientSpan(String name) {
+        return start(name, SpanKind.CLIENT);
+    }
+    @Override
+    <T> Callable<T> wrap(Callable<T> task) {
+        return Context.current().wrap(task);
+    }
+
+    private Span start(String name, SpanKind kind) {
+        io.opentelemetry.api.trace.Span span =
+                tracer.spanBuilder(name).setSpanKind(kind).startSpan();
+        return new OtelSpan(span, span.makeCurrent());
+    }
+
+    private static class OtelSpan implements Span {
+        private final io.opentelemetry.api.trace.Span span;
+        private final Scope scope;
+        OtelSpan(io.opentelemetry.api.trace.Span span, Scope scope) {
+            this.span = span;
+            this.scope = scope;
+        }
+        @Override
+        public Span set(String key, long value) {
+            span.setAttribute(key, value);
+            return this;
+        }
+        @Override
+        public Span set(String key, String value) {
+            if (value != null) {
+                span.setAttribute(key, value);
+            }
+            return this;
+        }
+        @Override
+        public <E extends Throwable> E error(E e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            return e;
+        }
+        @Override
+        public void inject(HttpURLConnection con) {
+            GlobalOpenTelemetry.getPropagators().getTextMapPropagator()
+                    .inject(Context.current(), con, HEADERS);
+        }
+        @Override
+        public void close() {
+            scope.close();
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Holds a serialized request body, in memory up to a maximum size
+ * and in a temporary file past that size.  This allows for large
+ * batches to be serialized without holding them entirely on heap
+ * and to know the body length before sending it (so the HTTP
+ * connection does not buffer it again).
+ *
+ * The file part is copied in chunks to the connection stream.  As
+ * HttpURLConnection only offers an OutputStream, those chunks still go
+ * through a heap buffer: what is saved is holding the whole body at
+ * once, not the copy itself.
+ *
+ * Once written, a buffer can be sent by several threads at once (as to
+ * replicas), each retaining it until disposed of.
+ */
+class IdolPayloadBuffer extends OutputStream {
+
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private final long maxMemory;
+    private final Path tempDir;
+
+    private byte[] mem = new byte[INITIAL_SIZE];
+    private int memCount;
+    private Path file;
+    private FileChannel channel;
+    private long fileCount;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    IdolPayloadBuffer(long maxMemory, Path tempDir) {
+        this.maxMemory = Math.min(maxMemory, Integer.MAX_VALUE - 8);
+        this.tempDir = tempDir;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int memLen = (int) Math.max(0, Math.min(len, maxMemory - memCount));
+        if (memLen > 0) {
+            ensureCapacity(memCount + memLen);
+            System.arraycopy(b, off, mem, memCount, memLen);
+            memCount += memLen;
+        }
+        if (memLen < len) {
+            spill(ByteBuffer.wrap(b, off + memLen, len - memLen));
+        }
+    }
+
+    long size() {
+        return memCount + fileCount;
+    }
+    // Heap held by this buffer.
+    long memorySize() {
+        return mem.length;
+    }
+    boolean isSpilled() {
+        return channel != null;
+    }
+
+    /**
+     * Writes this buffer content to the given output stream.
+     * Can be invoked more than once.
+     * @param out target output stream
+     * @throws IOException problem writing
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(mem, 0, memCount);
+        if (channel != null) {
+            out.flush();
+            WritableByteChannel target = Channels.newChannel(out);
+            long pos = 0;
+            while (pos < fileCount) {
+                pos += channel.transferTo(pos, fileCount - pos, target);
+            }
+        }
+    }
+
+    // Drops what was written past the given size.
+    void truncate(long size) {
+        if (size < memCount) {
+            memCount = (int) size;
+            fileCount = 0;
+        } else {
+            fileCount = Math.min(fileCount, size - memCount);
+        }
+    }
+
+    // Keeps the buffer from being released until disposed of once more.
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Releases memory and deletes the temporary file, if any, once
+     * disposed of as many times as retained (plus one).
+     * @throws IOException could not delete temporary file
+     */
+    void dispose() throws IOException {
+        if (refs.decrementAndGet() > 0) {
+            return;
+        }
+        mem = new byte[0];
+        memCount = 0;
+        fileCount = 0;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void spill(ByteBuffer bytes) throws IOException {
+        if (channel == null) {
+            Files.createDirectories(tempDir);
+            file = Files.createTempFile(tempDir, "payload-", ".tmp");
+            channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        while (bytes.hasRemaining()) {
+            fileCount += channel.write(bytes, fileCount);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > mem.length) {
+            int newCapacity = (int) Math.min(
+                    Math.max((long) mem.length << 1, minCapacity),
+                    maxMemory);
+            mem = Arrays.copyOf(mem, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.commons.lang.xml.XML;
+
+/* Checks IDOL can be reached and is usable before any document
+ * is sent, so misconfigurations are reported right away:
+ *
+ *   1. "GetVersion" and "GetStatus" ACI actions on the ACI URL
+ *      (the index URL for CFS, which serves both).  Fails if IDOL does
+ *      not respond successfully, or if the configured database is not
+ *      one of the databases reported by IDOL (when it reports any).
+ *   2. Probes the maximum URL length accepted, by sending "GetVersion"
+ *      with increasingly long padding, so deletion batches (sent in
+ *      URLs) can be split to fit.  Skipped if set in configuration.
+ *   3. Sends a request to the index URL so DNS resolution and
+ *      TCP/TLS connection setup are done before the first batch.
+ *      Responses are fully read so connections stay open for reuse.
+ */
+class IdolPreflight {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolPreflight.class);
+
+    private static final int MIN_URL_PROBE = 2 * 1024;
+    private static final int MAX_URL_PROBE = 64 * 1024;
+
+    private final IdolCommitterConfig config;
+
+    IdolPreflight(IdolCommitterConfig config) {
+        this.config = config;
+    }
+
+    Result run() throws CommitterException {
+        Result result = new Result();
+        String aciUrl = StringUtils.firstNonBlank(
+                config.getAciUrl(), config.isCfs() ? config.getUrl() : null);
+        if (aciUrl == null) {
+            LOG.info("No IDOL ACI URL configured, skipping status checks.");
+        } else {
+            checkStatus(aciUrl, result);
+            if (config.getMaxUrlLength() < 0) {
+                result.maxUrlLength = probeMaxUrlLength(aciUrl);
+                LOG.info("IDOL accepts URLs of up to {} characters.",
+                        result.maxUrlLength);
+            }
+        }
+        if (!config.isCfs()) {
+            warmUp(config.getUrl());
+        }
+        return result;
+    }
+
+    private void checkStatus(String aciUrl, Result result)
+            throws CommitterException {
+        XML version = IdolAci.get(aciUrl, "GetVersion");
+        result.version = StringUtils.trimToNull(StringUtils.join(
+                version.getString("responsedata/productname"), " ",
+                version.getString("responsedata/version")));
+        LOG.info("IDOL at {}: {}", aciUrl, result.version);
+
+        XML status = IdolAci.get(aciUrl, "GetStatus");
+        result.databases.addAll(
+                status.getStringList("responsedata/databases/database/name"));
+        String dbName = config.getDatabaseName();
+        if (StringUtils.isNotBlank(dbName) && !result.databases.isEmpty()
+                && result.databases.stream().noneMatch(
+                        dbName::equalsIgnoreCase)) {
+            throw new CommitterException("IDOL database \"" + dbName
+                    + "\" does not exist. Existing databases: "
+                    + result.databases);
+        }
+    }
+
+    // Binary search of the longest accepted URL, in steps of 1KB.
+    private int probeMaxUrlLength(String aciUrl) {
+        String base = IdolAci.url(aciUrl, "GetVersion") + "&Padding=";
+        int low = 0;
+        int high = MAX_URL_PROBE / 1024;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (acceptsUrl(base, mid * 1024)) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(MIN_URL_PROBE, low * 1024);
+    }
+    private boolean acceptsUrl(String base, int length) {
+        String url = base + StringUtils.repeat(
+                'x', Math.max(0, length - base.length()));
+        try {
+            HttpURLConnection con = (HttpURLConnection)
+                    new URL(url).openConnection();
+            int code = con.getResponseCode();
+            IdolAci.read(con, code);
+            return code == 200;
+        } catch (IOException e) {
+            LOG.debug("URL of length {} rejected.", length, e);
+            return false;
+        }
+    }
+
+    private void warmUp(String url) {
+        long start = System.currentTimeMillis();
+        try {
+            HttpURLConnection con = (HttpURLConnection)
+                    new URL(url).openConnection();
+            IdolAci.read(con, con.getResponseCode());
+            LOG.info("Connected to IDOL index URL {} in {} ms.",
+                    url, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            LOG.warn("Could not connect to IDOL index URL {}: {}",
+                    url, e.getMessage());
+        }
+    }
+
+    static class Result {
+        private String version;
+        private final List<String> databases = new ArrayList<>();
+        private int maxUrlLength = -1;
+        String getVersion() {
+            return version;
+        }
+        List<String> getDatabases() {
+            return databases;
+        }
+        // -1 if unknown
+        int getMaxUrlLength() {
+            return maxUrlLength;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Limits the number of documents and bytes sent to an IDOL endpoint
+ * per second, using token buckets.  Buckets hold up to "burst" seconds
+ * worth of tokens, so short bursts go through at full speed after
+ * idle periods.
+ *
+ * A batch larger than a bucket is let through by putting the bucket
+ * in debt, which following batches wait to repay.  This way, batches
+ * of any size can be sent while the average rate is respected.
+ */
+class IdolRateLimiter implements IdolRateLimiterMBean {
+
+    private final TokenBucket docs;
+    private final TokenBucket bytes;
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    IdolRateLimiter(
+            double docsPerSecond, long bytesPerSecond, double burstSeconds) {
+        this.docs = new TokenBucket(docsPerSecond, burstSeconds);
+        this.bytes = new TokenBucket(bytesPerSecond, burstSeconds);
+    }
+
+    /**
+     * Blocks until the given documents and bytes can be sent.
+     * @param docCount number of documents
+     * @param byteCount number of bytes
+     * @throws InterruptedException thread interrupted while waiting
+     */
+    void acquire(int docCount, long byteCount) throws InterruptedException {
+        long waitNanos = Math.max(
+                docs.reserve(docCount), bytes.reserve(byteCount));
+        if (waitNanos > 0) {
+            throttledNanos.addAndGet(waitNanos);
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    boolean isLimited() {
+        return docs.getRate() > 0 || bytes.getRate() > 0;
+    }
+
+    @Override
+    public double getMaxDocsPerSecond() {
+        return docs.getRate();
+    }
+    @Override
+    public void setMaxDocsPerSecond(double maxDocsPerSecond) {
+        docs.setRate(maxDocsPerSecond);
+    }
+    @Override
+    public long getMaxBytesPerSecond() {
+        return (long) bytes.getRate();
+    }
+    @Override
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        bytes.setRate(maxBytesPerSecond);
+    }
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    static class TokenBucket {
+        private final double burstSeconds;
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double rate, double burstSeconds) {
+            this.burstSeconds = Math.max(burstSeconds, 0);
+            setRate(rate);
+            this.tokens = capacity();
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+        synchronized void setRate(double rate) {
+            refill();
+            this.rate = rate;
+            tokens = Math.min(tokens, capacity());
+        }
+
+        // Takes tokens and returns how long to wait before using them
+        synchronized long reserve(double count) {
+            if (rate <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= count;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        private double capacity() {
+            // at least one token so single documents are never stuck
+            return Math.max(1, rate * burstSeconds);
+        }
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(capacity(), tokens
+                        + (now - lastRefill) * rate
+                                / TimeUnit.SECONDS.toNanos(1));
+            }
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+/**
+ * JMX view of the rate limits applied when sending documents to IDOL.
+ * Changes take effect on the next batch sent. Values of zero or less
+ * mean unlimited.
+ * @author Pascal Essiembre
+ * @since 3.1.0
+ */
+public interface IdolRateLimiterMBean {
+
+    double getMaxDocsPerSecond();
+    void setMaxDocsPerSecond(double maxDocsPerSecond);
+
+    long getMaxBytesPerSecond();
+    void setMaxBytesPerSecond(long maxBytesPerSecond);
+
+    /**
+     * Gets the total time batches waited because of rate limits.
+     * @return wait time, in milliseconds
+     */
+    long getThrottledMillis();
+}
@@ -0,0 +1,345 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Records requests sent to IDOL (URL, body as sent, timing and response
+ * code) so traffic can be replayed later with IdolReplay.
+ *
+ * Requests are sampled and appended to GZIP-compressed files named
+ * "idol-<millis>-<sequence>.rec.gz", each holding a header followed
+ * by records:
+ *
+ *   "IDOLREC" (UTF) and format version (int)
+ *   then for each record:
+ *     start time, epoch millis (long)
+ *     duration, nanoseconds (long)
+ *     HTTP status, -1 if no response (int)
+ *     number of documents (int)
+ *     URL (int length + UTF-8 bytes)
+ *     content type (int length + UTF-8 bytes)
+ *     whether body is GZIP-encoded (boolean)
+ *     body (long length + bytes)
+ *
+ * A new file is started once the current one exceeds the maximum file
+ * size, and the oldest files are deleted past the maximum file count.
+ * Files are flushed after each record so recordings survive crashes,
+ * up to the last complete record.
+ *
+ * Records are compressed and written by a background thread, holding
+ * on to the payload until written, so sending never waits on recording.
+ * Records are dropped if too many are waiting to be written.
+ */
+class IdolRecorder implements Closeable {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolRecorder.class);
+
+    static final String MAGIC = "IDOLREC";
+    static final int VERSION = 1;
+    static final String FILE_SUFFIX = ".rec.gz";
+    static final int MAX_PENDING = 16;
+    private static final long CLOSE_TIMEOUT = 30_000;
+
+    private final Path dir;
+    private final double sampleRate;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final ThreadPoolExecutor writer;
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    // only accessed by the writer thread, or once it is done
+    private CountingOutputStream counter;
+    private DataOutputStream out;
+    private int sequence;
+
+    IdolRecorder(Path dir, double sampleRate, long maxFileSize,
+            int maxFiles) {
+        this.dir = dir;
+        this.sampleRate = sampleRate;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING), r -> {
+                    Thread t = new Thread(r, "idol-recorder");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    // Whether the next request should be recorded
+    boolean sample() {
+        return sampleRate >= 1
+                || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Queues a request to be recorded.  Never blocks.
+     * @param rec request details
+     * @param payload request body, retained until written
+     */
+    void record(Record rec, IdolPayloadBuffer payload) {
+        payload.retain();
+        try {
+            writer.execute(new Write(rec, payload));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("IDOL recording queue full or closed, record dropped.");
+            droppedCount.incrementAndGet();
+            dispose(payload);
+        }
+    }
+
+    private void write(Record rec, IdolPayloadBuffer payload) {
+        try {
+            if (out == null || counter.getByteCount() >= maxFileSize) {
+                rotate();
+            }
+            rec.writeHeader(out, payload.size());
+            payload.writeTo(out);
+            out.flush();
+            recordCount.incrementAndGet();
+        } catch (IOException e) {
+            // recording must not get in the way of sending
+            LOG.error("Could not record IDOL request to {}.", dir, e);
+            closeQuietly();
+        }
+    }
+
+    private static void dispose(IdolPayloadBuffer payload) {
+        try {
+            payload.dispose();
+        } catch (IOException e) {
+            LOG.error("Could not dispose of recorded payload.", e);
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeQuietly();
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format("idol-%d-%04d%s",
+                System.currentTimeMillis(), sequence++, FILE_SUFFIX));
+        counter = new CountingOutputStream(Files.newOutputStream(file));
+        out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(counter, 8192, true), 64 * 1024));
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+        LOG.info("Recording IDOL requests to {}", file);
+
+        List<Path> files = files(dir);
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    // Recording files, oldest first
+    static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(
+                    FILE_SUFFIX)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    long getRecordCount() {
+        return recordCount.get();
+    }
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.error("Could not close IDOL recording.", e);
+            }
+            out = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(
+                    CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Timed out writing IDOL recording to {}.", dir);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable r : writer.shutdownNow()) {
+            droppedCount.incrementAndGet();
+            dispose(((Write) r).payload);
+        }
+        if (writer.isTerminated()) {
+            closeQuietly();
+        }
+        LOG.info("Recorded {} IDOL requests to {} ({} dropped).",
+                recordCount, dir, droppedCount);
+    }
+
+    private class Write implements Runnable {
+        private final Record rec;
+        private final IdolPayloadBuffer payload;
+        private Write(Record rec, IdolPayloadBuffer payload) {
+            this.rec = rec;
+            this.payload = payload;
+        }
+        @Override
+        public void run() {
+            try {
+                write(rec, payload);
+            } finally {
+                dispose(payload);
+            }
+        }
+    }
+
+    static class Record {
+        private long startTime;
+        private long durationNanos;
+        private int httpStatus = -1;
+        private int docCount;
+        private String url;
+        private String contentType;
+        private boolean gzipped;
+        private byte[] body;
+
+        Record() {
+        }
+        Record(long startTime, long durationNanos, int httpStatus,
+                int docCount, String url, String contentType,
+                boolean gzipped) {
+            this.startTime = startTime;
+            this.durationNanos = durationNanos;
+            this.httpStatus = httpStatus;
+            this.docCount = docCount;
+            this.url = url;
+            this.contentType = contentType;
+            this.gzipped = gzipped;
+        }
+
+        private void writeHeader(DataOutputStream out, long bodyLength)
+                throws IOException {
+            out.writeLong(startTime);
+            out.writeLong(durationNanos);
+            out.writeInt(httpStatus);
+            out.writeInt(docCount);
+            writeString(out, url);
+            writeString(out, contentType);
+            out.writeBoolean(gzipped);
+            out.writeLong(bodyLength);
+        }
+
+        /**
+         * Reads the next record.
+         * @param in recording input
+         * @return record or <code>null</code> if no more records
+         * @throws IOException problem reading
+         */
+        static Record read(DataInputStream in) throws IOException {
+            Record rec = new Record();
+            try {
+                rec.startTime = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            rec.durationNanos = in.readLong();
+            rec.httpStatus = in.readInt();
+            rec.docCount = in.readInt();
+            rec.url = readString(in);
+            rec.contentType = readString(in);
+            rec.gzipped = in.readBoolean();
+            long length = in.readLong();
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Recorded body too large: " + length);
+            }
+            rec.body = new byte[(int) length];
+            in.readFully(rec.body);
+            return rec;
+        }
+
+        static void readHeader(DataInputStream in) throws IOException {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                throw new IOException("Not a supported IDOL recording.");
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String value)
+                throws IOException {
+            byte[] bytes = value == null
+                    ? new byte[0] : value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        private static String readString(DataInputStream in)
+                throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        long getStartTime() {
+            return startTime;
+        }
+        long getDurationNanos() {
+            return durationNanos;
+        }
+        int getHttpStatus() {
+            return httpStatus;
+        }
+        int getDocCount() {
+            return docCount;
+        }
+        String getUrl() {
+            return url;
+        }
+        String getContentType() {
+            return contentType;
+        }
+        boolean isGzipped() {
+            return gzipped;
+        }
+        byte[] getBody() {
+            return body;
+        }
+    }
+}
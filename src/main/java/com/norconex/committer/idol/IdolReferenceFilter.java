@@ -0,0 +1,134 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Persistent Bloom filter of references successfully sent to IDOL
+ * as upserts. The filter bits live in a memory-mapped file so they
+ * survive restarts without being loaded on heap.
+ *
+ * A Bloom filter never gives false negatives: a reference that was sent
+ * is always reported as possibly sent. False positives only result
+ * in a deletion being sent when it was not necessary.
+ *
+ * File layout: number of bits (long), number of hash functions (int),
+ * followed by the bits.
+ */
+class IdolReferenceFilter implements Closeable {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolReferenceFilter.class);
+
+    static final String FILE_NAME = "idol-sent-references.bloom";
+    static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long numBits;
+    private final int numHashes;
+
+    IdolReferenceFilter(Path dir, long capacity) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE_NAME);
+        boolean exists = Files.exists(file) && Files.size(file) > HEADER_SIZE;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (exists) {
+            MappedByteBuffer header =
+                    channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+            this.numBits = header.getLong();
+            this.numHashes = header.getInt();
+            if (numBits != optimalNumBits(capacity)) {
+                LOG.warn("Sent references filter \"{}\" was created "
+                        + "for a different capacity and will keep using it. "
+                        + "Recreating it would skip deletions of all "
+                        + "documents sent so far.", file);
+            }
+        } else {
+            this.numBits = optimalNumBits(capacity);
+            this.numHashes = Math.max(1, (int) Math.round(
+                    (double) numBits / capacity * Math.log(2)));
+        }
+        this.buffer = channel.map(MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (numBits + 7) / 8);
+        if (!exists) {
+            buffer.putLong(0, numBits);
+            buffer.putInt(Long.BYTES, numHashes);
+            buffer.force();
+        }
+    }
+
+    synchronized void add(String reference) {
+        long[] h = hash(reference);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = index(h, i);
+            int pos = HEADER_SIZE + (int) (bit >>> 3);
+            buffer.put(pos, (byte) (buffer.get(pos) | (1 << (bit & 7))));
+        }
+    }
+
+    synchronized boolean mightContain(String reference) {
+        long[] h = hash(reference);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = index(h, i);
+            int pos = HEADER_SIZE + (int) (bit >>> 3);
+            if ((buffer.get(pos) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized void commit() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private long index(long[] h, int i) {
+        return Math.floorMod(h[0] + i * h[1], numBits);
+    }
+    private static long[] hash(String reference) {
+        byte[] bytes = reference.getBytes(UTF_8);
+        return MurmurHash3.hash128x64(bytes, 0, bytes.length, 0);
+    }
+    private static long optimalNumBits(long capacity) {
+        long bits = (long) (-capacity * Math.log(FALSE_POSITIVE_RATE)
+                / (Math.log(2) * Math.log(2)));
+        // the mapped buffer is limited to Integer.MAX_VALUE bytes
+        return Math.max(64, Math.min(bits,
+                (Integer.MAX_VALUE - (long) HEADER_SIZE) * 8));
+    }
+}
@@ -0,0 +1,212 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.norconex.committer.idol.IdolRecorder.Record;
+import com.norconex.commons.lang.Sleeper;
+import com.norconex.commons.lang.url.HttpURL;
+
+/**
+ * <p>
+ * Replays IDOL requests recorded by {@link IdolCommitter} (see
+ * <code>recordDir</code>) against an IDOL server or any stand-in, to
+ * reproduce and tune ingestion performance off-line.
+ * </p>
+ * <p>
+ * Requests are sent one after the other with their recorded bodies,
+ * to the given base URL (protocol, host and port are replaced, path and
+ * query string are kept). By default, the time between requests matches
+ * the recording. A speed factor can be given to replay faster
+ * (e.g., 2 for twice as fast), or 0 to send requests as fast as possible.
+ * Requests staged as files (<code>DREADD</code>) refer to files that
+ * must be readable by the target server.
+ * </p>
+ * <p>
+ * Usage:
+ * </p>
+ * <pre>
+ * java -cp "lib/*" com.norconex.committer.idol.IdolReplay \
+ *     &lt;recording file or directory&gt; &lt;target URL&gt; [speed]
+ * </pre>
+ *
+ * @author Pascal Essiembre
+ * @since 3.1.0
+ */
+public final class IdolReplay {
+
+    private final URL target;
+    private final double speed;
+    private final PrintStream log;
+
+    private long replayStart = -1;
+    private long recordStart;
+    private long count;
+    private long errors;
+    private long docCount;
+    private long recordedNanos;
+    private long replayedNanos;
+
+    IdolReplay(URL target, double speed, PrintStream log) {
+        this.target = target;
+        this.speed = speed;
+        this.log = log;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: IdolReplay <recording file or "
+                    + "directory> <target URL> [speed]");
+            System.exit(1);
+        }
+        Path path = Paths.get(args[0]);
+        List<Path> files = Files.isDirectory(path)
+                ? IdolRecorder.files(path) : Collections.singletonList(path);
+        IdolReplay replay = new IdolReplay(new URL(args[1]),
+                args.length > 2 ? NumberUtils.toDouble(args[2], 1) : 1,
+                System.out);
+        for (Path file : files) {
+            replay.replay(file);
+        }
+        replay.printSummary();
+    }
+
+    void replay(Path file) throws IOException {
+        log.println("Replaying " + file);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(
+                        Files.newInputStream(file))))) {
+            Record.readHeader(in);
+            Record rec;
+            while ((rec = readQuietly(in)) != null) {
+                replay(rec);
+            }
+        }
+    }
+
+    // Recordings cut short (e.g., by a crash) are read up to the
+    // last complete record.
+    private Record readQuietly(DataInputStream in) {
+        try {
+            return Record.read(in);
+        } catch (IOException e) {
+            log.println("Recording ends with an incomplete record: " + e);
+            return null;
+        }
+    }
+
+    private void replay(Record rec) {
+        if (replayStart < 0) {
+            replayStart = System.currentTimeMillis();
+            recordStart = rec.getStartTime();
+        } else if (speed > 0) {
+            long due = replayStart + (long) (
+                    (rec.getStartTime() - recordStart) / speed);
+            long wait = due - System.currentTimeMillis();
+            if (wait > 0) {
+                Sleeper.sleepMillis(wait);
+            }
+        }
+
+        long start = System.nanoTime();
+        int status = send(rec);
+        long elapsed = System.nanoTime() - start;
+        count++;
+        docCount += rec.getDocCount();
+        recordedNanos += rec.getDurationNanos();
+        replayedNanos += elapsed;
+        if (status < 200 || status >= 300) {
+            errors++;
+        }
+        log.println(String.format("%s docs=%d bytes=%d recorded=%dms/%d "
+                + "replayed=%dms/%d", rec.getUrl(), rec.getDocCount(),
+                rec.getBody().length, toMillis(rec.getDurationNanos()),
+                rec.getHttpStatus(), toMillis(elapsed), status));
+    }
+
+    private int send(Record rec) {
+        HttpURLConnection con = null;
+        try {
+            HttpURL url = new HttpURL(rec.getUrl());
+            url.setProtocol(target.getProtocol());
+            url.setHost(target.getHost());
+            url.setPort(target.getPort() == -1
+                    ? target.getDefaultPort() : target.getPort());
+            con = (HttpURLConnection) url.toURL().openConnection();
+            con.setDoInput(true);
+            con.setDoOutput(true);
+            con.setUseCaches(false);
+            con.setRequestMethod("POST");
+            con.setRequestProperty("Content-Type", rec.getContentType());
+            if (rec.isGzipped()) {
+                con.setRequestProperty("Content-Encoding", "gzip");
+            }
+            con.setFixedLengthStreamingMode(rec.getBody().length);
+            try (OutputStream out = con.getOutputStream()) {
+                out.write(rec.getBody());
+            }
+            int status = con.getResponseCode();
+            try (InputStream in = status >= 400
+                    ? con.getErrorStream() : con.getInputStream()) {
+                if (in != null) {
+                    IOUtils.consume(in);
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            if (con != null) {
+                con.disconnect();
+            }
+            log.println("Could not send request: " + e);
+            return -1;
+        }
+    }
+
+    void printSummary() {
+        log.println(String.format("Replayed %d requests (%d documents), "
+                + "%d failed. Total request time: recorded=%dms, "
+                + "replayed=%dms.", count, docCount, errors,
+                toMillis(recordedNanos), toMillis(replayedNanos)));
+    }
+
+    long getCount() {
+        return count;
+    }
+    long getErrors() {
+        return errors;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
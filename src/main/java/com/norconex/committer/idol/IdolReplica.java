@@ -0,0 +1,354 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.norconex.committer.idol.IdolMemoryGovernor.Permit;
+import com.norconex.commons.lang.Sleeper;
+import com.norconex.commons.lang.file.FileUtil;
+
+/* Replica IDOL cluster (e.g., for disaster recovery) sent the same
+ * requests as the primary one, from the same serialized payloads.
+ *
+ * Requests are sent in order on the replica own thread, with its own
+ * retries, so a slow or unavailable replica does not hold back the
+ * primary.  Up to a maximum number of requests wait in memory to be
+ * sent, as long as the shared batch memory (if limited) has room for
+ * them.  Past that, or once a request still fails after retries,
+ * requests are spooled to disk and sent once the replica catches up.
+ * Each request reserves its place in the spool when submitted, so
+ * requests are spooled (and sent) in order even when ones held in
+ * memory are spooled after newer ones.  Requests are only lost if the
+ * replica rejects them, or its spool is full.
+ *
+ * Lag is how long the oldest request not sent yet has been waiting.
+ */
+class IdolReplica {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolReplica.class);
+
+    static final String DIR_NAME = "idol-replicas";
+
+    // minimum delay between attempts to send spooled requests
+    private static final long MIN_DRAIN_DELAY = 1000;
+
+    @FunctionalInterface
+    interface Sender {
+        IdolResponse send(URL url, String contentType, boolean compressed,
+                int batchSize, IdolPayloadBuffer payload)
+                        throws IdolException;
+    }
+
+    private final URL base;
+    private final IdolSpool spool;
+    private final Sender sender;
+    private final int maxPending;
+    private final int maxRetries;
+    private final long retryDelay;
+    private final long maxBatchMemory;
+    private final Path payloadDir;
+    private final IdolMemoryGovernor memoryGovernor;
+    private final ExecutorService executor;
+
+    // requests held in memory, oldest first
+    private final Queue<Request> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong spooledCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private boolean drainScheduled;
+
+    IdolReplica(String url, Path workDir, IdolCommitterConfig config,
+            Path payloadDir, IdolMemoryGovernor memoryGovernor,
+            Sender sender) throws IOException {
+        this.base = new URL(url);
+        this.spool = new IdolSpool(workDir.resolve(DIR_NAME).resolve(
+                FileUtil.toSafeFileName(base.getAuthority())),
+                config.getMaxSpoolSize());
+        this.sender = sender;
+        this.maxPending = config.getReplicaMaxPending();
+        this.maxRetries = config.getMaxRetries();
+        this.retryDelay = config.getRetryDelay();
+        this.maxBatchMemory = config.getMaxBatchMemory();
+        this.payloadDir = payloadDir;
+        this.memoryGovernor = memoryGovernor;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "idol-replica-" + base.getAuthority());
+            t.setDaemon(true);
+            return t;
+        });
+        if (spool.isPending()) {
+            synchronized (this) {
+                scheduleDrain(0);
+            }
+        }
+    }
+
+    String getUrl() {
+        return base.toString();
+    }
+
+    /**
+     * Queues a request to be sent to this replica.  Never blocks.
+     * @param url request URL on the primary
+     * @param contentType request content type
+     * @param compressed whether the payload is GZIP-encoded
+     * @param batchSize number of documents
+     * @param payload request body, retained until sent or spooled,
+     *     spooled right away if shared batch memory is not available
+     */
+    void submit(URL url, String contentType, boolean compressed,
+            int batchSize, IdolPayloadBuffer payload) {
+        Request req;
+        try {
+            URL replicaUrl = replicaUrl(url);
+            req = new Request(replicaUrl, new IdolSpool.Entry(
+                    replicaUrl.toString(), contentType, compressed,
+                    batchSize), payload);
+        } catch (MalformedURLException e) {
+            LOG.error("Invalid URL for IDOL replica {}.", base, e);
+            droppedCount.incrementAndGet();
+            return;
+        }
+        synchronized (this) {
+            spool.reserve(req.entry);
+            if (executor.isShutdown() || spool.isPending()
+                    || pending.size() >= maxPending || !req.holdMemory()) {
+                spool(req.entry, payload);
+                return;
+            }
+            pending.add(req);
+            payload.retain();
+            executor.execute(req);
+        }
+    }
+
+    // Same path and query, on the replica host.
+    private URL replicaUrl(URL url) throws MalformedURLException {
+        return new URL(base.getProtocol(), base.getHost(),
+                base.getPort(), url.getFile());
+    }
+
+    long getLag() {
+        Request req = pending.peek();
+        long oldest = req == null ? -1 : req.submitted;
+        try {
+            long spooled = spool.oldestTime();
+            if (spooled >= 0 && (oldest < 0 || spooled < oldest)) {
+                oldest = spooled;
+            }
+        } catch (IOException e) {
+            LOG.debug("Could not get oldest spooled request time.", e);
+        }
+        return oldest < 0 ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    /**
+     * Sends requests held in memory, up to the given time, and spools
+     * those left.
+     * @param deadline time past which to stop sending
+     */
+    void close(long deadline) {
+        synchronized (this) {
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Math.max(0,
+                    deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> left = executor.shutdownNow();
+        for (Runnable r : left) {
+            if (r instanceof Request) {
+                ((Request) r).spoolOnClose();
+            }
+        }
+        LOG.info("IDOL replica {}: sent={}, spooled={}, dropped={}, "
+                + "lag={} ms, left in spool={}", base, sentCount,
+                spooledCount, droppedCount, getLag(), spool.count());
+    }
+
+    private void spool(IdolSpool.Entry entry, IdolPayloadBuffer payload) {
+        try {
+            spool.add(entry, payload);
+            spooledCount.incrementAndGet();
+            synchronized (this) {
+                if (!drainScheduled) {
+                    scheduleDrain(Math.max(MIN_DRAIN_DELAY, retryDelay));
+                }
+            }
+        } catch (IOException e) {
+            droppedCount.incrementAndGet();
+            LOG.error("Could not spool request for IDOL replica {}, "
+                    + "request dropped.", base, e);
+        }
+    }
+
+    // Must be invoked holding this object lock.  Requests are spooled
+    // while spooled ones are pending, so the replica thread has nothing
+    // else to send while waiting.
+    private void scheduleDrain(long delay) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        drainScheduled = true;
+        executor.execute(() -> {
+            Sleeper.sleepMillis(delay);
+            drain();
+        });
+    }
+
+    // Sends spooled requests in order, until one fails.
+    private void drain() {
+        synchronized (this) {
+            drainScheduled = false;
+        }
+        try {
+            IdolSpool.Entry entry;
+            while ((entry = spool.peek()) != null) {
+                IdolPayloadBuffer payload =
+                        new IdolPayloadBuffer(maxBatchMemory, payloadDir);
+                try {
+                    entry.writeTo(payload);
+                    sender.send(new URL(entry.getUrl()),
+                            entry.getContentType(), entry.isCompressed(),
+                            entry.getBatchSize(), payload);
+                    sentCount.incrementAndGet();
+                    spool.remove(entry);
+                } catch (IdolException e) {
+                    if (e.isRetryable()) {
+                        LOG.debug("IDOL replica {} still unavailable: {}",
+                                base, e.getMessage());
+                        synchronized (this) {
+                            scheduleDrain(Math.max(
+                                    MIN_DRAIN_DELAY, retryDelay));
+                        }
+                        return;
+                    }
+                    droppedCount.incrementAndGet();
+                    LOG.error("IDOL replica {} rejected spooled request, "
+                            + "moved to \"error\" spool directory: {}",
+                            base, entry, e);
+                    spool.reject(entry);
+                } finally {
+                    payload.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not send spooled requests to IDOL replica {}.",
+                    base, e);
+            synchronized (this) {
+                scheduleDrain(Math.max(MIN_DRAIN_DELAY, retryDelay));
+            }
+        }
+    }
+
+    // A request held in memory, sent in order on the replica thread.
+    private class Request implements Runnable {
+        private final URL url;
+        private final IdolSpool.Entry entry;
+        private final IdolPayloadBuffer payload;
+        private final long submitted = System.currentTimeMillis();
+        private Permit permit;
+        private Request(URL url, IdolSpool.Entry entry,
+                IdolPayloadBuffer payload) {
+            this.url = url;
+            this.entry = entry;
+            this.payload = payload;
+        }
+        // Whether the shared batch memory has room for the payload.
+        private boolean holdMemory() {
+            if (memoryGovernor != null) {
+                permit = memoryGovernor.tryAcquire(payload.memorySize());
+                return permit != null;
+            }
+            return true;
+        }
+        @Override
+        public void run() {
+            try {
+                send();
+            } finally {
+                done();
+            }
+        }
+        private void send() {
+            // spooled requests are older and must be sent first
+            if (spool.isPending()) {
+                spool(entry, payload);
+                return;
+            }
+            int attempt = 0;
+            while (true) {
+                try {
+                    sender.send(url, entry.getContentType(),
+                            entry.isCompressed(), entry.getBatchSize(),
+                            payload);
+                    sentCount.incrementAndGet();
+                    return;
+                } catch (IdolException e) {
+                    if (!e.isRetryable()) {
+                        droppedCount.incrementAndGet();
+                        LOG.error("IDOL replica {} rejected request of {} "
+                                + "documents.", base, entry.getBatchSize(),
+                                e);
+                        return;
+                    }
+                    if (attempt >= maxRetries
+                            || executor.isShutdown()) {
+                        LOG.warn("Could not send to IDOL replica {}, "
+                                + "request spooled. Cause: {}", base,
+                                e.getMessage());
+                        spool(entry, payload);
+                        return;
+                    }
+                    attempt++;
+                    Sleeper.sleepMillis(retryDelay);
+                }
+            }
+        }
+        private void spoolOnClose() {
+            spool(entry, payload);
+            done();
+        }
+        private void done() {
+            pending.remove(this);
+            try {
+                payload.dispose();
+            } catch (IOException e) {
+                LOG.error("Could not dispose of replica payload.", e);
+            }
+            if (permit != null) {
+                permit.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/* Parsed IDOL index action response.  Two formats are supported:
+ *
+ * Plain text, returned by DIH/Content index actions:
+ *
+ *   INDEXID=1234
+ *
+ * XML, returned by CFS and by any IDOL component on error:
+ *
+ *   <autnresponse>
+ *     <action>INGEST</action>
+ *     <response>ERROR</response>
+ *     <responsedata>
+ *       <error>
+ *         <errorid>...</errorid>
+ *         <errorstring>...</errorstring>
+ *         <errordescription>...</errordescription>
+ *         <errorcode>...</errorcode>
+ *       </error>
+ *     </responsedata>
+ *   </autnresponse>
+ *
+ * Documents reported individually in error (a "document" element with
+ * "reference" and "error" children) are kept as document errors.
+ *
+ * Responses are parsed as they are read, only keeping the values of
+ * known elements, then consumed to the end so the HTTP connection
+ * can be reused.
+ */
+class IdolResponse {
+
+    // IDOL error codes/descriptions suggesting a temporary condition
+    private static final Pattern RETRYABLE_ERROR = Pattern.compile(
+            "(?i).*(busy|timeout|timed out|unavailable|notavailable"
+                    + "|queue.?full|too many|try again).*", Pattern.DOTALL);
+    private static final Set<Integer> RETRYABLE_HTTP_STATUSES =
+            new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+    private static final Set<String> CAPTURED_ELEMENTS =
+            new HashSet<>(Arrays.asList("response", "errorid", "errorcode",
+                    "errorstring", "errordescription", "reference", "error",
+                    "indexid"));
+    private static final int MAX_TEXT_KEPT = 1024;
+
+    private static final XMLInputFactory XML_FACTORY;
+    static {
+        XML_FACTORY = XMLInputFactory.newInstance();
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final int httpStatus;
+    private String status;
+    private long indexId = -1;
+    private String errorId;
+    private String errorCode;
+    private String errorDescription;
+    private final List<DocumentError> documentErrors = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+
+    private IdolResponse(int httpStatus) {
+        this.httpStatus = httpStatus;
+    }
+
+    /**
+     * Parses an IDOL response, consuming the stream entirely.
+     * @param httpStatus HTTP response status code
+     * @param in response body (can be <code>null</code>)
+     * @return IDOL response
+     * @throws IOException could not read response
+     */
+    static IdolResponse parse(int httpStatus, InputStream in)
+            throws IOException {
+        IdolResponse resp = new IdolResponse(httpStatus);
+        if (in == null) {
+            return resp;
+        }
+        PushbackInputStream pin = new PushbackInputStream(in, 1);
+        int b;
+        while ((b = pin.read()) != -1 && Character.isWhitespace(b)) {
+            // skip leading white spaces
+        }
+        if (b != -1) {
+            pin.unread(b);
+            if (b == '<') {
+                resp.parseXml(pin);
+            } else {
+                resp.parseText(pin);
+            }
+        }
+        IOUtils.consume(pin);
+        return resp;
+    }
+
+    private void parseText(InputStream in) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, UTF_8));
+        String line;
+        while ((line = r.readLine()) != null) {
+            line = line.trim();
+            if (StringUtils.startsWithIgnoreCase(line, "INDEXID=")) {
+                indexId = NumberUtils.toLong(
+                        StringUtils.substringAfter(line, "="), -1);
+            } else if (!line.isEmpty()) {
+                keepText(line);
+            }
+        }
+        if (indexId >= 0) {
+            status = "SUCCESS";
+        }
+    }
+
+    private void parseXml(InputStream in) throws IOException {
+        Deque<String> path = new ArrayDeque<>();
+        StringBuilder value = new StringBuilder();
+        String docRef = null;
+        String docError = null;
+        try {
+            // some StAX implementations close the stream once done
+            XMLStreamReader xml = XML_FACTORY.createXMLStreamReader(
+                    CloseShieldInputStream.wrap(in));
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName().toLowerCase();
+                    if ("document".equals(name)) {
+                        docRef = null;
+                        docError = null;
+                    }
+                    path.push(name);
+                    value.setLength(0);
+                } else if ((event == XMLStreamConstants.CHARACTERS
+                        || event == XMLStreamConstants.CDATA)
+                        && !path.isEmpty()
+                        && CAPTURED_ELEMENTS.contains(path.peek())
+                        && value.length() < MAX_TEXT_KEPT) {
+                    value.append(xml.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = path.pop();
+                    String v = StringUtils.trimToNull(value.toString());
+                    value.setLength(0);
+                    boolean inDoc = path.contains("document");
+                    if ("response".equals(name) && path.size() == 1) {
+                        status = v;
+                    } else if ("indexid".equals(name)) {
+                        indexId = NumberUtils.toLong(v, indexId);
+                    } else if (inDoc && "reference".equals(name)) {
+                        docRef = v;
+                    } else if (inDoc && "error".equals(name) && v != null) {
+                        docError = v;
+                    } else if ("errorid".equals(name)) {
+                        errorId = v;
+                    } else if ("errorcode".equals(name)) {
+                        errorCode = v;
+                    } else if ("errordescription".equals(name)) {
+                        errorDescription = v;
+                    } else if ("errorstring".equals(name)
+                            && errorDescription == null) {
+                        errorDescription = v;
+                    } else if ("document".equals(name) && docError != null) {
+                        documentErrors.add(
+                                new DocumentError(docRef, docError));
+                    }
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException e) {
+            // not XML after all, keep what we can for error reporting
+            keepText("Unparseable XML response: " + e.getMessage());
+        }
+    }
+
+    private void keepText(String line) {
+        if (text.length() < MAX_TEXT_KEPT) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(StringUtils.abbreviate(
+                    line, MAX_TEXT_KEPT - text.length()));
+        }
+    }
+
+    int getHttpStatus() {
+        return httpStatus;
+    }
+    // e.g., SUCCESS or ERROR, null if not found in response
+    String getStatus() {
+        return status;
+    }
+    // -1 if not found in response
+    long getIndexId() {
+        return indexId;
+    }
+    String getErrorId() {
+        return errorId;
+    }
+    String getErrorCode() {
+        return errorCode;
+    }
+    String getErrorDescription() {
+        return errorDescription;
+    }
+    List<DocumentError> getDocumentErrors() {
+        return Collections.unmodifiableList(documentErrors);
+    }
+
+    boolean isSuccess() {
+        return httpStatus >= 200 && httpStatus < 300
+                && "SUCCESS".equalsIgnoreCase(status)
+                && errorId == null && errorCode == null
+                && documentErrors.isEmpty();
+    }
+
+    /**
+     * Whether a failed request could succeed if sent again, as with
+     * a busy or unavailable server. Problems with documents themselves
+     * are never considered retryable.
+     * @return <code>true</code> if retryable
+     */
+    boolean isRetryable() {
+        if (isSuccess() || !documentErrors.isEmpty()) {
+            return false;
+        }
+        if (RETRYABLE_HTTP_STATUSES.contains(httpStatus)) {
+            return true;
+        }
+        return RETRYABLE_ERROR.matcher(StringUtils.join(new String[] {
+                errorId, errorCode, errorDescription }, ' ')).matches();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("HTTP ").append(httpStatus);
+        if (status != null) {
+            b.append(", status=").append(status);
+        }
+        if (indexId >= 0) {
+            b.append(", indexId=").append(indexId);
+        }
+        if (errorId != null) {
+            b.append(", errorId=").append(errorId);
+        }
+        if (errorCode != null) {
+            b.append(", errorCode=").append(errorCode);
+        }
+        if (errorDescription != null) {
+            b.append(", error=").append(errorDescription);
+        }
+        if (!documentErrors.isEmpty()) {
+            b.append(", documentErrors=").append(documentErrors);
+        }
+        if (text.length() > 0) {
+            b.append(", text=").append(text);
+        }
+        return b.toString();
+    }
+
+    static class DocumentError {
+        private final String reference;
+        private final String error;
+        DocumentError(String reference, String error) {
+            this.reference = reference;
+            this.error = error;
+        }
+        String getReference() {
+            return reference;
+        }
+        String getError() {
+            return error;
+        }
+        @Override
+        public String toString() {
+            return reference + ": " + error;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+
+/* Streaming "DREADDDATA" session: a single chunked POST kept open while
+ * documents of several committer batches are written to it, ended
+ * with "#DREENDDATANOOP" once a time, document or size window is
+ * reached.
+ *
+ * Everything written to the connection is also written to a session
+ * file, synced before a batch is considered sent, so documents are not
+ * lost if the connection or the JVM fails before IDOL responds.  The
+ * file is deleted once IDOL accepted the session, otherwise it is sent
+ * again as a regular request, up to its last complete document.  If
+ * IDOL rejects it for good, it is moved to an "error" sub-directory.
+ *
+ * Should writing a batch fail (e.g., content could not be read), the
+ * connection is dropped so IDOL does not get partial documents, and the
+ * file is truncated to the end of the last batch written, for the
+ * session to be sent again without the failed batch.
+ *
+ * Tasks can be run once IDOL accepted the session (e.g., saving
+ * checksums of documents written to it).  They are not run for sessions
+ * sent again from their file.
+ */
+class IdolSession {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolSession.class);
+
+    static final String DIR_NAME = "idol-sessions";
+
+    private static final String EXTENSION = ".idx";
+
+    private final Path file;
+    private final FileChannel channel;
+    private final HttpURLConnection con;
+    private final Writer writer;
+    private final long openedAt = System.currentTimeMillis();
+    private final List<Runnable> whenSent = new ArrayList<>();
+    private boolean sent;
+    private OutputStream http;
+    private int docCount;
+    private long size;
+    // file size up to the last batch written
+    private long completeSize;
+    private boolean aborted;
+
+    /**
+     * Opens a session.
+     * @param dir directory where to write the session file
+     * @param con connection to stream the session to, or <code>null</code>
+     *     to only write the session file (e.g., IDOL is unavailable)
+     * @throws IOException could not create the session file
+     */
+    IdolSession(Path dir, HttpURLConnection con) throws IOException {
+        Files.createDirectories(dir);
+        // named after creation time, so pending sessions sort in order
+        long stamp = System.currentTimeMillis();
+        Path f;
+        FileChannel ch;
+        while (true) {
+            f = dir.resolve(String.format("%019d%s", stamp, EXTENSION));
+            try {
+                ch = FileChannel.open(f, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                stamp++;
+            }
+        }
+        this.file = f;
+        this.channel = ch;
+        this.con = con;
+        if (con != null) {
+            try {
+                con.setChunkedStreamingMode(0);
+                http = con.getOutputStream();
+            } catch (IOException e) {
+                broken(e);
+            }
+        }
+        this.writer = new BufferedWriter(
+                new OutputStreamWriter(new TeeStream(), UTF_8));
+    }
+
+    // Session files left by previous sessions, oldest first.
+    static List<Path> pending(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(f -> f.getFileName().toString().endsWith(
+                    EXTENSION)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // Sets aside a session file IDOL rejected.
+    static void reject(Path file) throws IOException {
+        Path errorDir = file.resolveSibling("error");
+        Files.createDirectories(errorDir);
+        Files.move(file, errorDir.resolve(file.getFileName()),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Copies a session file up to its last complete document, ending
+     * the data, so it can be sent as a regular request.
+     * @param file session file
+     * @param out where to copy the session
+     * @return number of complete documents copied
+     * @throws IOException could not read the session file
+     */
+    static int copyComplete(Path file, OutputStream out) throws IOException {
+        CompleteScan scan = new CompleteScan();
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(file))) {
+            scan.scan(in);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            IOUtils.copyLarge(in, out, 0, scan.length);
+        }
+        out.write(DreAddDataAction.END_DATA.getBytes(UTF_8));
+        return scan.docs;
+    }
+
+    Path getFile() {
+        return file;
+    }
+    int getDocCount() {
+        return docCount;
+    }
+    long getSize() {
+        return size;
+    }
+    long getAge() {
+        return System.currentTimeMillis() - openedAt;
+    }
+    // Whether the connection failed and IDOL will not get this session.
+    boolean isBroken() {
+        return http == null;
+    }
+    // Whether writing a batch failed, the session can only be ended.
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Writes documents to the session, returning once they are synced
+     * to the session file.  If it fails, the session is aborted.
+     * @param batch upserts
+     * @param action writes upserts as IDX
+     * @throws CommitterException could not write to the session
+     */
+    void write(List<ICommitterRequest> batch, DreAddDataAction action)
+            throws CommitterException {
+        if (aborted) {
+            throw new CommitterException(
+                    "IDOL session was aborted: " + file);
+        }
+        try {
+            action.writeDocuments(batch, writer);
+            writer.flush();
+            channel.force(false);
+        } catch (CommitterException | RuntimeException e) {
+            abort();
+            throw e;
+        } catch (IOException e) {
+            abort();
+            throw new CommitterException(
+                    "Could not write to IDOL session file: " + file, e);
+        }
+        docCount += batch.size();
+        completeSize = size;
+    }
+
+    // Drops the connection and what was written of the failed batch.
+    private void abort() {
+        aborted = true;
+        if (http != null) {
+            // not closing the stream, which would end the request
+            // normally, with a partial document
+            con.disconnect();
+            http = null;
+        }
+        try {
+            channel.truncate(completeSize);
+            channel.force(false);
+        } catch (IOException e) {
+            // sent again up to its last complete document anyway
+            LOG.error("Could not truncate IDOL session file: {}", file, e);
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Ends the session and reads the IDOL response.
+     * @return IDOL response
+     * @throws IdolException connection failed or IDOL reported an error,
+     *     the session file must be sent again
+     * @throws IOException could not write to the session file
+     */
+    IdolResponse finish() throws IdolException, IOException {
+        if (aborted) {
+            throw new IdolException("IDOL session was aborted.",
+                    (Throwable) null);
+        }
+        writer.append(DreAddDataAction.END_DATA);
+        writer.flush();
+        channel.force(false);
+        channel.close();
+        if (http == null) {
+            throw new IdolException("IDOL session connection was lost.",
+                    (Throwable) null);
+        }
+        try {
+            http.close();
+            int code = con.getResponseCode();
+            InputStream body = code >= 400
+                    ? con.getErrorStream() : con.getInputStream();
+            IdolResponse resp;
+            try {
+                resp = IdolResponse.parse(code, body);
+            } finally {
+                IOUtils.closeQuietly(body);
+            }
+            if (!resp.isSuccess()) {
+                throw new IdolException(
+                        "Unexpected IDOL response to session:", resp);
+            }
+            return resp;
+        } catch (IOException e) {
+            con.disconnect();
+            throw new IdolException("IDOL session failed.", e);
+        }
+    }
+
+    // Runs a task once IDOL accepted the session, now if it already did.
+    synchronized void whenSent(Runnable task) {
+        if (sent) {
+            task.run();
+        } else {
+            whenSent.add(task);
+        }
+    }
+
+    // Once IDOL accepted the session.
+    synchronized void sent() {
+        sent = true;
+        for (Runnable task : whenSent) {
+            task.run();
+        }
+        whenSent.clear();
+    }
+
+    // Once IDOL accepted the session, or it was sent again.
+    void delete() throws IOException {
+        IOUtils.closeQuietly(channel);
+        Files.deleteIfExists(file);
+    }
+
+    private void broken(IOException e) {
+        LOG.warn("IDOL session connection lost, session will be sent "
+                + "again when ended: {}", e.getMessage());
+        LOG.debug("IDOL session connection error.", e);
+        IOUtils.closeQuietly(http);
+        if (con != null) {
+            con.disconnect();
+        }
+        http = null;
+    }
+
+    // Finds where the last complete document of a session file ends.
+    // Each section of a document ends like a document does, so where a
+    // document ends is only known once the next header is not that of
+    // another section of the same reference.
+    private static class CompleteScan {
+        private static final String END_DOC =
+                StringUtils.strip(DreAddDataAction.END_DOC, "\n");
+        private static final String END_DATA =
+                StringUtils.strip(DreAddDataAction.END_DATA, "\n");
+        // length up to the last complete document
+        private long length;
+        private int docs;
+        // end of the last section read, -1 if none or not the last one
+        private long sectionEnd = -1;
+        private String sectionRef;
+        // header of the next section or document
+        private boolean inHeader = true;
+        private boolean headerStarted;
+        private String ref;
+        private boolean section;
+
+        private void scan(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long lineLength = 0;
+            long pos = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                pos++;
+                if (b != '\n') {
+                    // content lines are only read as long as markers
+                    if (inHeader || line.size() <= END_DOC.length()) {
+                        line.write(b);
+                    }
+                    lineLength++;
+                    continue;
+                }
+                if (lineLength == line.size()) {
+                    line(new String(line.toByteArray(), UTF_8), pos);
+                }
+                line.reset();
+                lineLength = 0;
+            }
+            // cut short after a section: the document is complete if
+            // nothing follows, or another reference does
+            if (sectionEnd >= 0 && ((!headerStarted && lineLength == 0)
+                    || (ref != null && !ref.equals(sectionRef)))) {
+                documentEnd();
+            }
+        }
+        private void line(String line, long pos) {
+            if (!inHeader) {
+                if (END_DOC.equals(line)) {
+                    sectionEnd = pos;
+                    sectionRef = ref;
+                    inHeader = true;
+                    headerStarted = false;
+                    ref = null;
+                    section = false;
+                }
+                return;
+            }
+            if (line.isEmpty()) {
+                return;
+            }
+            headerStarted = true;
+            if (line.startsWith("#DREREFERENCE ")) {
+                ref = line.substring("#DREREFERENCE ".length());
+            } else if (line.startsWith("#DRESECTION ")) {
+                section = true;
+            } else if (END_DATA.equals(line)) {
+                documentEnd();
+            } else if ("#DRECONTENT".equals(line)) {
+                if (section && ref != null && ref.equals(sectionRef)) {
+                    // same document continued
+                    sectionEnd = -1;
+                } else {
+                    documentEnd();
+                }
+                inHeader = false;
+            }
+        }
+        private void documentEnd() {
+            if (sectionEnd >= 0) {
+                length = sectionEnd;
+                docs++;
+                sectionEnd = -1;
+            }
+        }
+    }
+
+    // Writes to the session file, and to the connection while it works.
+    private class TeeStream extends OutputStream {
+        private final OutputStream fileOut = Channels.newOutputStream(
+                channel);
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            fileOut.write(b, off, len);
+            size += len;
+            if (http != null) {
+                try {
+                    http.write(b, off, len);
+                } catch (IOException e) {
+                    broken(e);
+                }
+            }
+        }
+        @Override
+        public void flush() throws IOException {
+            if (http != null) {
+                try {
+                    http.flush();
+                } catch (IOException e) {
+                    broken(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Batches serialized for IDOL, stored on disk while IDOL is unavailable
+ * and sent in order once it is back.
+ *
+ * Each batch is appended to the spool as its own file, named after a
+ * sequence number so they are sent in the order they were spooled:
+ * "<sequence>.spool".  Files are written under a temporary name and
+ * synced before being renamed, so only complete batches are ever seen.
+ * They hold:
+ *
+ *   "IDOLSPOOL" (UTF) and format version (int)
+ *   URL (int length + UTF-8 bytes)
+ *   content type (int length + UTF-8 bytes)
+ *   whether body is GZIP-encoded (boolean)
+ *   number of documents (int)
+ *   body (long length + bytes)
+ *
+ * Once batches are spooled, batches that follow are also spooled until
+ * the spool is drained, so IDOL receives them in order.  A sequence
+ * number can also be reserved for a batch ahead of spooling it, for it
+ * to keep its place should later batches be spooled first.  Batches IDOL
+ * rejected when drained are moved to an "error" sub-directory.
+ */
+class IdolSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdolSpool.class);
+
+    static final String DIR_NAME = "idol-spool";
+
+    private static final String MAGIC = "IDOLSPOOL";
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".spool";
+
+    private final Path dir;
+    private final long maxSize;
+    private final NavigableSet<Path> files = new TreeSet<>();
+    private long sequence;
+    private long size;
+
+    IdolSpool(Path dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        Files.createDirectories(dir);
+        try (Stream<Path> s = Files.list(dir)) {
+            files.addAll(s.filter(f -> f.getFileName().toString().endsWith(
+                    EXTENSION)).sorted().collect(Collectors.toList()));
+        }
+        for (Path file : files) {
+            size += Files.size(file);
+            sequence = Math.max(sequence, NumberUtils.toLong(
+                    StringUtils.removeEnd(
+                            file.getFileName().toString(), EXTENSION)));
+        }
+        if (!files.isEmpty()) {
+            LOG.info("{} batches ({} bytes) spooled in {} will be sent "
+                    + "to IDOL first.", files.size(), size, dir);
+        }
+    }
+
+    // Whether batches are waiting to be sent.
+    synchronized boolean isPending() {
+        return !files.isEmpty();
+    }
+    synchronized int count() {
+        return files.size();
+    }
+    Path getDir() {
+        return dir;
+    }
+    // When the oldest batch was spooled, or -1 if none.
+    synchronized long oldestTime() throws IOException {
+        return files.isEmpty()
+                ? -1 : Files.getLastModifiedTime(files.first()).toMillis();
+    }
+
+    // Gives a batch its place in the spool, before it is spooled.
+    synchronized void reserve(Entry entry) {
+        entry.sequence = ++sequence;
+    }
+
+    /**
+     * Appends a batch to the spool.
+     * @param entry batch to spool
+     * @param payload serialized batch body
+     * @throws IOException could not spool, or spool is full
+     */
+    void add(Entry entry, IdolPayloadBuffer payload) throws IOException {
+        long entrySize = payload.size() + entry.url.length() + 64;
+        Path file;
+        synchronized (this) {
+            if (size + entrySize > maxSize) {
+                throw new IOException("IDOL spool is full (" + size
+                        + " bytes): " + dir);
+            }
+            size += entrySize;
+            file = dir.resolve(String.format("%019d%s", entry.sequence > 0
+                    ? entry.sequence : ++sequence, EXTENSION));
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeUTF(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, entry.url);
+                writeString(out, entry.contentType);
+                out.writeBoolean(entry.compressed);
+                out.writeInt(entry.batchSize);
+                out.writeLong(payload.size());
+                payload.writeTo(out);
+            }
+            try (FileChannel ch = FileChannel.open(
+                    tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+                synchronized (this) {
+                    size += ch.size() - entrySize;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                size -= entrySize;
+            }
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        // only complete batches are queued
+        synchronized (this) {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            files.add(file);
+        }
+    }
+
+    // Oldest batch spooled, or null if none.
+    synchronized Entry peek() throws IOException {
+        if (files.isEmpty()) {
+            return null;
+        }
+        Path file = files.first();
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(file))) {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                throw new IOException("Not an IDOL spool file: " + file);
+            }
+            Entry entry = new Entry(readString(in), readString(in),
+                    in.readBoolean(), in.readInt());
+            entry.file = file;
+            return entry;
+        }
+    }
+
+    // Removes a batch once sent.
+    synchronized void remove(Entry entry) throws IOException {
+        size = Math.max(0, size - Files.size(entry.file));
+        Files.deleteIfExists(entry.file);
+        files.remove(entry.file);
+    }
+
+    // Sets aside a batch IDOL rejected.
+    synchronized void reject(Entry entry) throws IOException {
+        Path errorDir = dir.resolve("error");
+        Files.createDirectories(errorDir);
+        size = Math.max(0, size - Files.size(entry.file));
+        Files.move(entry.file, errorDir.resolve(entry.file.getFileName()),
+                StandardCopyOption.REPLACE_EXISTING);
+        files.remove(entry.file);
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    static class Entry {
+        private final String url;
+        private final String contentType;
+        private final boolean compressed;
+        private final int batchSize;
+        private long sequence;
+        private Path file;
+
+        Entry(String url, String contentType,
+                boolean compressed, int batchSize) {
+            this.url = url;
+            this.contentType = contentType;
+            this.compressed = compressed;
+            this.batchSize = batchSize;
+        }
+
+        String getUrl() {
+            return url;
+        }
+        String getContentType() {
+            return contentType;
+        }
+        boolean isCompressed() {
+            return compressed;
+        }
+        int getBatchSize() {
+            return batchSize;
+        }
+
+        // Copies the spooled body to a payload buffer.
+        void writeTo(OutputStream out) throws IOException {
+            try (DataInputStream in = new DataInputStream(
+                    Files.newInputStream(file))) {
+                in.readUTF();
+                in.readInt();
+                readString(in);
+                readString(in);
+                in.readBoolean();
+                in.readInt();
+                IOUtils.copyLarge(in, out, 0, in.readLong());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file == null ? url : file.toString();
+        }
+    }
+}
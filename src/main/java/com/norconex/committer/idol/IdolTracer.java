@@ -0,0 +1,110 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Optional tracing of batches sent to IDOL, with OpenTelemetry:
+ *
+ *   IdolCommitter.commitBatch
+ *     idol.batch       (one per type-homogeneous sub-batch)
+ *       idol.serialize (IDX/CFS serialization)
+ *       idol.http      (HTTP round trip, one per attempt)
+ *
+ * Tracing is off by default, in which case a no-op tracer is used and
+ * OpenTelemetry classes are never loaded (it is an optional dependency).
+ * When on, spans are created with the globally registered OpenTelemetry
+ * instance (e.g., set by the OpenTelemetry Java agent), and the trace
+ * context is propagated to IDOL in request headers.
+ */
+abstract class IdolTracer {
+
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IdolTracer.class);
+
+    static final IdolTracer NOOP = new IdolTracer() {
+        @Override
+        Span span(String name) {
+            return NOOP_SPAN;
+        }
+        @Override
+        Span clientSpan(String name) {
+            return NOOP_SPAN;
+        }
+        @Override
+        <T> Callable<T> wrap(Callable<T> task) {
+            return task;
+        }
+    };
+
+    private static final Span NOOP_SPAN = new Span() {
+        @Override
+        public Span set(String key, long value) {
+            return this;
+        }
+        @Override
+        public Span set(String key, String value) {
+            return this;
+        }
+        @Override
+        public <E extends Throwable> E error(E e) {
+            return e;
+        }
+        @Override
+        public void inject(HttpURLConnection con) {
+            //NOOP
+        }
+        @Override
+        public void close() {
+            //NOOP
+        }
+    };
+
+    static IdolTracer create(IdolCommitterConfig config) {
+        if (!config.isTracing()) {
+            return NOOP;
+        }
+        try {
+            Class.forName("io.opentelemetry.api.GlobalOpenTelemetry");
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOG.warn("Tracing is enabled but the OpenTelemetry API was not "
+                    + "found on the classpath. Tracing disabled.");
+            return NOOP;
+        }
+        return new IdolOtelTracer();
+    }
+
+    // New span, current until closed
+    abstract Span span(String name);
+    // New span for a call to IDOL, current until closed
+    abstract Span clientSpan(String name);
+    // Task running with the current trace context, on any thread
+    abstract <T> Callable<T> wrap(Callable<T> task);
+
+    interface Span extends AutoCloseable {
+        Span set(String key, long value);
+        Span set(String key, String value);
+        // Marks the span as failed, returning the error
+        <E extends Throwable> E error(E e);
+        // Adds trace context headers to a request
+        void inject(HttpURLConnection con);
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import com.norconex.committer.idol.IdolJfr.Batch;
+import com.norconex.committer.idol.IdolJfr.CountingWriter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/* Java Flight Recorder event classes, loaded by IdolJfr when JFR is
+ * available.  Requires Java 11 to compile, see the "jfr" build profile.
+ */
+class IdolJfrEvents implements IdolJfr.Events {
+
+    @Override
+    public Object startBatch() {
+        BatchEvent event = new BatchEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void finishBatch(Object e, Batch batch) {
+        BatchEvent event = (BatchEvent) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = batch.getAction();
+            event.documents = batch.getDocuments();
+            event.bytes = batch.getBytes();
+            event.serializationTime = batch.getSerializationNanos();
+            event.networkTime = batch.getNetworkNanos();
+            event.attempts = batch.getAttempts();
+            event.outcome = batch.getOutcome();
+            event.commit();
+        }
+    }
+
+    @Override
+    public boolean isDocumentRecorded() {
+        return new DocumentEvent().isEnabled();
+    }
+
+    @Override
+    public Object startDocument(CountingWriter writer) {
+        DocumentEvent event = new DocumentEvent();
+        event.writer = writer;
+        event.startCount = writer.getCount();
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void finishDocument(Object e, String action, String reference,
+            long sizeThreshold, long timeThresholdNanos) {
+        DocumentEvent event = (DocumentEvent) e;
+        event.end();
+        long size = event.writer.getCount() - event.startCount;
+        long nanos = System.nanoTime() - event.startNanos;
+        if ((size >= sizeThreshold || nanos >= timeThresholdNanos)
+                && event.shouldCommit()) {
+            event.action = action;
+            event.reference = reference;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    @Name("com.norconex.committer.idol.Batch")
+    @Label("IDOL Batch")
+    @Category({ "Norconex", "IDOL Committer" })
+    @Description("Batch of requests serialized and sent to IDOL.")
+    static class BatchEvent extends Event {
+        @Label("Action")
+        String action;
+        @Label("Documents")
+        int documents;
+        @Label("Serialized Size")
+        @DataAmount
+        long bytes;
+        @Label("Serialization Time")
+        @Timespan
+        long serializationTime;
+        @Label("Network Time")
+        @Description("Time spent sending and waiting for IDOL responses, "
+                + "including retries.")
+        @Timespan
+        long networkTime;
+        @Label("Attempts")
+        int attempts;
+        @Label("Outcome")
+        String outcome;
+
+    }
+
+    @Name("com.norconex.committer.idol.Document")
+    @Label("IDOL Large or Slow Document")
+    @Category({ "Norconex", "IDOL Committer" })
+    @Description("Document larger or slower to serialize than "
+            + "configured thresholds.")
+    static class DocumentEvent extends Event {
+        @Label("Action")
+        String action;
+        @Label("Reference")
+        String reference;
+        @Label("Serialized Size")
+        @Description("Characters written, before any encoding.")
+        @DataAmount
+        long size;
+
+        private transient CountingWriter writer;
+        private transient long startCount;
+        private transient long startNanos;
+    }
+}
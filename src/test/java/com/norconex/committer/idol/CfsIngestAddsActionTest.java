@@ -0,0 +1,123 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.committer.idol.CfsIngestAddsAction.AddsXmlWriter;
+import com.norconex.committer.idol.CfsIngestAddsAction.UrlEncodingWriter;
+import com.norconex.commons.lang.map.Properties;
+
+class CfsIngestAddsActionTest {
+
+    @Test
+    void testContentStreamed() throws Exception {
+        // large enough to span buffers, with invalid UTF-8 replaced
+        byte[] bytes = (StringUtils.repeat("Héllo 😀 <&>", 20000) + "\uFFFF")
+                .getBytes(UTF_8);
+        bytes[bytes.length - 1] = (byte) 0xFF;
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        CfsIngestAddsAction action = new CfsIngestAddsAction(
+                config, new IdolFieldPlan(config));
+        StringWriter out = new StringWriter();
+        action.writeTo(Arrays.asList(new UpsertRequest("ref",
+                new Properties(), new ByteArrayInputStream(bytes))), out);
+
+        String xml = URLDecoder.decode(
+                StringUtils.removeStart(out.toString(), "adds="),
+                UTF_8.name());
+        assertEquals(Base64.encodeBase64String(
+                new String(bytes, UTF_8).getBytes(UTF_8)),
+                StringUtils.substringBetween(xml, "content=\"", "\""));
+    }
+
+    @Test
+    void testUrlEncodingWriter() throws Exception {
+        String text = "<a b=\"c&d\">Héllo wörld + 100% 😀 ~*.-_</a>";
+        StringWriter out = new StringWriter();
+        try (Writer w = new UrlEncodingWriter(out)) {
+            w.write(text.substring(0, 20));
+            w.write(text.substring(20));
+        }
+        assertEquals(URLEncoder.encode(text, UTF_8.name()), out.toString());
+    }
+
+    @Test
+    void testUrlEncodingWriterBuffer() throws Exception {
+        // spans several buffers, with pairs split across them
+        String text = StringUtils.repeat("a 😀é<", 5000);
+        StringWriter out = new StringWriter();
+        try (Writer w = new UrlEncodingWriter(out)) {
+            w.write(text);
+        }
+        assertEquals(URLEncoder.encode(text, UTF_8.name()), out.toString());
+    }
+
+    @Test
+    void testAddsXmlWriterMatchesStax() throws Exception {
+        StringBuilder ascii = new StringBuilder("\t\n\r");
+        for (char ch = ' '; ch < 128; ch++) {
+            ascii.append(ch);
+        }
+        String[] values = { "", ascii.toString(), "Héllo wörld 😀",
+                "a<b>c&d\"e'f", StringUtils.repeat("x&\"", 5000) };
+
+        StringWriter stax = new StringWriter();
+        XMLStreamWriter sxml =
+                XMLOutputFactory.newInstance().createXMLStreamWriter(stax);
+        sxml.writeStartElement("adds");
+        for (String value : values) {
+            sxml.writeStartElement("reference");
+            sxml.writeCharacters(value);
+            sxml.writeEndElement();
+            sxml.writeStartElement("metadata");
+            sxml.writeAttribute("name", value);
+            sxml.writeAttribute("value", value);
+            sxml.writeEndElement();
+        }
+        sxml.writeEndElement();
+        sxml.flush();
+
+        StringWriter out = new StringWriter();
+        AddsXmlWriter xml = new AddsXmlWriter(out);
+        xml.markup("<adds>");
+        for (String value : values) {
+            xml.markup("<reference>").text(value).markup("</reference>");
+            xml.markup("<metadata name=\"").attribute(value)
+                    .markup("\" value=\"").attribute(value)
+                    .markup("\"></metadata>");
+        }
+        xml.markup("</adds>");
+        xml.flush();
+
+        assertEquals(stax.toString(), out.toString());
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.map.Properties;
+
+class DreAddDataActionTest {
+
+    private static final Pattern SECTION = Pattern.compile(
+            "\n#DREREFERENCE doc\n#DREFIELD title=\"Title\"\n#DREDBNAME db"
+            + "(?:\n#DRESECTION (\\d+))?\n#DRECONTENT\n(.*?)\n#DREENDDOC \n",
+            Pattern.DOTALL);
+
+    @Test
+    void testNoSections() throws CommitterException {
+        assertEquals("\n#DREREFERENCE doc\n#DREFIELD title=\"Title\""
+                + "\n#DREDBNAME db\n#DRECONTENT\nsome content"
+                + "\n#DREENDDOC \n\n#DREENDDATANOOP\n\n",
+                write(-1, "some content"));
+        assertEquals(write(-1, "some content"), write(100, "some content"));
+    }
+
+    @Test
+    void testSections() throws CommitterException {
+        // split after whitespace near the end of sections
+        String content = StringUtils.repeat("word ", 10_000);
+        List<String> sections = sections(write(1000, content));
+        assertEquals(50, sections.size());
+        assertEquals(content, String.join("", sections));
+        for (String section : sections) {
+            assertEquals(1000, section.length());
+        }
+
+        // no whitespace: hard split, keeping surrogate pairs whole
+        content = StringUtils.repeat("ab😀", 5000);
+        sections = sections(write(999, content));
+        assertEquals(content, String.join("", sections));
+        for (String section : sections) {
+            assertTrue(section.getBytes(UTF_8).length <= 999);
+            assertFalse(Character.isHighSurrogate(
+                    section.charAt(section.length() - 1)));
+        }
+    }
+
+    @Test
+    void testSectionSizeInBytes() throws CommitterException {
+        // 3 bytes for 2 characters
+        String content = StringUtils.repeat("\u00e9 ", 10_000);
+        List<String> sections = sections(write(1000, content));
+        assertEquals(content, String.join("", sections));
+        assertEquals(31, sections.size());
+        for (String section : sections.subList(0, 30)) {
+            assertTrue(section.length() < 700);
+            int bytes = section.getBytes(UTF_8).length;
+            assertTrue(bytes <= 1000 && bytes > 900, "bytes: " + bytes);
+        }
+    }
+
+    @Test
+    void testSurrogatePairAtReadLimit() throws CommitterException {
+        // 4-byte character around the end of the first read (8192
+        // characters) and of a section, without whitespace to cut at
+        for (int offset = 8180; offset < 8200; offset++) {
+            for (long max : new long[] { 8190, 8192, 8194, 20_000 }) {
+                String content = StringUtils.repeat('a', offset)
+                        + "\ud83d\ude00" + StringUtils.repeat('b', 9000);
+                List<String> sections = sections(write(max, content));
+                assertEquals(content, String.join("", sections));
+                for (String section : sections) {
+                    assertTrue(section.getBytes(UTF_8).length <= max);
+                    assertFalse(Character.isHighSurrogate(
+                            section.charAt(section.length() - 1)));
+                    assertFalse(Character.isLowSurrogate(
+                            section.charAt(0)));
+                }
+            }
+        }
+    }
+
+    // Section contents, checking they are numbered in order.
+    private List<String> sections(String idx) {
+        Matcher m = SECTION.matcher(idx);
+        List<String> sections = new ArrayList<>();
+        while (m.find()) {
+            assertEquals(sections.isEmpty() ? null
+                    : Integer.toString(sections.size()), m.group(1));
+            sections.add(m.group(2));
+        }
+        return sections;
+    }
+
+    private String write(long maxSectionSize, String content)
+            throws CommitterException {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        DreAddDataAction action = new DreAddDataAction(new IdolFieldPlan(cfg),
+                "db", maxSectionSize, new IdolJfr(cfg));
+        Properties meta = new Properties();
+        meta.add("title", "Title");
+        List<ICommitterRequest> batch = Collections.singletonList(
+                new UpsertRequest("doc", meta,
+                        new ByteArrayInputStream(content.getBytes(UTF_8))));
+        StringWriter out = new StringWriter();
+        action.writeTo(batch, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,96 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.input.BrokenInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.map.Properties;
+
+class IdolAggregateTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testWriteFailure() throws Exception {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        DreAddDataAction action = new DreAddDataAction(
+                new IdolFieldPlan(cfg), null, -1, new IdolJfr(cfg));
+
+        // small enough to spill the failed batch to disk
+        IdolAggregate aggregate = new IdolAggregate(100, tempDir);
+        aggregate.write(Collections.singletonList(doc("a")), action);
+        // content failing to be read after the batch was partly written
+        ICommitterRequest bad = new UpsertRequest("c", new Properties(),
+                new SequenceInputStream(new ByteArrayInputStream(
+                        StringUtils.repeat('x', 10000).getBytes(UTF_8)),
+                        new BrokenInputStream()));
+        assertThrows(CommitterException.class, () -> aggregate.write(
+                Arrays.asList(doc("b"), bad), action));
+        // still usable, without the failed batch
+        aggregate.write(Collections.singletonList(doc("d")), action);
+        assertEquals(2, aggregate.getDocCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        aggregate.finish().writeTo(out);
+        StringWriter expected = new StringWriter();
+        action.writeTo(Arrays.asList(doc("a"), doc("d")), expected);
+        assertEquals(expected.toString(), out.toString(UTF_8.name()));
+        aggregate.dispose();
+    }
+
+    @Test
+    void testAwait() throws Exception {
+        IdolAggregate sent = new IdolAggregate(100, tempDir);
+        IdolResponse resp = IdolResponse.parse(200,
+                new ByteArrayInputStream("INDEXID=1".getBytes(UTF_8)));
+        sent.sent(resp);
+        assertSame(resp, sent.await());
+
+        IdolAggregate spooled = new IdolAggregate(100, tempDir);
+        spooled.sent(null);
+        assertNull(spooled.await());
+
+        IdolAggregate failed = new IdolAggregate(100, tempDir);
+        CommitterException e = new CommitterException("Failed.");
+        failed.failed(e);
+        assertSame(e, assertThrows(CommitterException.class, failed::await));
+    }
+
+    private ICommitterRequest doc(String ref) {
+        return new UpsertRequest(ref, new Properties(),
+                new ByteArrayInputStream(ref.getBytes(UTF_8)));
+    }
+}
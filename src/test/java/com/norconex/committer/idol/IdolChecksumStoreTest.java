@@ -0,0 +1,168 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.map.Properties;
+
+class IdolChecksumStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testContentDigest() throws IOException {
+        UpsertRequest req = new UpsertRequest("ref", new Properties(),
+                new ByteArrayInputStream("content".getBytes(UTF_8)));
+        MessageDigest md = IdolChecksumStore.contentDigest();
+        UpsertRequest digested =
+                IdolContent.digest(req, md, IdolContent.cache(-1, null));
+        assertEquals(contentSum("content"), IdolChecksumStore.toChecksum(md));
+        // content can still be sent
+        assertEquals("content",
+                IOUtils.toString(digested.getContent(), UTF_8));
+        assertNotEquals(contentSum("content"), contentSum("other"));
+    }
+
+    @Test
+    void testChecksum() throws IOException {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        Properties meta1 = new Properties();
+        meta1.add("a", "1");
+        meta1.add("b", "2");
+        Properties meta2 = new Properties();
+        meta2.add("b", "2");
+        meta2.add("a", "1");
+        long content = contentSum("content");
+
+        IdolFieldPlan plan = new IdolFieldPlan(cfg);
+
+        long checksum = IdolChecksumStore.checksum(
+                "ref", meta1, null, content, plan);
+        assertEquals(checksum, IdolChecksumStore.checksum(
+                "ref", meta2, null, content, plan));
+        meta2.set("a", "3");
+        assertNotEquals(checksum, IdolChecksumStore.checksum(
+                "ref", meta2, null, content, plan));
+        assertNotEquals(checksum, IdolChecksumStore.checksum(
+                "ref", meta1, null, contentSum("other"), plan));
+        assertNotEquals(checksum, IdolChecksumStore.checksum(
+                "ref", meta1, "db", content, plan));
+
+        // excluded fields do not count
+        cfg.setExcludeFields("x");
+        plan = new IdolFieldPlan(cfg);
+        checksum = IdolChecksumStore.checksum(
+                "ref", meta1, null, content, plan);
+        meta1.add("x", "1");
+        assertEquals(checksum, IdolChecksumStore.checksum(
+                "ref", meta1, null, content, plan));
+    }
+
+    @Test
+    void testChangedFields() throws IOException {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        IdolFieldPlan plan = new IdolFieldPlan(cfg);
+        long content = contentSum("content");
+        Properties meta = new Properties();
+        meta.add("a", "1");
+        meta.add("b", "2", "3");
+        long[] oldSums =
+                IdolChecksumStore.fieldChecksums(meta, null, content, plan);
+
+        // unchanged
+        assertTrue(IdolChecksumStore.changedFields(oldSums,
+                IdolChecksumStore.fieldChecksums(meta, null, content, plan),
+                meta, plan).isEmpty());
+
+        // changed and added fields
+        Properties changed = new Properties();
+        changed.add("a", "9");
+        changed.add("b", "2", "3");
+        changed.add("c", "4");
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")),
+                IdolChecksumStore.changedFields(oldSums,
+                        IdolChecksumStore.fieldChecksums(
+                                changed, null, content, plan),
+                        changed, plan));
+
+        // removed field
+        Properties removed = new Properties();
+        removed.add("a", "1");
+        assertNull(IdolChecksumStore.changedFields(oldSums,
+                IdolChecksumStore.fieldChecksums(
+                        removed, null, content, plan), removed, plan));
+
+        // different value count
+        Properties count = new Properties();
+        count.add("a", "1");
+        count.add("b", "2");
+        assertNull(IdolChecksumStore.changedFields(oldSums,
+                IdolChecksumStore.fieldChecksums(count, null, content, plan),
+                count, plan));
+
+        // changed content
+        assertNull(IdolChecksumStore.changedFields(oldSums,
+                IdolChecksumStore.fieldChecksums(
+                        meta, null, contentSum("other"), plan),
+                meta, plan));
+    }
+
+    @Test
+    void testPersistence() throws Exception {
+        try (IdolChecksumStore store = new IdolChecksumStore(tempDir)) {
+            assertFalse(store.isUnchanged("ref1", 123L));
+            store.put("ref1", 123L);
+            store.put("ref2", 456L);
+            store.putFields("ref2", new long[] {1L, 2L, 3L, 4L});
+            store.remove("ref2");
+            store.commit();
+        }
+        try (IdolChecksumStore store = new IdolChecksumStore(tempDir)) {
+            assertEquals(1, store.size());
+            assertTrue(store.isUnchanged("ref1", 123L));
+            assertFalse(store.isUnchanged("ref1", 124L));
+            assertFalse(store.isUnchanged("ref2", 456L));
+            assertNull(store.getFields("ref2"));
+        }
+    }
+
+    private static long contentSum(String content) throws IOException {
+        MessageDigest md = IdolChecksumStore.contentDigest();
+        IdolContent.digest(new UpsertRequest("ref", new Properties(),
+                new ByteArrayInputStream(content.getBytes(UTF_8))), md,
+                IdolContent.cache(-1, null));
+        return IdolChecksumStore.toChecksum(md);
+    }
+}
@@ -0,0 +1,51 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.norconex.commons.lang.Sleeper;
+
+class IdolCircuitBreakerTest {
+
+    @Test
+    void testStates() {
+        IdolCircuitBreaker breaker =
+                new IdolCircuitBreaker("http://localhost", 3, 100);
+        breaker.failure();
+        breaker.failure();
+        breaker.success();
+        breaker.failure();
+        breaker.failure();
+        assertTrue(breaker.isClosed());
+        breaker.failure();
+        assertFalse(breaker.isClosed());
+        assertFalse(breaker.allowRequest());
+
+        // half-open: a single failure opens it again
+        Sleeper.sleepMillis(150);
+        assertTrue(breaker.allowRequest());
+        breaker.failure();
+        assertFalse(breaker.allowRequest());
+
+        Sleeper.sleepMillis(150);
+        assertTrue(breaker.allowRequest());
+        breaker.success();
+        assertTrue(breaker.isClosed());
+    }
+}
@@ -0,0 +1,830 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BrokenInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.core3.CommitterContext;
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.DeleteRequest;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.Sleeper;
+import com.norconex.commons.lang.map.Properties;
+
+/**
+ * IdolClient behavior tests, against an embedded mock IDOL.
+ */
+class IdolClientTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MockIdolServer idol;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        idol = new MockIdolServer();
+    }
+    @AfterEach
+    void afterEach() {
+        idol.close();
+    }
+
+    @Test
+    void testBulkReloadNotRestartedOnResume() throws Exception {
+        // first start empties the database
+        IdolCommitter committer = bulkCommitter();
+        assertEquals(1, idol.getRequests("DREDELDBASE").size());
+        assertEquals(1, idol.getRequests("DRECREATEDBASE").size());
+        committer.upsert(upsert("doc1", "content"));
+        assertTrue(Files.exists(
+                tempDir.resolve("idol").resolve(IdolClient.BULK_MARKER)));
+        // stopped without closing, as in a crash
+
+        // second start resumes, sending what was left
+        committer = bulkCommitter();
+        assertEquals(1, idol.getRequests("DREDELDBASE").size());
+        assertEquals(1, idol.getRequests("DRECREATEDBASE").size());
+        committer.close();
+        assertEquals(1, idol.getRequests("DREADDDATA").size());
+        assertEquals(1, idol.getRequests("DRESYNC").size());
+        assertFalse(Files.exists(
+                tempDir.resolve("idol").resolve(IdolClient.BULK_MARKER)));
+
+        // once complete, a new start is a new reload
+        bulkCommitter().close();
+        assertEquals(2, idol.getRequests("DREDELDBASE").size());
+    }
+
+    @Test
+    void testPriorityDeleteDoesNotOvertakeUpsert() throws Exception {
+        // upserts are slow, so priority deletes go first
+        idol.setHandler(r -> {
+            if ("DREADDDATA".equals(r.getAction())) {
+                Sleeper.sleepMillis(500);
+            }
+            return null;
+        });
+        IdolClient client = client(c -> c.setPriorityDeletes(true));
+        client.post(batch(
+                upsert("docA", "a"),
+                new DeleteRequest("docA", new Properties()),
+                new DeleteRequest("docB", new Properties()),
+                upsert("docC", "c")));
+        client.close();
+
+        List<String> sent = sent();
+        // docB deletion did not wait for upserts
+        assertTrue(sent.indexOf("DREDELETEREF docB")
+                < sent.indexOf("DREADDDATA docC"), sent.toString());
+        // docA deletion waited for docA upsert
+        assertTrue(sent.indexOf("DREDELETEREF docA")
+                > sent.indexOf("DREADDDATA docA"), sent.toString());
+        assertTrue(sent.indexOf("DREDELETEREF docA")
+                < sent.indexOf("DREADDDATA docC"), sent.toString());
+    }
+
+    @Test
+    void testRoutedToDatabases() throws Exception {
+        IdolClient client = client(c -> c.setSourceDatabaseField("target"));
+        client.post(batch(
+                routedUpsert("doc1", "db1"),
+                routedUpsert("doc2", "db2"),
+                routedUpsert("doc3", "db1"),
+                routedUpsert("doc4", null),
+                routedDelete("doc5", "db2"),
+                routedDelete("doc6", null)));
+        client.close();
+
+        // one request per database, documents in their database
+        List<MockIdolServer.Request> adds = idol.getRequests("DREADDDATA");
+        assertEquals(3, adds.size());
+        assertEquals("db1 [doc1, doc3]", databaseRefs(adds, "db1"));
+        assertEquals("db2 [doc2]", databaseRefs(adds, "db2"));
+        assertEquals("db [doc4]", databaseRefs(adds, "db"));
+        // routing field itself is not sent
+        for (MockIdolServer.Request add : adds) {
+            assertFalse(add.getBodyString().contains("#DREFIELD target="));
+        }
+
+        // deletes without the field go to the default database
+        List<MockIdolServer.Request> deletes =
+                idol.getRequests("DREDELETEREF");
+        assertEquals(2, deletes.size());
+        for (MockIdolServer.Request delete : deletes) {
+            assertEquals("doc5".equals(delete.getParam("Docs"))
+                    ? "db2" : "db", delete.getParam("DREDbName"));
+        }
+    }
+
+    @Test
+    void testCompressedAndStaged() throws Exception {
+        Properties meta = new Properties();
+        meta.add("title", "Héllo 😀");
+        UpsertRequest[] docs = {
+                new UpsertRequest("doc1", meta, new ByteArrayInputStream(
+                        StringUtils.repeat("Content 1 ", 10_000)
+                                .getBytes(UTF_8))),
+                upsert("doc2", "Content 2") };
+
+        // plain
+        IdolClient client = client(c -> c.setMaxBatchMemory(1024));
+        client.post(batch(copy(docs[0]), copy(docs[1])));
+        client.close();
+        MockIdolServer.Request plain = idol.getRequests("DREADDDATA").get(0);
+        assertEquals(null, plain.getHeader("Content-Encoding"));
+        assertTrue(plain.getBodyString().contains("#DREREFERENCE doc2"));
+        idol.clearRequests();
+
+        // compressed: same once decompressed
+        client = client(c -> {
+            c.setCompressRequests(true);
+            c.setMaxBatchMemory(1024);
+        });
+        client.post(batch(copy(docs[0]), copy(docs[1])));
+        client.close();
+        MockIdolServer.Request gzip = idol.getRequests("DREADDDATA").get(0);
+        assertEquals("gzip", gzip.getHeader("Content-Encoding"));
+        assertEquals(plain.getBodyString(), gzip.getBodyString());
+        idol.clearRequests();
+
+        // staged: same in the file IDOL is told to index
+        Path stagingDir = tempDir.resolve("staging");
+        client = client(c -> {
+            c.setStagingDir(stagingDir);
+            c.setStagingIdolDir("/idol/staging");
+        });
+        client.post(batch(copy(docs[0]), copy(docs[1])));
+        client.close();
+        MockIdolServer.Request dreadd = idol.getRequests("DREADD").get(0);
+        String idolFile = URLDecoder.decode(StringUtils.substringBefore(
+                dreadd.getRawQuery(), "&"), UTF_8.name());
+        assertTrue(idolFile.startsWith("/idol/staging/"), idolFile);
+        Path file = stagingDir.resolve(
+                StringUtils.substringAfterLast(idolFile, "/"));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertEquals(plain.getBodyString(), IOUtils.toString(in, UTF_8));
+        }
+    }
+
+    // Same request, with content that can be read again.
+    private static UpsertRequest copy(UpsertRequest req) throws Exception {
+        req.getContent().mark(Integer.MAX_VALUE);
+        byte[] content = IOUtils.toByteArray(req.getContent());
+        req.getContent().reset();
+        return new UpsertRequest(req.getReference(), req.getMetadata(),
+                new ByteArrayInputStream(content));
+    }
+
+    @Test
+    void testReplaceMergesRenamedFields() throws Exception {
+        IdolClient client = client(c -> {
+            c.setReplaceChangedFields(true);
+            c.getFieldRenames().put("title", "DRETITLE");
+        });
+        client.post(batch(titled("A", "B")));
+        // only "title" changed, but it shares DRETITLE with the other
+        client.post(batch(titled("C", "B")));
+        client.close();
+        assertEquals(Arrays.asList("DREADDDATA", "DREREPLACE"),
+                idol.getActions().stream().filter(a -> a.startsWith("DRE"))
+                        .collect(Collectors.toList()));
+        String body = idol.getRequests("DREREPLACE").get(0).getBodyString();
+        // all values replaced, so both are sent
+        assertTrue(body.contains("#DREFIELDNAME DRETITLE\n"
+                + "#DREFIELDVALUE B\n#DREFIELDNAME DRETITLE\n"
+                + "#DREFIELDVALUE C\n"), body);
+    }
+    // Document with a "title" field sent as "DRETITLE", which it has too.
+    private static UpsertRequest titled(String title, String dreTitle) {
+        Properties meta = new Properties();
+        meta.set("title", title);
+        meta.set("DRETITLE", dreTitle);
+        return new UpsertRequest("doc1", meta,
+                new ByteArrayInputStream("content".getBytes(UTF_8)));
+    }
+
+    @Test
+    void testJournalAcknowledgesEachRequest() throws Exception {
+        // index ids not in sending order
+        Queue<String> ids =
+                new ConcurrentLinkedQueue<>(Arrays.asList("7", "3"));
+        idol.setHandler(r -> r.getAction().startsWith("DRE")
+                ? new MockIdolServer.Response(200, "INDEXID=" + ids.poll())
+                : null);
+        IdolClient client = client(c -> c.setJournal(true));
+        client.post(batch(upsert("doc1", "content"),
+                new DeleteRequest("doc2", new Properties())));
+        // each batch acknowledged with the index id it got back
+        assertEquals(Arrays.asList("7", "3"), journalAcks());
+        client.close();
+    }
+
+    @Test
+    void testJournalSessionNotAcknowledged() throws Exception {
+        IdolClient client = client(c -> {
+            c.setJournal(true);
+            c.setSessionTime(60_000);
+        });
+        client.post(batch(upsert("doc1", "content")));
+        // streamed, but IDOL did not respond yet
+        assertTrue(journalAcks().isEmpty());
+        client.post(batch(new DeleteRequest("doc2", new Properties())));
+        assertEquals(1, journalAcks().size());
+        client.close();
+        assertEquals(1, idol.getRequests("DREADDDATA").size());
+    }
+
+    @Test
+    void testChecksumsNotSavedWhenSpooled() throws Exception {
+        idol.setHandler(r -> MockIdolServer.error(503, "UNAVAILABLE"));
+        IdolClient client = client(c -> {
+            c.setSkipUnchanged(true);
+            c.setMaxRetries(0);
+            c.setCircuitBreakerThreshold(1);
+            c.setCircuitBreakerOpenTime(60_000);
+            // not waiting for IDOL to come back
+            c.setCloseTimeout(200);
+        });
+        client.post(batch(upsert("doc1", "content")));
+        // spooled, so not known as sent when seen again
+        client.post(batch(upsert("doc1", "content")));
+        try (Stream<Path> s = Files.list(tempDir.resolve("client")
+                .resolve(IdolSpool.DIR_NAME))) {
+            assertEquals(2, s.filter(f -> f.toString().endsWith(".spool"))
+                    .count());
+        }
+        client.close();
+    }
+
+    @Test
+    void testChecksumsSavedOnceSessionSent() throws Exception {
+        Consumer<IdolCommitterConfig> streaming = c -> {
+            c.setSkipUnchanged(true);
+            c.setSessionTime(60_000);
+        };
+        IdolClient client = client(streaming);
+        client.post(batch(upsert("doc1", "content")));
+        // session not ended yet, so not known as sent
+        client.post(batch(upsert("doc1", "content")));
+        client.close();
+        List<MockIdolServer.Request> adds = idol.getRequests("DREADDDATA");
+        assertEquals(1, adds.size());
+        assertEquals(2, StringUtils.countMatches(
+                adds.get(0).getBodyString(), "#DREREFERENCE doc1"));
+
+        idol.clearRequests();
+        client = client(streaming);
+        client.post(batch(upsert("doc1", "content")));
+        client.close();
+        assertTrue(idol.getRequests("DREADDDATA").isEmpty());
+    }
+
+    @Test
+    void testRejectedSessionSetAside() throws Exception {
+        idol.setHandler(r -> "DREADDDATA".equals(r.getAction())
+                ? MockIdolServer.error(400, "ERRORBADREQUEST") : null);
+        IdolClient client = client(c -> c.setSessionTime(60_000));
+        client.post(batch(upsert("doc1", "content")));
+        // ends the session first, rejected, then deletes
+        client.post(batch(new DeleteRequest("doc2", new Properties())));
+        assertEquals(1, idol.getRequests("DREDELETEREF").size());
+        int adds = idol.getRequests("DREADDDATA").size();
+        // later sessions are not held back
+        client.post(batch(upsert("doc3", "content")));
+        client.post(batch(new DeleteRequest("doc4", new Properties())));
+        client.close();
+        assertEquals(2, idol.getRequests("DREDELETEREF").size());
+        // rejected sessions not sent again
+        assertEquals(2 * adds, idol.getRequests("DREADDDATA").size());
+        Path dir = tempDir.resolve("client").resolve(IdolSession.DIR_NAME);
+        assertTrue(IdolSession.pending(dir).isEmpty());
+        assertEquals(2, IdolSession.pending(dir.resolve("error")).size());
+    }
+
+    @Test
+    void testAggregateMerged() throws Exception {
+        IdolClient client = client(c -> {
+            c.setAggregateTime(60_000);
+            c.setAggregateMaxDocs(3);
+        });
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        List<Thread> batches = new ArrayList<>();
+        for (String ref : Arrays.asList("doc1", "doc2")) {
+            Thread t = new Thread(() -> {
+                try {
+                    client.post(batch(upsert(ref, "content")));
+                } catch (CommitterException e) {
+                    errors.add(e);
+                }
+            });
+            t.start();
+            batches.add(t);
+        }
+        // both written, waiting for the aggregate to be sent
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batches.stream().anyMatch(t -> t.getState()
+                != Thread.State.WAITING)
+                && System.currentTimeMillis() < deadline) {
+            Sleeper.sleepMillis(10);
+        }
+        assertTrue(batches.stream().allMatch(
+                t -> t.getState() == Thread.State.WAITING));
+        assertTrue(idol.getRequests("DREADDDATA").isEmpty());
+
+        // the aggregate is full, sent before returning
+        client.post(batch(upsert("doc3", "content")));
+        for (Thread t : batches) {
+            t.join(5000);
+            assertFalse(t.isAlive());
+        }
+        assertTrue(errors.isEmpty());
+        List<String> sent = sent();
+        assertEquals(1, sent.size());
+        for (String ref : Arrays.asList("doc1", "doc2", "doc3")) {
+            assertTrue(sent.get(0).contains(ref));
+        }
+        client.close();
+        // nothing written to the working directory to send again
+        assertFalse(Files.exists(tempDir.resolve("client")
+                .resolve(IdolSession.DIR_NAME)));
+    }
+
+    @Test
+    void testAggregateTimeWindow() throws Exception {
+        IdolClient client = client(c -> {
+            c.setJournal(true);
+            c.setAggregateTime(500);
+        });
+        long start = System.currentTimeMillis();
+        client.post(batch(upsert("doc1", "content")));
+        // alone, so sent once held for the time window
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(Arrays.asList("DREADDDATA doc1"), sent());
+        assertEquals(1, journalAcks().size());
+        client.close();
+    }
+
+    @Test
+    void testAggregateSentAgain() throws Exception {
+        AtomicInteger adds = new AtomicInteger();
+        idol.setHandler(r -> "DREADDDATA".equals(r.getAction())
+                && adds.incrementAndGet() == 1
+                        ? MockIdolServer.error(503, "UNAVAILABLE") : null);
+        IdolClient client = client(c -> {
+            c.setAggregateTime(100);
+            c.setMaxRetries(1);
+        });
+        client.post(batch(upsert("doc1", "content")));
+        assertEquals(Arrays.asList(
+                "DREADDDATA doc1", "DREADDDATA doc1"), sent());
+        client.close();
+        // not sent again from the aggregate file
+        assertEquals(2, idol.getRequests("DREADDDATA").size());
+    }
+
+    @Test
+    void testRejectedAggregateFails() throws Exception {
+        idol.setHandler(r -> "DREADDDATA".equals(r.getAction())
+                ? MockIdolServer.error(400, "ERRORBADREQUEST") : null);
+        IdolClient client = client(c -> c.setAggregateTime(100));
+        // to be committed again rather than set aside
+        assertThrows(CommitterException.class, () -> client.post(
+                batch(upsert("doc1", "content"))));
+        Path dir = tempDir.resolve("client").resolve(IdolSession.DIR_NAME);
+        assertTrue(IdolSession.pending(dir).isEmpty());
+        assertFalse(Files.exists(dir.resolve("error")));
+
+        idol.setHandler(r -> null);
+        client.post(batch(upsert("doc1", "content")));
+        client.close();
+        assertEquals(2, idol.getRequests("DREADDDATA").size());
+    }
+
+    @Test
+    void testSessionWriteFailure() throws Exception {
+        IdolClient client = client(c -> c.setSessionTime(60_000));
+        client.post(batch(upsert("doc1", "content")));
+        UpsertRequest bad = new UpsertRequest("doc3", new Properties(),
+                new SequenceInputStream(new ByteArrayInputStream(
+                        StringUtils.repeat('x', 10000).getBytes(UTF_8)),
+                        new BrokenInputStream()));
+        assertThrows(CommitterException.class, () -> client.post(
+                batch(upsert("doc2", "content"), bad)));
+        // session ended, sent again without the failed batch
+        List<MockIdolServer.Request> adds = idol.getRequests("DREADDDATA");
+        assertEquals(1, adds.size());
+        assertTrue(adds.get(0).getBodyString().contains(
+                "#DREREFERENCE doc1\n"));
+        assertFalse(adds.get(0).getBodyString().contains("doc2"));
+        // next batches open a new session
+        client.post(batch(upsert("doc2", "content")));
+        client.close();
+        assertEquals(2, idol.getRequests("DREADDDATA").size());
+    }
+
+    // Index ids of acknowledged batches, in journal order.
+    private List<String> journalAcks() throws IOException {
+        List<String> acks = new ArrayList<>();
+        for (String line : Files.readAllLines(tempDir.resolve(
+                "client").resolve(IdolJournal.FILE_NAME))) {
+            if (line.startsWith("A ")) {
+                acks.add(StringUtils.substringAfterLast(line, " "));
+            }
+        }
+        return acks;
+    }
+
+    @Test
+    void testSpans() throws Exception {
+        StubTracer tracer = new StubTracer();
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        config.setUrl(idol.getUrl());
+        config.setDatabaseName("db");
+        IdolClient client = new IdolClient(config, tempDir, tracer);
+        client.post(batch(upsert("doc1", "content"), upsert("doc2", "more"),
+                new DeleteRequest("doc3", new Properties())));
+        client.close();
+
+        List<StubSpan> batches = tracer.spans("idol.batch");
+        assertEquals(2, batches.size());
+        StubSpan upserts = batches.get(0);
+        assertEquals("UpsertRequest",
+                upserts.attributes.get("idol.request_type"));
+        assertEquals(2L, upserts.attributes.get("idol.documents"));
+        assertEquals("db", upserts.attributes.get("idol.database"));
+        assertEquals("DeleteRequest",
+                batches.get(1).attributes.get("idol.request_type"));
+
+        StubSpan serialize = tracer.spans("idol.serialize").get(0);
+        assertEquals(upserts, serialize.parent);
+        assertEquals("DreAddDataAction",
+                serialize.attributes.get("idol.action"));
+        assertEquals(2L, serialize.attributes.get("idol.documents"));
+        assertTrue((Long) serialize.attributes.get("idol.bytes") > 0);
+
+        List<StubSpan> https = tracer.spans("idol.http");
+        assertEquals(2, https.size());
+        StubSpan http = https.get(0);
+        assertEquals(upserts, http.parent);
+        assertTrue(http.client);
+        assertEquals("POST", http.attributes.get("http.request.method"));
+        assertEquals(200L, http.attributes.get("http.response.status_code"));
+        assertEquals(1L, http.attributes.get("idol.index_id"));
+        assertEquals(2L, http.attributes.get("idol.documents"));
+        for (StubSpan span : tracer.spans) {
+            assertTrue(span.closed, span.name);
+            assertEquals(null, span.error, span.name);
+        }
+        // trace context sent to IDOL
+        for (MockIdolServer.Request req : idol.getRequests()) {
+            assertEquals("stub", req.getHeader("traceparent"));
+        }
+    }
+
+    @Test
+    void testErrorSpan() throws Exception {
+        idol.setHandler(r -> MockIdolServer.error(400, "ERRORBADREQUEST"));
+        StubTracer tracer = new StubTracer();
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        config.setUrl(idol.getUrl());
+        IdolClient client = new IdolClient(config, tempDir, tracer);
+        assertThrows(CommitterException.class, () -> client.post(
+                batch(upsert("doc1", "content"))));
+        client.close();
+        assertTrue(tracer.spans("idol.http").get(0).error
+                instanceof IdolException);
+        assertTrue(tracer.spans("idol.batch").get(0).error
+                instanceof CommitterException);
+    }
+
+    // Records spans and their attributes, in memory.
+    private static class StubTracer extends IdolTracer {
+        private final List<StubSpan> spans =
+                java.util.Collections.synchronizedList(new ArrayList<>());
+        private final ThreadLocal<StubSpan> current = new ThreadLocal<>();
+        @Override
+        Span span(String name) {
+            return newSpan(name, false);
+        }
+        @Override
+        Span clientSpan(String name) {
+            return newSpan(name, true);
+        }
+        private StubSpan newSpan(String name, boolean client) {
+            StubSpan span = new StubSpan(this, name, current.get(), client);
+            current.set(span);
+            spans.add(span);
+            return span;
+        }
+        @Override
+        <T> Callable<T> wrap(Callable<T> task) {
+            StubSpan parent = current.get();
+            return () -> {
+                current.set(parent);
+                try {
+                    return task.call();
+                } finally {
+                    current.remove();
+                }
+            };
+        }
+        List<StubSpan> spans(String name) {
+            List<StubSpan> named = new ArrayList<>();
+            synchronized (spans) {
+                for (StubSpan span : spans) {
+                    if (span.name.equals(name)) {
+                        named.add(span);
+                    }
+                }
+            }
+            return named;
+        }
+    }
+    private static class StubSpan implements IdolTracer.Span {
+        private final StubTracer tracer;
+        private final String name;
+        private final StubSpan parent;
+        private final boolean client;
+        private final Map<String, Object> attributes =
+                new ConcurrentHashMap<>();
+        private volatile Throwable error;
+        private volatile boolean closed;
+        private StubSpan(StubTracer tracer, String name, StubSpan parent,
+                boolean client) {
+            this.tracer = tracer;
+            this.name = name;
+            this.parent = parent;
+            this.client = client;
+        }
+        @Override
+        public IdolTracer.Span set(String key, long value) {
+            attributes.put(key, value);
+            return this;
+        }
+        @Override
+        public IdolTracer.Span set(String key, String value) {
+            if (value != null) {
+                attributes.put(key, value);
+            }
+            return this;
+        }
+        @Override
+        public <E extends Throwable> E error(E e) {
+            error = e;
+            return e;
+        }
+        @Override
+        public void inject(HttpURLConnection con) {
+            con.setRequestProperty("traceparent", "stub");
+        }
+        @Override
+        public void close() {
+            closed = true;
+            tracer.current.set(parent);
+        }
+    }
+
+    @Test
+    void testCloseDrainsBatches() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        idol.setHandler(r -> {
+            if ("DREADDDATA".equals(r.getAction())) {
+                received.countDown();
+                Sleeper.sleepMillis(1000);
+            }
+            return null;
+        });
+        IdolClient client = client(c -> c.setCloseTimeout(10_000));
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> {
+            try {
+                client.post(batch(upsert("doc1", "content")));
+            } catch (CommitterException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        client.close();
+        // close waited for the batch in flight, which was sent
+        assertTrue(System.currentTimeMillis() - start >= 500);
+        batch.get(1, TimeUnit.SECONDS);
+        assertEquals(1, idol.getRequests("DREADDDATA").size());
+        // no more batches once closed
+        assertThrows(CommitterException.class,
+                () -> client.post(batch(upsert("doc2", "content"))));
+    }
+
+    @Test
+    void testCloseTimeout() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        idol.setHandler(r -> {
+            if ("DREADDDATA".equals(r.getAction())) {
+                received.countDown();
+                Sleeper.sleepMillis(3000);
+            }
+            return null;
+        });
+        IdolClient client = client(c -> c.setCloseTimeout(200));
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> {
+            try {
+                client.post(batch(upsert("doc1", "content")));
+            } catch (CommitterException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        client.close();
+        // did not wait for the batch past the timeout
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertFalse(batch.isDone());
+        batch.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testPreflightFailures() throws Exception {
+        // unsuccessful response
+        idol.setHandler(r -> "GetVersion".equals(r.getAction())
+                ? MockIdolServer.error(200, "ERRORNOTAVAILABLE") : null);
+        IdolClient client = client(c -> c.setAciUrl(idol.getUrl()));
+        assertTrue(assertThrows(CommitterException.class, client::preflight)
+                .getMessage().contains("GetVersion"));
+        client.close();
+
+        // database does not exist
+        idol.setHandler(r -> null);
+        idol.setDatabases(Arrays.asList("other"));
+        IdolClient client2 = client(c -> c.setAciUrl(idol.getUrl()));
+        assertTrue(assertThrows(CommitterException.class, client2::preflight)
+                .getMessage().contains("\"db\" does not exist"));
+        client2.close();
+
+        // not reachable
+        IdolClient client3 = client(c -> c.setAciUrl("http://localhost:1"));
+        assertThrows(CommitterException.class, client3::preflight);
+        client3.close();
+    }
+
+    @Test
+    void testUrlLengthProbe() throws Exception {
+        idol.setMaxUrlLength(4 * 1024);
+        idol.setDatabases(Arrays.asList("db"));
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        config.setAciUrl(idol.getUrl());
+        config.setUrl(idol.getUrl());
+        config.setDatabaseName("db");
+        assertEquals(4 * 1024,
+                new IdolPreflight(config).run().getMaxUrlLength());
+
+        // deletions are split to fit the probed length
+        IdolClient client = client(c -> c.setAciUrl(idol.getUrl()));
+        client.preflight();
+        List<ICommitterRequest> deletes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            deletes.add(new DeleteRequest(
+                    "http://example.com/" + StringUtils.repeat('x', 30) + i,
+                    new Properties()));
+        }
+        client.post(deletes.iterator());
+        client.close();
+        List<MockIdolServer.Request> sent = idol.getRequests("DREDELETEREF");
+        assertTrue(sent.size() > 1);
+        int count = 0;
+        for (MockIdolServer.Request req : sent) {
+            count += StringUtils.split(req.getParam("Docs"), ' ').length;
+        }
+        assertEquals(200, count);
+    }
+
+    private static String databaseRefs(
+            List<MockIdolServer.Request> adds, String database) {
+        for (MockIdolServer.Request add : adds) {
+            String body = add.getBodyString();
+            if (body.contains("#DREDBNAME " + database + "\n")) {
+                return database + " " + Arrays.asList(
+                        StringUtils.substringsBetween(
+                                body, "#DREREFERENCE ", "\n"));
+            }
+        }
+        return null;
+    }
+
+    // Index requests received, as "ACTION refs".
+    private List<String> sent() {
+        List<String> sent = new ArrayList<>();
+        for (MockIdolServer.Request r : idol.getRequests()) {
+            if ("DREDELETEREF".equals(r.getAction())) {
+                sent.add("DREDELETEREF " + r.getParam("Docs"));
+            } else if ("DREADDDATA".equals(r.getAction())) {
+                sent.add("DREADDDATA " + StringUtils.join(
+                        StringUtils.substringsBetween(
+                                r.getBodyString(), "#DREREFERENCE ", "\n"),
+                        " "));
+            }
+        }
+        return sent;
+    }
+
+    private IdolClient client(Consumer<IdolCommitterConfig> customizer)
+            throws Exception {
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        config.setUrl(idol.getUrl());
+        config.setDatabaseName("db");
+        config.setRetryDelay(0);
+        customizer.accept(config);
+        return new IdolClient(config, tempDir.resolve("client"));
+    }
+
+    private static Iterator<ICommitterRequest> batch(
+            ICommitterRequest... requests) {
+        return Arrays.asList(requests).iterator();
+    }
+
+    private IdolCommitter bulkCommitter() throws Exception {
+        IdolCommitter committer = new IdolCommitter();
+        committer.getConfig().setUrl(idol.getUrl());
+        committer.getConfig().setDatabaseName("db");
+        committer.getConfig().setBulkReload(true);
+        committer.init(CommitterContext.builder()
+                .setWorkDir(tempDir.resolve("idol")).build());
+        return committer;
+    }
+
+    // Upsert to the database in its "target" field, if any.
+    private static UpsertRequest routedUpsert(
+            String ref, String target) {
+        Properties meta = new Properties();
+        if (target != null) {
+            meta.set("target", target);
+        }
+        return new UpsertRequest(ref, meta,
+                new ByteArrayInputStream(ref.getBytes(UTF_8)));
+    }
+    private static DeleteRequest routedDelete(
+            String ref, String target) {
+        Properties meta = new Properties();
+        if (target != null) {
+            meta.set("target", target);
+        }
+        return new DeleteRequest(ref, meta);
+    }
+
+    static UpsertRequest upsert(String ref, String content) {
+        return new UpsertRequest(ref, new Properties(),
+                new ByteArrayInputStream(content.getBytes(UTF_8)));
+    }
+}
@@ -16,6 +16,7 @@ package com.norconex.committer.idol;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.Paths;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -55,11 +56,67 @@ class IdolCommitterConfigTest {
         cfg.setCfs(true);
         cfg.setDatabaseName("mydatabase");
         cfg.setSourceContentField("sourceContentField");
+        cfg.setSourceDatabaseField("sourceDatabaseField");
         cfg.setSourceReferenceField("sourceReferenceField");
         cfg.getDreAddDataParams().put("aparam1", "avalue1");
         cfg.getDreAddDataParams().put("aparam2", "avalue2");
         cfg.getDreDeleteRefParams().put("dparam1", "dvalue1");
         cfg.getDreDeleteRefParams().put("dparam2", "dvalue2");
+        cfg.setSkipUnchanged(true);
+        cfg.setReplaceChangedFields(true);
+        cfg.setSkipUnsentDeletes(true);
+        cfg.setSentReferencesCapacity(5000);
+        cfg.setMaxBatchMemory(1234);
+        cfg.setMaxSharedBatchMemory(5678);
+        cfg.setIncludeFields("a.*");
+        cfg.setExcludeFields("ab.*");
+        cfg.getFieldRenames().put("title", "DRETITLE");
+        cfg.getFieldRenames().put("date", "DREDATE");
+        cfg.setMaxFieldValueLength(100);
+        cfg.setCompressRequests(true);
+        cfg.setCompressionLevel(9);
+        cfg.setStagingDir(Paths.get("/tmp/staging"));
+        cfg.setStagingIdolDir("D:\\staging");
+        cfg.setMaxRetries(3);
+        cfg.setRetryDelay(2000);
+        cfg.setPreflight(true);
+        cfg.setAciUrl("http://somehost:9000");
+        cfg.setMaxUrlLength(4096);
+        cfg.setCloseTimeout(30000);
+        cfg.setSyncOnClose(true);
+        cfg.setAwaitIndexingOnClose(true);
+        cfg.setPriorityDeletes(true);
+        cfg.setPriorityDeleteBatchSize(20);
+        cfg.setMaxDocsPerSecond(100);
+        cfg.setMaxBytesPerSecond(1000000);
+        cfg.setRateLimitBurst(2.5);
+        cfg.setJmx(true);
+        cfg.setBulkReload(true);
+        cfg.setBulkReloadDatabase("reloadDb");
+        cfg.setDatabaseThreads(8);
+        cfg.setRecordDir(Paths.get("/tmp/record"));
+        cfg.setRecordSampleRate(0.5);
+        cfg.setRecordMaxFileSize(1000000);
+        cfg.setRecordMaxFiles(5);
+        cfg.setJfrDocumentSizeThreshold(2000000);
+        cfg.setJfrDocumentTimeThreshold(250);
+        cfg.setTracing(true);
+        cfg.setJournal(true);
+        cfg.setCircuitBreakerThreshold(5);
+        cfg.setCircuitBreakerOpenTime(60000);
+        cfg.setSpoolDir(Paths.get("/tmp/spool"));
+        cfg.setMaxSpoolSize(1000000000);
+        cfg.setMaxSectionSize(50000000);
+        cfg.setSessionTime(5000);
+        cfg.setSessionMaxDocs(500);
+        cfg.setSessionMaxSize(20000000);
+        cfg.setAggregateTime(2000);
+        cfg.setAggregateMaxDocs(200);
+        cfg.setAggregateMaxSize(5000000);
+        cfg.getReplicaUrls().add("http://replica1:9001");
+        cfg.getReplicaUrls().add("http://replica2:9001");
+        cfg.setReplicaMaxPending(20);
+        cfg.setSharedEndpoint(true);
 
         XML.assertWriteRead(c, "committer");
     }
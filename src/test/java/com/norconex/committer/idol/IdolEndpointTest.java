@@ -0,0 +1,95 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class IdolEndpointTest {
+
+    @Test
+    void testShared() {
+        IdolEndpoint a = IdolEndpoint.acquire(config("http://idol:9001/"));
+        IdolEndpoint b = IdolEndpoint.acquire(config("http://idol:9001"));
+        assertSame(a.getRateLimiter(), b.getRateLimiter());
+        assertSame(a.getBreaker(), b.getBreaker());
+        assertNotNull(a.getBreaker());
+
+        // different settings, different endpoint
+        IdolCommitterConfig other = config("http://idol:9001");
+        other.setMaxDocsPerSecond(10);
+        IdolEndpoint c = IdolEndpoint.acquire(other);
+        assertNotSame(a.getRateLimiter(), c.getRateLimiter());
+        c.release();
+
+        // still in use until released by all
+        a.release();
+        IdolEndpoint d = IdolEndpoint.acquire(config("http://idol:9001"));
+        assertSame(b.getRateLimiter(), d.getRateLimiter());
+        b.release();
+        d.release();
+        IdolEndpoint e = IdolEndpoint.acquire(config("http://idol:9001"));
+        assertNotSame(b.getRateLimiter(), e.getRateLimiter());
+        e.release();
+    }
+
+    @Test
+    void testReleasedOnce() {
+        IdolEndpoint a = IdolEndpoint.acquire(config("http://idol:9003"));
+        IdolEndpoint b = IdolEndpoint.acquire(config("http://idol:9003"));
+        // released more than once, still in use by the other one
+        a.release();
+        a.release();
+        IdolEndpoint c = IdolEndpoint.acquire(config("http://idol:9003"));
+        assertSame(b.getRateLimiter(), c.getRateLimiter());
+        b.release();
+        c.release();
+
+        // an old endpoint released again does not remove a newer one
+        IdolEndpoint d = IdolEndpoint.acquire(config("http://idol:9003"));
+        assertNotSame(b.getRateLimiter(), d.getRateLimiter());
+        b.release();
+        c.release();
+        IdolEndpoint e = IdolEndpoint.acquire(config("http://idol:9003"));
+        assertSame(d.getRateLimiter(), e.getRateLimiter());
+        d.release();
+        e.release();
+    }
+
+    @Test
+    void testNotShared() {
+        IdolCommitterConfig config = config("http://idol:9002");
+        config.setSharedEndpoint(false);
+        config.setCircuitBreakerThreshold(0);
+        IdolEndpoint a = IdolEndpoint.acquire(config);
+        IdolEndpoint b = IdolEndpoint.acquire(config);
+        assertNotSame(a, b);
+        assertNull(a.getBreaker());
+        a.release();
+        b.release();
+    }
+
+    private IdolCommitterConfig config(String url) {
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        config.setUrl(url);
+        config.setSharedEndpoint(true);
+        config.setCircuitBreakerThreshold(3);
+        return config;
+    }
+}
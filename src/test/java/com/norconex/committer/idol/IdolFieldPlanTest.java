@@ -0,0 +1,65 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class IdolFieldPlanTest {
+
+    @Test
+    void testFieldPlan() {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        cfg.setSourceReferenceField("ref");
+        cfg.setSourceContentField("body");
+        cfg.setSourceDatabaseField("db");
+        cfg.setIncludeFields("a.*|title|ref|body|db");
+        cfg.setExcludeFields("ab.*");
+        cfg.getFieldRenames().put("title", "DRETITLE");
+        cfg.setMaxFieldValueLength(3);
+        IdolFieldPlan plan = new IdolFieldPlan(cfg);
+
+        assertEquals("ref", plan.referenceField());
+        assertEquals("body", plan.contentField());
+        assertEquals("a", plan.targetName("a"));
+        assertEquals("ac", plan.targetName("ac"));
+        assertEquals("DRETITLE", plan.targetName("title"));
+        assertNull(plan.targetName("abc"));
+        assertNull(plan.targetName("other"));
+        assertNull(plan.targetName("ref"));
+        assertNull(plan.targetName("body"));
+        assertNull(plan.targetName("db"));
+        // cached
+        assertNull(plan.targetName("abc"));
+
+        assertEquals("abc", plan.value("abcdef"));
+        assertEquals("ab", plan.value("ab"));
+        assertNull(plan.value(null));
+        // surrogate pair not split
+        assertEquals("ab", plan.value("ab\uD83D\uDE00"));
+        assertEquals("a\uD83D\uDE00", plan.value("a\uD83D\uDE00b"));
+    }
+
+    @Test
+    void testManyFieldNames() {
+        IdolFieldPlan plan = new IdolFieldPlan(new IdolCommitterConfig());
+        // past the cache limit, names are still resolved
+        for (int i = 0; i < 20_000; i++) {
+            assertEquals("f" + i, plan.targetName("f" + i));
+        }
+    }
+}
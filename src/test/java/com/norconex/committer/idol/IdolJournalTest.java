@@ -0,0 +1,129 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.core3.DeleteRequest;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.io.CachedInputStream;
+import com.norconex.commons.lang.io.CachedStreamFactory;
+import com.norconex.commons.lang.map.Properties;
+
+class IdolJournalTest {
+
+    private static final CachedStreamFactory CACHE =
+            IdolContent.cache(-1, null);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testFingerprint() throws IOException {
+        List<ICommitterRequest> batch = upserts("content");
+        String fp = IdolJournal.fingerprint("db", batch, CACHE);
+        // content must still be readable once fingerprinted
+        assertEquals("content", IOUtils.toString(
+                ((UpsertRequest) batch.get(0)).getContent(), UTF_8));
+        // non-rewindable content is cached, not held on heap
+        assertTrue(((UpsertRequest) batch.get(0)).getContent()
+                instanceof CachedInputStream);
+        assertEquals(fp,
+                IdolJournal.fingerprint("db", upserts("content"), CACHE));
+        assertNotEquals(fp,
+                IdolJournal.fingerprint("db", upserts("other"), CACHE));
+        assertNotEquals(fp,
+                IdolJournal.fingerprint("db2", upserts("content"), CACHE));
+        List<ICommitterRequest> deletes = new ArrayList<>();
+        deletes.add(new DeleteRequest("ref", new Properties()));
+        assertNotEquals(fp, IdolJournal.fingerprint("db", deletes, CACHE));
+    }
+
+    @Test
+    void testRecovery() throws IOException {
+        // crashing before the committer batch is done
+        IdolJournal journal = new IdolJournal(tempDir);
+        IdolJournal.Commit commit = journal.begin();
+        assertFalse(commit.skip("a"));
+        journal.sent("a");
+        commit.acknowledged("a", 12);
+        journal.sent("b");
+        commit.acknowledged("b", 13);
+        journal.indexed(12);
+
+        journal = new IdolJournal(tempDir);
+        commit = journal.begin();
+        assertTrue(commit.skip("a"));
+        // acknowledgements are only used once
+        assertFalse(commit.skip("a"));
+        commit.failed();
+
+        // failed batches can be skipped when sent again
+        commit = journal.begin();
+        assertTrue(commit.skip("a"));
+        assertTrue(commit.skip("b"));
+        commit.done();
+        journal.close(false);
+
+        journal = new IdolJournal(tempDir);
+        commit = journal.begin();
+        assertFalse(commit.skip("a"));
+        assertFalse(commit.skip("b"));
+        journal.close(true);
+    }
+
+    @Test
+    void testCloseOnceQueueConsumed() throws IOException {
+        IdolJournal journal = new IdolJournal(tempDir);
+        journal.begin().acknowledged("a", 1);
+
+        // recovered, but never sent again
+        journal = new IdolJournal(tempDir);
+        IdolJournal.Commit commit = journal.begin();
+        commit.acknowledged("b", 2);
+        commit.failed();
+        journal.close(true);
+
+        journal = new IdolJournal(tempDir);
+        commit = journal.begin();
+        assertFalse(commit.skip("a"));
+        assertTrue(commit.skip("b"));
+        journal.close(true);
+    }
+
+    private List<ICommitterRequest> upserts(String content) {
+        Properties meta = new Properties();
+        meta.add("title", "Title");
+        List<ICommitterRequest> batch = new ArrayList<>();
+        batch.add(new UpsertRequest("ref", meta,
+                new ByteArrayInputStream(content.getBytes(UTF_8))));
+        return batch;
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.norconex.committer.idol.IdolMemoryGovernor.Permit;
+
+class IdolMemoryGovernorTest {
+
+    @Test
+    void testSharedPerLimit() {
+        IdolMemoryGovernor governor = IdolMemoryGovernor.get(5 * 1024);
+        assertSame(governor, IdolMemoryGovernor.get(5 * 1024));
+        assertNotSame(governor, IdolMemoryGovernor.get(6 * 1024));
+        assertEquals(6 * 1024, IdolMemoryGovernor.get(6 * 1024).getMaxBytes());
+    }
+
+    @Test
+    void testConcurrentBatchesBlock() throws Exception {
+        IdolMemoryGovernor governor = IdolMemoryGovernor.get(10 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch held = new CountDownLatch(1);
+            executor.submit(() -> {
+                try (Permit p = governor.acquire(8 * 1024)) {
+                    held.countDown();
+                    release.await();
+                }
+                return null;
+            });
+            assertTrue(held.await(5, TimeUnit.SECONDS));
+
+            // second batch does not fit, it waits for the first one
+            Future<?> second = executor.submit(() -> {
+                try (Permit p = governor.acquire(8 * 1024)) {
+                    assertTrue(governor.getAvailableBytes() <= 2 * 1024);
+                }
+                return null;
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while (governor.getQueueLength() == 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, governor.getQueueLength());
+            assertFalse(second.isDone());
+            // nor is there room for anyone else
+            assertNull(governor.tryAcquire(4 * 1024));
+
+            release.countDown();
+            second.get(5, TimeUnit.SECONDS);
+            assertEquals(10 * 1024, governor.getAvailableBytes());
+            assertTrue(governor.getWaits() >= 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testLargerThanLimit() throws Exception {
+        IdolMemoryGovernor governor = IdolMemoryGovernor.get(4 * 1024);
+        // reduced to the limit rather than blocking forever
+        try (Permit p = governor.acquire(100 * 1024)) {
+            assertEquals(0, governor.getAvailableBytes());
+            assertNull(governor.tryAcquire(1));
+        }
+        try (Permit p = governor.tryAcquire(1)) {
+            assertEquals(3 * 1024, governor.getAvailableBytes());
+        }
+    }
+}
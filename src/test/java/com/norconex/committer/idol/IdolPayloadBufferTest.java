@@ -0,0 +1,100 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IdolPayloadBufferTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testInMemory() throws Exception {
+        IdolPayloadBuffer buf = new IdolPayloadBuffer(100, tempDir);
+        buf.write("Hello".getBytes(UTF_8));
+        assertFalse(buf.isSpilled());
+        assertEquals("Hello", toString(buf));
+        buf.dispose();
+    }
+
+    @Test
+    void testSpilled() throws Exception {
+        String text = StringUtils.repeat("0123456789", 5000);
+        IdolPayloadBuffer buf = new IdolPayloadBuffer(1000, tempDir);
+        byte[] bytes = text.getBytes(UTF_8);
+        buf.write(bytes, 0, 10);
+        buf.write(bytes, 10, bytes.length - 10);
+        assertTrue(buf.isSpilled());
+        assertEquals(bytes.length, buf.size());
+        assertEquals(text, toString(buf));
+        // can be sent more than once
+        assertEquals(text, toString(buf));
+        buf.dispose();
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testRetain() throws Exception {
+        String text = StringUtils.repeat("0123456789", 500);
+        IdolPayloadBuffer buf = new IdolPayloadBuffer(10, tempDir);
+        buf.write(text.getBytes(UTF_8));
+        buf.retain();
+        buf.dispose();
+        // still usable until disposed of by every holder
+        assertEquals(text, toString(buf));
+        buf.dispose();
+        assertEquals(0, buf.size());
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testTruncate() throws Exception {
+        IdolPayloadBuffer buf = new IdolPayloadBuffer(10, tempDir);
+        buf.write("0123456789abcdef".getBytes(UTF_8));
+        // in the part spilled to disk
+        buf.truncate(12);
+        buf.write("XY".getBytes(UTF_8));
+        assertEquals("0123456789abXY", toString(buf));
+        // in memory
+        buf.truncate(4);
+        buf.write("0123456789".getBytes(UTF_8));
+        assertEquals(14, buf.size());
+        assertEquals("01230123456789", toString(buf));
+        buf.dispose();
+    }
+
+    private String toString(IdolPayloadBuffer buf) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buf.writeTo(out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
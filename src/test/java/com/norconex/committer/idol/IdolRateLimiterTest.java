@@ -0,0 +1,57 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.norconex.committer.idol.IdolRateLimiter.TokenBucket;
+
+class IdolRateLimiterTest {
+
+    @Test
+    void testTokenBucket() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        // burst of 10 goes through
+        assertEquals(0, bucket.reserve(10));
+        // then 5 more must wait about half a second
+        long wait = bucket.reserve(5);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400)
+                && wait <= TimeUnit.MILLISECONDS.toNanos(500), "" + wait);
+
+        // unlimited
+        bucket.setRate(-1);
+        assertEquals(0, bucket.reserve(1_000_000));
+    }
+
+    @Test
+    void testRateLimiter() throws InterruptedException {
+        IdolRateLimiter limiter = new IdolRateLimiter(-1, 1000, 0.1);
+        long start = System.nanoTime();
+        limiter.acquire(1, 100);
+        limiter.acquire(1, 100);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - start);
+        assertTrue(elapsedMs >= 90, "" + elapsedMs);
+        assertTrue(limiter.getThrottledMillis() >= 90);
+
+        limiter.setMaxBytesPerSecond(-1);
+        assertEquals(-1, limiter.getMaxBytesPerSecond());
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.idol.IdolRecorder.Record;
+
+class IdolRecorderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRecordAndRead() throws IOException {
+        Path dir = tempDir.resolve("rec");
+        IdolRecorder recorder = new IdolRecorder(dir, 1, 1000000, 10);
+        record(recorder, "http://localhost:9001/DREADDDATA", "body1");
+        record(recorder, "http://localhost:9001/DREDELETEREF?Docs=a", "");
+        recorder.close();
+        assertEquals(2, recorder.getRecordCount());
+        assertEquals(0, recorder.getDroppedCount());
+
+        List<Path> files = IdolRecorder.files(dir);
+        assertEquals(1, files.size());
+        try (DataInputStream in = open(files.get(0))) {
+            Record.readHeader(in);
+            Record rec = Record.read(in);
+            assertEquals("http://localhost:9001/DREADDDATA", rec.getUrl());
+            assertEquals("body1", new String(rec.getBody(), UTF_8));
+            assertEquals(200, rec.getHttpStatus());
+            assertEquals(3, rec.getDocCount());
+            assertEquals(0, Record.read(in).getBody().length);
+            assertNull(Record.read(in));
+        }
+    }
+
+    @Test
+    void testRotation() throws IOException {
+        Path dir = tempDir.resolve("rot");
+        // every record starts a new file, only 2 kept
+        IdolRecorder recorder = new IdolRecorder(dir, 1, 1, 2);
+        for (int i = 0; i < 5; i++) {
+            record(recorder, "http://localhost:9001/DRESYNC", "");
+        }
+        recorder.close();
+        assertEquals(2, IdolRecorder.files(dir).size());
+    }
+
+    @Test
+    void testRecordNeverBlocks() throws IOException {
+        Path dir = tempDir.resolve("full");
+        IdolRecorder recorder = new IdolRecorder(dir, 1, 1000000, 10);
+        int count = IdolRecorder.MAX_PENDING * 20;
+        for (int i = 0; i < count; i++) {
+            record(recorder, "http://localhost:9001/DREADDDATA",
+                    StringUtils.repeat('x', 10000));
+        }
+        recorder.close();
+        assertEquals(count,
+                recorder.getRecordCount() + recorder.getDroppedCount());
+        try (DataInputStream in = open(IdolRecorder.files(dir).get(0))) {
+            Record.readHeader(in);
+            for (int i = 0; i < recorder.getRecordCount(); i++) {
+                assertEquals(10000, Record.read(in).getBody().length);
+            }
+            assertNull(Record.read(in));
+        }
+    }
+
+    @Test
+    void testSampling() {
+        IdolRecorder recorder = new IdolRecorder(tempDir, 0, 1, 1);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(recorder.sample());
+        }
+    }
+
+    private void record(IdolRecorder recorder, String url, String body)
+            throws IOException {
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(1024, tempDir);
+        payload.write(body.getBytes(UTF_8));
+        recorder.record(new Record(System.currentTimeMillis(), 1000, 200,
+                3, url, "text/plain", false), payload);
+        payload.dispose();
+    }
+
+    private DataInputStream open(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))));
+    }
+}
@@ -0,0 +1,55 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IdolReferenceFilterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPersistence() throws Exception {
+        try (IdolReferenceFilter filter =
+                new IdolReferenceFilter(tempDir, 1000)) {
+            for (int i = 0; i < 500; i++) {
+                filter.add("http://example.com/" + i);
+            }
+            filter.commit();
+        }
+        // different capacity must not affect existing filter
+        try (IdolReferenceFilter filter =
+                new IdolReferenceFilter(tempDir, 50)) {
+            for (int i = 0; i < 500; i++) {
+                assertTrue(filter.mightContain("http://example.com/" + i));
+            }
+            int falsePositives = 0;
+            for (int i = 500; i < 1500; i++) {
+                if (filter.mightContain("http://example.com/" + i)) {
+                    falsePositives++;
+                }
+            }
+            assertTrue(falsePositives < 50, "Too many false positives.");
+            assertFalse(filter.mightContain("http://example.com/nope"));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IdolReplicaTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<String> received =
+            Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean down;
+
+    @Test
+    void testSendInOrder() throws Exception {
+        IdolReplica replica = replica();
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            submit(replica, "body" + i);
+            expected.add("http://replica:9100/DREADDDATA?x=1 body" + i);
+        }
+        replica.close(System.currentTimeMillis() + 10_000);
+        assertEquals(expected, received);
+        assertEquals(0, replica.getLag());
+    }
+
+    @Test
+    void testSpoolWhileDown() throws Exception {
+        down = true;
+        IdolReplica replica = replica();
+        for (int i = 1; i <= 5; i++) {
+            submit(replica, "body" + i);
+        }
+        // nothing lost when closing while the replica is down
+        replica.close(System.currentTimeMillis() + 10_000);
+        assertTrue(received.isEmpty());
+        assertTrue(replica.getLag() > 0);
+
+        // sent in order once back
+        down = false;
+        replica = replica();
+        submit(replica, "body6");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.size() < 6
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        replica.close(deadline);
+        assertEquals(6, received.size());
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(received.get(i - 1).endsWith(" body" + i));
+        }
+        assertEquals(0, replica.getLag());
+    }
+
+    @Test
+    void testSpoolWithoutMemory() throws Exception {
+        IdolMemoryGovernor governor = IdolMemoryGovernor.get(3 * 1024);
+        IdolReplica replica = replica(governor);
+        // no memory left: spooled instead of held, sent later
+        try (IdolMemoryGovernor.Permit permit = governor.acquire(3 * 1024)) {
+            submit(replica, "body1");
+            submit(replica, "body2");
+            Thread.sleep(200);
+            assertTrue(received.isEmpty());
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.size() < 2
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        replica.close(deadline);
+        assertEquals(2, received.size());
+        assertTrue(received.get(0).endsWith(" body1"));
+        // memory held while sending is released
+        assertEquals(3 * 1024, governor.getAvailableBytes());
+    }
+
+    private IdolReplica replica() throws IOException {
+        return replica(null);
+    }
+    private IdolReplica replica(IdolMemoryGovernor governor)
+            throws IOException {
+        IdolCommitterConfig config = new IdolCommitterConfig();
+        config.setMaxRetries(0);
+        config.setRetryDelay(0);
+        config.setReplicaMaxPending(2);
+        return new IdolReplica("http://replica:9100", tempDir, config,
+                tempDir, governor,
+                (url, contentType, compressed, size, payload) -> {
+                    if (down) {
+                        throw new IdolException(
+                                "Replica down.", (Throwable) null);
+                    }
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    try {
+                        payload.writeTo(out);
+                    } catch (IOException e) {
+                        throw new IdolException("Could not read.", e);
+                    }
+                    received.add(url + " "
+                            + new String(out.toByteArray(), UTF_8));
+                    return null;
+                });
+    }
+
+    private void submit(IdolReplica replica, String body)
+            throws IOException {
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(100, tempDir);
+        payload.write(body.getBytes(UTF_8));
+        replica.submit(new URL("http://primary:9100/DREADDDATA?x=1"),
+                "text/plain", false, 1, payload);
+        // released by the replica once sent or spooled
+        payload.dispose();
+    }
+}
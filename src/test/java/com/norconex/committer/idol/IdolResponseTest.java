@@ -0,0 +1,99 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class IdolResponseTest {
+
+    @Test
+    void testIndexIdResponse() throws IOException {
+        IdolResponse resp = parse(200, "\nINDEXID=1234\n");
+        assertTrue(resp.isSuccess());
+        assertEquals(1234, resp.getIndexId());
+    }
+
+    @Test
+    void testCfsSuccessResponse() throws IOException {
+        IdolResponse resp = parse(200, "<?xml version='1.0' encoding='UTF-8' ?>"
+                + "<autnresponse><action>INGEST</action>"
+                + "<response>SUCCESS</response><responsedata>"
+                + "<token>MTAuMC4wLjE6NzAwMDpJTkdFU1Q6LTE=</token>"
+                + "</responsedata></autnresponse>");
+        assertTrue(resp.isSuccess());
+        assertEquals("SUCCESS", resp.getStatus());
+    }
+
+    @Test
+    void testErrorResponses() throws IOException {
+        IdolResponse resp = parse(200, "<autnresponse>"
+                + "<action>DREADDDATA</action><response>ERROR</response>"
+                + "<responsedata><error>"
+                + "<errorid>DAHDREADDDATA-2147440134</errorid>"
+                + "<errorstring>ERRORAPIBUSY</errorstring>"
+                + "<errordescription>Server is busy.</errordescription>"
+                + "<errorcode>ERRORAPIBUSY</errorcode>"
+                + "</error></responsedata></autnresponse>");
+        assertFalse(resp.isSuccess());
+        assertTrue(resp.isRetryable());
+        assertEquals("ERRORAPIBUSY", resp.getErrorCode());
+        assertEquals("Server is busy.", resp.getErrorDescription());
+
+        resp = parse(200, "<autnresponse><response>ERROR</response>"
+                + "<responsedata><error>"
+                + "<errordescription>Invalid parameter.</errordescription>"
+                + "</error></responsedata></autnresponse>");
+        assertFalse(resp.isSuccess());
+        assertFalse(resp.isRetryable());
+
+        resp = parse(503, "Service Unavailable");
+        assertFalse(resp.isSuccess());
+        assertTrue(resp.isRetryable());
+
+        resp = parse(400, null);
+        assertFalse(resp.isSuccess());
+        assertFalse(resp.isRetryable());
+    }
+
+    @Test
+    void testDocumentErrors() throws IOException {
+        IdolResponse resp = parse(200, "<autnresponse>"
+                + "<response>SUCCESS</response><responsedata>"
+                + "<document><reference>doc1</reference>"
+                + "<error>Field too long</error></document>"
+                + "<document><reference>doc2</reference></document>"
+                + "</responsedata></autnresponse>");
+        assertFalse(resp.isSuccess());
+        assertFalse(resp.isRetryable());
+        assertEquals(1, resp.getDocumentErrors().size());
+        assertEquals("doc1",
+                resp.getDocumentErrors().get(0).getReference());
+        assertEquals("Field too long",
+                resp.getDocumentErrors().get(0).getError());
+    }
+
+    private IdolResponse parse(int status, String body) throws IOException {
+        return IdolResponse.parse(status, body == null
+                ? null : new ByteArrayInputStream(body.getBytes(UTF_8)));
+    }
+}
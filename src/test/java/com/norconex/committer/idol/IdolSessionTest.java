@@ -0,0 +1,165 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.input.BrokenInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.map.Properties;
+
+class IdolSessionTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSessionWithoutConnection() throws Exception {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        DreAddDataAction action = new DreAddDataAction(
+                new IdolFieldPlan(cfg), null, -1, new IdolJfr(cfg));
+
+        // not sent, kept for sending again
+        IdolSession session = new IdolSession(tempDir, null);
+        assertTrue(session.isBroken());
+        session.write(Arrays.asList(doc("a"), doc("b")), action);
+        session.write(Collections.singletonList(doc("c")), action);
+        assertEquals(3, session.getDocCount());
+        assertThrows(IdolException.class, session::finish);
+        List<Path> pending = IdolSession.pending(tempDir);
+        assertEquals(Collections.singletonList(session.getFile()), pending);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, IdolSession.copyComplete(pending.get(0), out));
+        assertEquals(new String(Files.readAllBytes(pending.get(0)), UTF_8),
+                out.toString(UTF_8.name()));
+
+        session.delete();
+        assertTrue(IdolSession.pending(tempDir).isEmpty());
+    }
+
+    @Test
+    void testWriteFailure() throws Exception {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        DreAddDataAction action = new DreAddDataAction(
+                new IdolFieldPlan(cfg), null, -1, new IdolJfr(cfg));
+
+        IdolSession session = new IdolSession(tempDir, null);
+        session.write(Collections.singletonList(doc("a")), action);
+        long size = Files.size(session.getFile());
+        // content failing to be read after the batch was partly written
+        ICommitterRequest bad = new UpsertRequest("c", new Properties(),
+                new SequenceInputStream(new ByteArrayInputStream(
+                        StringUtils.repeat('x', 10000).getBytes(UTF_8)),
+                        new BrokenInputStream()));
+        assertThrows(CommitterException.class, () -> session.write(
+                Arrays.asList(doc("b"), bad), action));
+        assertTrue(session.isAborted());
+        assertEquals(1, session.getDocCount());
+        // failed batch dropped, session kept for sending again
+        assertEquals(size, Files.size(session.getFile()));
+        assertThrows(CommitterException.class, () -> session.write(
+                Collections.singletonList(doc("d")), action));
+        assertThrows(IdolException.class, session::finish);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, IdolSession.copyComplete(session.getFile(), out));
+    }
+
+    @Test
+    void testReject() throws Exception {
+        IdolSession session = new IdolSession(tempDir, null);
+        assertThrows(IdolException.class, session::finish);
+        IdolSession.reject(session.getFile());
+        assertTrue(IdolSession.pending(tempDir).isEmpty());
+        assertTrue(Files.exists(tempDir.resolve("error").resolve(
+                session.getFile().getFileName())));
+    }
+
+    @Test
+    void testCopyComplete() throws Exception {
+        // as left by a crash while writing a document
+        Path file = tempDir.resolve("0000000000000000001.idx");
+        String complete = "\n#DREREFERENCE a\n#DRECONTENT\n#DREENDDOC \n"
+                + "\n#DREREFERENCE b\n#DRECONTENT\n\n#DREENDDOC \n";
+        Files.write(file, (complete + "\n#DREREFERENCE c\n#DRECONT")
+                .getBytes(UTF_8), StandardOpenOption.CREATE_NEW);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, IdolSession.copyComplete(file, out));
+        assertEquals(complete + DreAddDataAction.END_DATA,
+                out.toString(UTF_8.name()));
+    }
+
+    @Test
+    void testCopyCompleteSections() throws Exception {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        DreAddDataAction action = new DreAddDataAction(
+                new IdolFieldPlan(cfg), null, 10, new IdolJfr(cfg));
+        StringWriter w = new StringWriter();
+        // "a" in one section, "b" in three
+        action.writeDocuments(Arrays.asList(doc("a"), new UpsertRequest(
+                "b", new Properties(), new ByteArrayInputStream(
+                        "0123456789 0123456789 0123456789".getBytes(UTF_8)))),
+                w);
+        String idx = w.toString();
+        String docA = idx.substring(0, idx.indexOf("\n#DREREFERENCE b"));
+        int section1 = idx.indexOf("#DRESECTION 1");
+        assertTrue(section1 > 0);
+        Path file = tempDir.resolve("0000000000000000001.idx");
+
+        // whole: sections are not documents
+        Files.write(file, idx.getBytes(UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, IdolSession.copyComplete(file, out));
+        assertEquals(idx + DreAddDataAction.END_DATA,
+                out.toString(UTF_8.name()));
+
+        // cut short in a section of "b", or in its header
+        for (String cut : Arrays.asList(
+                idx.substring(0, section1 + 20),
+                idx.substring(0, section1))) {
+            Files.write(file, cut.getBytes(UTF_8));
+            out.reset();
+            assertEquals(1, IdolSession.copyComplete(file, out));
+            assertEquals(docA + DreAddDataAction.END_DATA,
+                    out.toString(UTF_8.name()));
+        }
+    }
+
+    private ICommitterRequest doc(String ref) {
+        return new UpsertRequest(ref, new Properties(),
+                new ByteArrayInputStream(ref.getBytes(UTF_8)));
+    }
+}
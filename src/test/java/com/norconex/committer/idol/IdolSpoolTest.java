@@ -0,0 +1,111 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IdolSpoolTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSpoolInOrder() throws IOException {
+        IdolSpool spool = new IdolSpool(tempDir, 100_000);
+        assertFalse(spool.isPending());
+        for (int i = 1; i <= 12; i++) {
+            spool.add(new IdolSpool.Entry("http://localhost/" + i,
+                    "text/plain", i % 2 == 0, i), payload("body" + i));
+        }
+
+        // spooled batches survive restarts
+        spool = new IdolSpool(tempDir, 100_000);
+        assertTrue(spool.isPending());
+        assertEquals(12, spool.count());
+        for (int i = 1; i <= 12; i++) {
+            IdolSpool.Entry entry = spool.peek();
+            assertEquals("http://localhost/" + i, entry.getUrl());
+            assertEquals("text/plain", entry.getContentType());
+            assertEquals(i % 2 == 0, entry.isCompressed());
+            assertEquals(i, entry.getBatchSize());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entry.writeTo(out);
+            assertEquals("body" + i, out.toString(UTF_8.name()));
+            if (i == 3) {
+                spool.reject(entry);
+            } else {
+                spool.remove(entry);
+            }
+        }
+        assertNull(spool.peek());
+        assertFalse(spool.isPending());
+        assertTrue(Files.isRegularFile(tempDir.resolve(
+                "error").resolve(String.format("%019d.spool", 3))));
+    }
+
+    @Test
+    void testReserve() throws IOException {
+        IdolSpool spool = new IdolSpool(tempDir, 100_000);
+        IdolSpool.Entry first = new IdolSpool.Entry(
+                "http://localhost/1", "text/plain", false, 1);
+        spool.reserve(first);
+        IdolSpool.Entry second = new IdolSpool.Entry(
+                "http://localhost/2", "text/plain", false, 1);
+        spool.reserve(second);
+        spool.add(second, payload("second"));
+        spool.add(new IdolSpool.Entry(
+                "http://localhost/3", "text/plain", false, 1),
+                payload("third"));
+        spool.add(first, payload("first"));
+
+        // in the order reserved
+        for (int i = 1; i <= 3; i++) {
+            IdolSpool.Entry entry = spool.peek();
+            assertEquals("http://localhost/" + i, entry.getUrl());
+            spool.remove(entry);
+        }
+        assertFalse(spool.isPending());
+    }
+
+    @Test
+    void testSpoolFull() throws IOException {
+        IdolSpool spool = new IdolSpool(tempDir, 200);
+        IdolSpool.Entry entry = new IdolSpool.Entry(
+                "http://localhost/", "text/plain", false, 1);
+        spool.add(entry, payload("small"));
+        assertThrows(IOException.class, () -> spool.add(
+                entry, payload(String.format("%200s", "big"))));
+        assertEquals(1, spool.count());
+    }
+
+    private IdolPayloadBuffer payload(String body) throws IOException {
+        IdolPayloadBuffer payload = new IdolPayloadBuffer(1000, tempDir);
+        payload.write(body.getBytes(UTF_8));
+        return payload;
+    }
+}
@@ -0,0 +1,228 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/* Embedded HTTP server answering like IDOL (DIH/DRE, CFS and ACI
+ * actions), recording requests it receives.  Responses can be replaced
+ * by a handler, returning null for the default response.
+ */
+class MockIdolServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<Request> requests = new ArrayList<>();
+    private final AtomicLong indexId = new AtomicLong();
+    private volatile Function<Request, Response> handler = r -> null;
+    private volatile List<String> databases = new ArrayList<>();
+    private volatile int maxUrlLength = 16 * 1024;
+
+    MockIdolServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void setHandler(Function<Request, Response> handler) {
+        this.handler = handler;
+    }
+    // Databases reported by GetStatus.
+    void setDatabases(List<String> databases) {
+        this.databases = databases;
+    }
+    // Longer request URIs get a 414 response.
+    void setMaxUrlLength(int maxUrlLength) {
+        this.maxUrlLength = maxUrlLength;
+    }
+
+    List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+    List<Request> getRequests(String action) {
+        return getRequests().stream()
+                .filter(r -> r.getAction().equalsIgnoreCase(action))
+                .collect(Collectors.toList());
+    }
+    List<String> getActions() {
+        return getRequests().stream()
+                .map(Request::getAction)
+                .collect(Collectors.toList());
+    }
+    void clearRequests() {
+        synchronized (requests) {
+            requests.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        Request req = new Request(ex);
+        Response resp;
+        if (ex.getRequestURI().toString().length() > maxUrlLength) {
+            resp = new Response(414, "URI too long");
+        } else {
+            synchronized (requests) {
+                requests.add(req);
+            }
+            resp = handler.apply(req);
+            if (resp == null) {
+                resp = defaultResponse(req);
+            }
+        }
+        byte[] body = resp.body.getBytes(UTF_8);
+        ex.sendResponseHeaders(resp.status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+        ex.close();
+    }
+
+    private Response defaultResponse(Request req) {
+        String action = req.getAction();
+        if ("GetVersion".equalsIgnoreCase(action)) {
+            return aci("<productname>MOCK IDOL</productname>"
+                    + "<version>12.7</version>");
+        }
+        if ("GetStatus".equalsIgnoreCase(action)) {
+            return aci("<databases>" + databases.stream()
+                    .map(d -> "<database><name>" + d + "</name></database>")
+                    .collect(Collectors.joining()) + "</databases>");
+        }
+        if ("IndexerGetStatus".equalsIgnoreCase(action)) {
+            return aci("<item><id>" + indexId.get()
+                    + "</id><status>-1</status></item>");
+        }
+        if ("ingest".equalsIgnoreCase(action)) {
+            return aci("");
+        }
+        return new Response(200, "INDEXID=" + indexId.incrementAndGet());
+    }
+
+    static Response aci(String responseData) {
+        return new Response(200, "<autnresponse><response>SUCCESS"
+                + "</response><responsedata>" + responseData
+                + "</responsedata></autnresponse>");
+    }
+    static Response error(int status, String errorCode) {
+        return new Response(status, "<autnresponse><response>ERROR"
+                + "</response><responsedata><error><errorcode>" + errorCode
+                + "</errorcode></error></responsedata></autnresponse>");
+    }
+
+    static class Response {
+        private final int status;
+        private final String body;
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    static class Request {
+        private final String method;
+        private final String path;
+        private final String rawQuery;
+        private final Map<String, String> params =
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final Map<String, String> headers =
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final byte[] body;
+        private final String action;
+        private Request(HttpExchange ex) throws IOException {
+            method = ex.getRequestMethod();
+            path = ex.getRequestURI().getPath();
+            rawQuery = StringUtils.defaultString(
+                    ex.getRequestURI().getRawQuery());
+            parse(rawQuery);
+            ex.getRequestHeaders().forEach(
+                    (k, v) -> headers.put(k, v.get(0)));
+            InputStream in = ex.getRequestBody();
+            if ("gzip".equals(headers.get("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            body = IOUtils.toByteArray(in);
+            String name = StringUtils.strip(path, "/");
+            action = StringUtils.isNotEmpty(name)
+                    ? name : StringUtils.defaultString(params.get("action"));
+        }
+        private void parse(String query) throws IOException {
+            for (String param : StringUtils.split(
+                    StringUtils.defaultString(query), '&')) {
+                params.put(URLDecoder.decode(StringUtils.substringBefore(
+                        param, "="), UTF_8.name()), URLDecoder.decode(
+                                StringUtils.substringAfter(param, "="),
+                                UTF_8.name()));
+            }
+        }
+        String getMethod() {
+            return method;
+        }
+        // DIH/DRE action from the path, or ACI/CFS "action" parameter
+        String getAction() {
+            return action;
+        }
+        String getRawQuery() {
+            return rawQuery;
+        }
+        String getParam(String name) {
+            return params.get(name);
+        }
+        String getHeader(String name) {
+            return headers.get(name);
+        }
+        byte[] getBody() {
+            return body;
+        }
+        String getBodyString() {
+            return new String(body, UTF_8);
+        }
+        @Override
+        public String toString() {
+            return method + " " + path + " " + params;
+        }
+    }
+}
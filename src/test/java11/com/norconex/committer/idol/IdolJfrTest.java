@@ -0,0 +1,96 @@
+/* Copyright 2020 Norconex Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.norconex.committer.idol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.norconex.committer.core3.CommitterException;
+import com.norconex.committer.core3.ICommitterRequest;
+import com.norconex.committer.core3.UpsertRequest;
+import com.norconex.commons.lang.map.Properties;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class IdolJfrTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEvents() throws IOException, CommitterException {
+        IdolCommitterConfig cfg = new IdolCommitterConfig();
+        cfg.setJfrDocumentSizeThreshold(100);
+        cfg.setJfrDocumentTimeThreshold(60_000);
+        IdolJfr jfr = new IdolJfr(cfg);
+        DreAddDataAction action = new DreAddDataAction(
+                new IdolFieldPlan(cfg), null, -1, jfr);
+        List<ICommitterRequest> batch = Arrays.asList(
+                doc("small", "tiny"),
+                doc("large", StringUtils.repeat('x', 200)));
+
+        Path file = tempDir.resolve("test.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.norconex.committer.idol.Batch");
+            recording.enable("com.norconex.committer.idol.Document");
+            recording.start();
+
+            IdolJfr.Batch stats = jfr.beginBatch(action, batch.size());
+            action.writeTo(batch, new StringWriter());
+            stats.serialized(250, 1000);
+            stats.attempted(2000);
+            stats.outcome(IdolJfr.OUTCOME_SUCCESS);
+            jfr.commitBatch(stats);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        List<RecordedEvent> docs = events.stream().filter(e -> e.getEventType()
+                .getName().equals("com.norconex.committer.idol.Document"))
+                .collect(Collectors.toList());
+        assertEquals(1, docs.size());
+        assertEquals("large", docs.get(0).getString("reference"));
+
+        RecordedEvent batchEvent = events.stream().filter(e -> e.getEventType()
+                .getName().equals("com.norconex.committer.idol.Batch"))
+                .findFirst().get();
+        assertEquals("DreAddDataAction", batchEvent.getString("action"));
+        assertEquals(2, batchEvent.getInt("documents"));
+        assertEquals(250, batchEvent.getLong("bytes"));
+        assertEquals(1, batchEvent.getInt("attempts"));
+        assertEquals("SUCCESS", batchEvent.getString("outcome"));
+    }
+
+    private UpsertRequest doc(String ref, String content) {
+        return new UpsertRequest(ref, new Properties(),
+                new ByteArrayInputStream(content.getBytes(UTF_8)));
+    }
+}